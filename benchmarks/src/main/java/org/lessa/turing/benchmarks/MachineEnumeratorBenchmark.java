@@ -0,0 +1,50 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lessa.turing.MachineEnumerator;
+import org.lessa.turing.RunLimits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to enumerate and run every 3-state, 2-symbol machine, on the calling thread and work
+ * stealing across the cores of the common pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class MachineEnumeratorBenchmark {
+
+   private RunLimits limits;
+
+   @Param({ "100", "1000" })
+   private long maxSteps;
+
+   @Benchmark
+   public MachineEnumerator.Result sequential() {
+      return MachineEnumerator.sequential().enumerate(3, 2, limits);
+   }
+
+   @Setup
+   public void setUp() {
+      limits = RunLimits.NONE.withMaxSteps(maxSteps);
+   }
+
+   @Benchmark
+   public MachineEnumerator.Result workStealing() {
+      return MachineEnumerator.workStealing().enumerate(3, 2, limits);
+   }
+}
@@ -0,0 +1,66 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lessa.turing.Machine;
+import org.lessa.turing.RunLimits;
+import org.lessa.turing.RunResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full runs of the copying machine on 1, 2 and 4 tapes, with a hash-based, a compiled and an
+ * accelerated compiled transition function, with a compiled function on coded tapes or
+ * collecting metrics, and with a generated step loop, with and without metrics, which only
+ * differs from the compiled function on one tape. The machine restores its tapes, so one
+ * machine is run over and over and every operation is a single step; with the
+ * {@code -prof gc} profiler, {@code gc.alloc.rate.norm} is the number of bytes allocated per
+ * step.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class MachineRunBenchmark {
+
+   private static final int INPUT_LENGTH = 1000;
+   private static final int STEPS = 2 * INPUT_LENGTH + 3;
+
+   @Param({ "HASHED", "COMPILED", "CODED", "METERED", "ACCELERATED", "GENERATED",
+         "GENERATED_METERED" })
+   private String function;
+
+   private Machine machine;
+
+   @Param({ "1", "2", "4" })
+   private int numTapes;
+
+   @Benchmark
+   @OperationsPerInvocation(STEPS)
+   public RunResult run() {
+      return machine.run(RunLimits.NONE);
+   }
+
+   @Setup
+   public void setUp() {
+      machine = Machines.copyAndErase(numTapes, INPUT_LENGTH, !"HASHED".equals(function),
+            "ACCELERATED".equals(function), function.startsWith("GENERATED"),
+            "CODED".equals(function), function.endsWith("METERED"));
+      final RunResult result = machine.run(RunLimits.NONE);
+      if (!result.halted() || result.steps() != STEPS) {
+         throw new IllegalStateException("Unexpected benchmark run: " + result);
+      }
+   }
+}
@@ -0,0 +1,119 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.Arrays;
+
+import org.lessa.turing.Alphabet;
+import org.lessa.turing.ArrayTape;
+import org.lessa.turing.CodedTape;
+import org.lessa.turing.Machine;
+import org.lessa.turing.MachineBuilder;
+import org.lessa.turing.MachineDefinition;
+import org.lessa.turing.Move;
+import org.lessa.turing.Tape;
+import org.lessa.turing.TapeFactory;
+import org.lessa.turing.TransitionFunctionBuilder;
+
+/**
+ * Machines shared by the benchmarks.
+ */
+final class Machines {
+
+   static final Character BLANK = Machine.DEFAULT_BLANK_SYMBOL;
+   static final Character ONE = '1';
+   static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   private Machines() {
+   }
+
+   /**
+    * Transitions of a copying machine with the specified number of tapes. The machine copies
+    * its unary input onto every work tape, then walks back erasing the copies, so it leaves
+    * its tapes as it found them and can be run again without resetting anything. A run on an
+    * input of length n takes 2n + 3 steps.
+    *
+    * @param numTapes
+    *           number of tapes, including the input tape
+    * @return transition function builder, ready to build or compile
+    */
+   static TransitionFunctionBuilder copyAndErase(final int numTapes) {
+      final Character[] starts = fill(numTapes, START);
+      final Character[] blanks = fill(numTapes, BLANK);
+      final Character[] ones = fill(numTapes, ONE);
+      final Character[] input = fill(numTapes, BLANK);
+      input[0] = ONE;
+
+      return new TransitionFunctionBuilder(numTapes)
+            .withTranstion("q0", starts, starts, moves(numTapes, Move.RIGHT), "q1")
+            .withTranstion("q1", input, ones, moves(numTapes, Move.RIGHT), "q1")
+            .withTranstion("q1", blanks, blanks, moves(numTapes, Move.LEFT), "q2")
+            .withTranstion("q2", ones, input, moves(numTapes, Move.LEFT), "q2")
+            .withTranstion("q2", starts, starts, moves(numTapes, Move.NONE), "H");
+   }
+
+   /**
+    * Builds a machine over the copying transitions, see {@link #copyAndErase(int)}.
+    *
+    * @param numTapes
+    *           number of tapes, including the input tape
+    * @param inputLength
+    *           number of ones on the input tape
+    * @param compiled
+    *           whether to compile the transition function rather than hash it
+    * @param accelerated
+    *           whether to enable macro steps, only effective when compiled
+    * @param generated
+    *           whether to generate a step loop, only effective when compiled on one tape
+    * @param coded
+    *           whether the tapes store symbol codes rather than symbols
+    * @param metered
+    *           whether to collect metrics
+    * @return new machine
+    */
+   static Machine copyAndErase(final int numTapes, final int inputLength,
+         final boolean compiled, final boolean accelerated, final boolean generated,
+         final boolean coded, final boolean metered) {
+      final TransitionFunctionBuilder transitions = copyAndErase(numTapes);
+      final MachineDefinition definition = new MachineBuilder().withAlphabetSymbols(ONE)
+            .withInputSymbols(ONE)
+            .withStates("q0", "q1", "q2", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withMoreTapes(numTapes - 1)
+            .withAcceleration(accelerated)
+            .withCodeGeneration(generated)
+            .withMetrics(metered)
+            .withTapeFactory(coded ? TapeFactory.CODED : TapeFactory.ARRAY)
+            .withTransitionFunction(compiled ? transitions.compile() : transitions.build())
+            .buildDefinition();
+      return definition.newMachine(coded ? codedUnaryTape(definition.alphabet(), inputLength)
+            : unaryTape(inputLength));
+   }
+
+   static Tape unaryTape(final int length) {
+      return new ArrayTape(BLANK, START, fill(length, ONE));
+   }
+
+   private static Tape codedUnaryTape(final Alphabet alphabet, final int length) {
+      final CodedTape tape = new CodedTape(alphabet, BLANK, START);
+      for (int i = 1; i <= length; i++) {
+         tape.move(Move.RIGHT);
+         tape.write(ONE);
+      }
+      while (tape.currentIndex() > 0) {
+         tape.move(Move.LEFT);
+      }
+      return tape;
+   }
+
+   private static Character[] fill(final int length, final Character symbol) {
+      final Character[] symbols = new Character[length];
+      Arrays.fill(symbols, symbol);
+      return symbols;
+   }
+
+   private static Move[] moves(final int length, final Move move) {
+      final Move[] moves = new Move[length];
+      Arrays.fill(moves, move);
+      return moves;
+   }
+}
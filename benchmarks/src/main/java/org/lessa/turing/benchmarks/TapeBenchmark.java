@@ -0,0 +1,82 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lessa.turing.Move;
+import org.lessa.turing.Tape;
+import org.lessa.turing.TapeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read, write and move throughput of every tape implementation. Each invocation sweeps the
+ * head over {@value #CELLS} cells and back, so after the first invocation the tape never
+ * grows and the numbers reflect the steady state of a running machine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class TapeBenchmark {
+
+   private static final int CELLS = 1024;
+
+   @Param({ "ARRAY", "RUN_LENGTH", "SPARSE" })
+   private String kind;
+
+   private Tape tape;
+
+   @Setup
+   public void setUp() {
+      final TapeFactory factory = "ARRAY".equals(kind) ? TapeFactory.ARRAY
+            : "RUN_LENGTH".equals(kind) ? TapeFactory.RUN_LENGTH : TapeFactory.SPARSE;
+      tape = factory.create(Machines.BLANK, Machines.START);
+   }
+
+   /**
+    * Boxed read, write and move, as used by interpreted transition functions.
+    */
+   @Benchmark
+   @OperationsPerInvocation(2 * CELLS)
+   public void readWriteMove(final Blackhole blackhole) {
+      for (int i = 0; i < CELLS; i++) {
+         tape.move(Move.RIGHT);
+         blackhole.consume(tape.read());
+         tape.write((i & 1) == 0 ? '0' : '1');
+      }
+      for (int i = 0; i < CELLS; i++) {
+         blackhole.consume(tape.read());
+         tape.move(Move.LEFT);
+      }
+   }
+
+   /**
+    * Primitive read, write and move, as used by compiled transition functions.
+    */
+   @Benchmark
+   @OperationsPerInvocation(2 * CELLS)
+   public void readWriteMoveChar(final Blackhole blackhole) {
+      for (int i = 0; i < CELLS; i++) {
+         tape.move(Move.RIGHT);
+         blackhole.consume(tape.readChar());
+         tape.writeChar((i & 1) == 0 ? '0' : '1');
+      }
+      for (int i = 0; i < CELLS; i++) {
+         blackhole.consume(tape.readChar());
+         tape.move(Move.LEFT);
+      }
+   }
+}
@@ -0,0 +1,112 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.lessa.turing.CompiledTransitionFunction;
+import org.lessa.turing.Transition;
+import org.lessa.turing.TransitionFunction;
+import org.lessa.turing.TransitionFunctionBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a single transition lookup, cycling over the points where the function of the
+ * copying machine is defined: by name on the hash-based function, by name on the compiled
+ * function, and by code on the compiled function.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class TransitionLookupBenchmark {
+
+   private CompiledTransitionFunction compiled;
+   private TransitionFunction hashed;
+   private int next;
+
+   @Param({ "1", "4" })
+   private int numTapes;
+
+   private int[] stateCodes;
+   private String[] states;
+   private int[] symbolCodes;
+   private List<List<Character>> symbols;
+
+   @Benchmark
+   public Transition compiledByCode() {
+      final int ix = advance();
+      return compiled.apply(stateCodes[ix], symbolCodes[ix]);
+   }
+
+   @Benchmark
+   public Transition compiledByName() {
+      final int ix = advance();
+      return compiled.apply(states[ix], symbols.get(ix));
+   }
+
+   @Benchmark
+   public Transition hashedByName() {
+      final int ix = advance();
+      return hashed.apply(states[ix], symbols.get(ix));
+   }
+
+   @Setup
+   public void setUp() {
+      final TransitionFunctionBuilder builder = Machines.copyAndErase(numTapes);
+      compiled = builder.compile();
+      hashed = builder.build();
+
+      final int count = compiled.transitionCount();
+      states = new String[count];
+      symbols = new ArrayList<>(count);
+      stateCodes = new int[count];
+      symbolCodes = new int[count];
+
+      // one lookup point per transition, taken from the machine's own head symbols
+      final Character[][] heads = new Character[][] { fill(Machines.START),
+            input(), fill(Machines.BLANK), fill(Machines.ONE), fill(Machines.START) };
+      final String[] names = new String[] { "q0", "q1", "q1", "q2", "q2" };
+      for (int i = 0; i < count; i++) {
+         states[i] = names[i];
+         symbols.add(Arrays.asList(heads[i]));
+         stateCodes[i] = compiled.stateCode(names[i]);
+         final int[] codes = new int[numTapes];
+         for (int j = 0; j < numTapes; j++) {
+            codes[j] = compiled.alphabet().code(heads[i][j]);
+         }
+         symbolCodes[i] = compiled.encode(codes);
+      }
+   }
+
+   private int advance() {
+      final int ix = next;
+      next = ix + 1 == states.length ? 0 : ix + 1;
+      return ix;
+   }
+
+   private Character[] fill(final Character symbol) {
+      final Character[] symbols = new Character[numTapes];
+      Arrays.fill(symbols, symbol);
+      return symbols;
+   }
+
+   private Character[] input() {
+      final Character[] symbols = fill(Machines.BLANK);
+      symbols[0] = Machines.ONE;
+      return symbols;
+   }
+}
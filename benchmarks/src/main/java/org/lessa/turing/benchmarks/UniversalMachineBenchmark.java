@@ -0,0 +1,65 @@
+package org.lessa.turing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lessa.turing.MachineDefinition;
+import org.lessa.turing.RunLimits;
+import org.lessa.turing.RunResult;
+import org.lessa.turing.UniversalMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Short runs of the copying machine on a fresh input, through a new {@link MachineDefinition}
+ * run with its own tapes and through the shared interpreter on the encoded machine, where
+ * setting up the run weighs as much as running it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class UniversalMachineBenchmark {
+
+   private MachineDefinition definition;
+   private int[] encoded;
+   private String input;
+
+   @Param({ "4", "64" })
+   private int inputLength;
+
+   @Param({ "1", "2" })
+   private int numTapes;
+
+   @Benchmark
+   public RunResult machine() {
+      return definition.newMachine(Machines.unaryTape(inputLength)).run(RunLimits.NONE);
+   }
+
+   @Setup
+   public void setUp() {
+      definition = Machines.copyAndErase(numTapes, inputLength, true, false, false, false,
+            false).definition();
+      encoded = UniversalMachine.encode(definition);
+      input = new String(new char[inputLength]).replace('\0', Machines.ONE);
+      final UniversalMachine.Result result = universal();
+      if (!result.halted() || result.steps() != 2 * inputLength + 3) {
+         throw new IllegalStateException("Unexpected benchmark run: " + result);
+      }
+   }
+
+   @Benchmark
+   public UniversalMachine.Result universal() {
+      return UniversalMachine.run(encoded, input, RunLimits.NONE);
+   }
+}
@@ -0,0 +1,53 @@
+package org.lessa.lambda;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the parser, see
+ * {@link org.lessa.lambda.ast.FlightRecorderEvents}.
+ */
+final class FlightRecorderEvents {
+
+   /**
+    * Whether the runtime has the flight recorder API, as probed by the syntax tree events.
+    */
+   static final boolean AVAILABLE = org.lessa.lambda.ast.FlightRecorderEvents.AVAILABLE;
+
+   /**
+    * Parse of a program, from its source to its syntax tree.
+    */
+   @Category({ "Lessa", "Lambda" })
+   @Description("Parse of a program, from its source to its syntax tree.")
+   @Enabled(false)
+   @Label("Parse")
+   @Name("org.lessa.lambda.Parse")
+   @Threshold("1 ms")
+   static final class ParseEvent extends Event {
+
+      @Label("Tokens")
+      int tokens;
+   }
+
+   private FlightRecorderEvents() {
+   }
+
+   static ParseEvent beginParse() {
+      final ParseEvent event = new ParseEvent();
+      event.begin();
+      return event;
+   }
+
+   static void endParse(ParseEvent event, int tokens) {
+      event.end();
+      if (event.shouldCommit()) {
+         event.tokens = tokens;
+         event.commit();
+      }
+   }
+}
@@ -45,8 +45,12 @@ public class Parser {
     */
    public Program parse(final Reader reader) throws ParserException {
 
+      final FlightRecorderEvents.ParseEvent event = FlightRecorderEvents.AVAILABLE
+            ? FlightRecorderEvents.beginParse()
+            : null;
+      Tokenizer tokenizer = null;
       try {
-         final Tokenizer tokenizer = new Tokenizer(reader);
+         tokenizer = new Tokenizer(reader);
          final Program program = program(tokenizer);
 
          if (tokenizer.hasNext()) {
@@ -59,6 +63,11 @@ public class Parser {
       catch (final TokenizerException te) {
          throw new ParserException("Invalid token stream.", te);
       }
+      finally {
+         if (event != null) {
+            FlightRecorderEvents.endParse(event, tokenizer == null ? 0 : tokenizer.tokenCount());
+         }
+      }
    }
 
    // ----------------------------------------------------------------------
@@ -98,6 +98,15 @@ public final class Tokenizer implements ListIterator<Token> {
       tokens.set(tokenIndex, token);
    }
 
+   /**
+    * Number of tokens in the stream, regardless of the iterator position.
+    *
+    * @return token count
+    */
+   public int tokenCount() {
+      return tokens.size();
+   }
+
    private Token createSymbolToken(final String token) throws TokenizerException {
       if (token.equals(TK_DOT.token())) {
          return TK_DOT;
@@ -74,7 +74,15 @@ public class AstNodeFactory {
     */
    public Program createProgram(final List<Definition> definitions, final Expression expression) {
       final Program program = new ProgramImpl(definitions, expression);
-      program.accept(new AstLexicalScopeVisitor());
+      final FlightRecorderEvents.ScopeResolutionEvent event = FlightRecorderEvents.AVAILABLE
+            ? FlightRecorderEvents.beginScopeResolution()
+            : null;
+      final AstLexicalScopeVisitor visitor = new AstLexicalScopeVisitor();
+      program.accept(visitor);
+      if (event != null) {
+         FlightRecorderEvents.endScopeResolution(event, definitions.size(),
+               visitor.toRename.size());
+      }
       return program;
    }
 
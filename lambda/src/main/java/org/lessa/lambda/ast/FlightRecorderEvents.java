@@ -0,0 +1,73 @@
+package org.lessa.lambda.ast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the syntax tree, disabled by default and only recorded above
+ * their threshold unless the recording settings say otherwise.
+ * <p>
+ * The {@code jdk.jfr} API exists from Java 8 update 262 and Java 11 on. On older runtimes,
+ * {@link #AVAILABLE} is {@code false} and callers never reach the methods that load the event
+ * classes. The flag is public for the parser's events in {@code org.lessa.lambda} only; the
+ * class is not meant to be used outside this project.
+ */
+public final class FlightRecorderEvents {
+
+   /**
+    * Whether the runtime has the flight recorder API, for the events of every package of
+    * this project.
+    */
+   public static final boolean AVAILABLE = available();
+
+   /**
+    * Resolution of the lexical scopes of a program.
+    */
+   @Category({ "Lessa", "Lambda" })
+   @Description("Resolution of the lexical scopes of a program.")
+   @Enabled(false)
+   @Label("Scope Resolution")
+   @Name("org.lessa.lambda.ScopeResolution")
+   @Threshold("1 ms")
+   static final class ScopeResolutionEvent extends Event {
+
+      @Label("Definitions")
+      int definitions;
+
+      @Label("Shadowed Bindings")
+      int shadowed;
+   }
+
+   private FlightRecorderEvents() {
+   }
+
+   private static boolean available() {
+      try {
+         Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+         return true;
+      }
+      catch (final ClassNotFoundException | LinkageError e) {
+         return false;
+      }
+   }
+
+   static ScopeResolutionEvent beginScopeResolution() {
+      final ScopeResolutionEvent event = new ScopeResolutionEvent();
+      event.begin();
+      return event;
+   }
+
+   static void endScopeResolution(ScopeResolutionEvent event, int definitions, int shadowed) {
+      event.end();
+      if (event.shouldCommit()) {
+         event.definitions = definitions;
+         event.shadowed = shadowed;
+         event.commit();
+      }
+   }
+}
@@ -0,0 +1,124 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of interned tape symbols. Each symbol is assigned a dense code in
+ * {@code [0, size())}, following the natural order of the symbols, so that tables indexed by
+ * symbol can be plain arrays. Alphabets of up to {@value #MAX_BYTE_CODES} symbols have codes
+ * that fit in a byte, which {@link CodedTape} stores instead of symbols.
+ */
+public final class Alphabet {
+
+   public static final int MAX_BYTE_CODES = 256;
+
+   private final Character[] boxed;
+   /**
+    * Code of the symbol in the same slot of {@link #slotSymbols}, or -1 for an empty slot, in
+    * an open-addressing table of at least twice as many slots as symbols, so that looking up
+    * a code takes about one probe however far apart the symbols are.
+    */
+   private final int[] slotCodes;
+   private final int slotShift;
+   private final char[] slotSymbols;
+   private final char[] symbols;
+
+   public Alphabet(Collection<Character> symbols) {
+      this.symbols = new char[symbols.size()];
+      int ix = 0;
+      for (final Character symbol : symbols) {
+         this.symbols[ix++] = symbol;
+      }
+      Arrays.sort(this.symbols);
+      for (int i = 1; i < this.symbols.length; i++) {
+         if (this.symbols[i] == this.symbols[i - 1]) {
+            throw new IllegalArgumentException(
+                  String.format("Duplicate alphabet symbol '%s'.", this.symbols[i]));
+         }
+      }
+      this.boxed = new Character[this.symbols.length];
+      for (int i = 0; i < this.symbols.length; i++) {
+         this.boxed[i] = this.symbols[i];
+      }
+      final int slots = Integer.highestOneBit(Math.max(1, this.symbols.length) * 2 - 1) * 2;
+      this.slotCodes = new int[slots];
+      this.slotShift = Integer.SIZE - Integer.numberOfTrailingZeros(slots);
+      this.slotSymbols = new char[slots];
+      Arrays.fill(slotCodes, -1);
+      for (int i = 0; i < this.symbols.length; i++) {
+         int slot = slot(this.symbols[i]);
+         while (slotCodes[slot] >= 0) {
+            slot = (slot + 1) & (slots - 1);
+         }
+         slotCodes[slot] = i;
+         slotSymbols[slot] = this.symbols[i];
+      }
+   }
+
+   /**
+    * Canonical boxed instance of the symbol with the specified code. Handing out the same
+    * instance every time avoids allocating for symbols outside of the {@link Character} cache.
+    *
+    * @param code
+    *           symbol code
+    * @return boxed symbol
+    */
+   public Character boxed(int code) {
+      return boxed[code];
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      return obj instanceof Alphabet && Arrays.equals(symbols, ((Alphabet) obj).symbols);
+   }
+
+   @Override
+   public int hashCode() {
+      return Arrays.hashCode(symbols);
+   }
+
+   /**
+    * Code of the specified symbol.
+    *
+    * @param symbol
+    *           tape symbol
+    * @return symbol code, or -1 if the symbol is not part of the alphabet
+    */
+   public int code(char symbol) {
+      int slot = slot(symbol);
+      int code;
+      while ((code = slotCodes[slot]) >= 0 && slotSymbols[slot] != symbol) {
+         slot = (slot + 1) & (slotCodes.length - 1);
+      }
+      return code;
+   }
+
+   public int size() {
+      return symbols.length;
+   }
+
+   /**
+    * Symbol with the specified code.
+    *
+    * @param code
+    *           symbol code
+    * @return tape symbol
+    */
+   public char symbol(int code) {
+      return symbols[code];
+   }
+
+   @Override
+   public String toString() {
+      return Arrays.toString(boxed);
+   }
+
+   /**
+    * Home slot of a symbol, by Fibonacci hashing, which spreads runs of consecutive symbols
+    * over the whole table.
+    */
+   private int slot(char symbol) {
+      return (symbol * 0x9E3779B9) >>> slotShift;
+   }
+}
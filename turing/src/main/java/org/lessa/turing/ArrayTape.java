@@ -0,0 +1,148 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+/**
+ * Tape backed by a growable {@code char[]}. Cell {@code i} lives at array index
+ * {@code i + origin}, and the array doubles in the direction of any write that falls outside
+ * of it, so the tape can grow at either end without boxing or hashing on the step path.
+ */
+public class ArrayTape extends Tape {
+
+   private static final int DEFAULT_CAPACITY = 64;
+
+   private char[] cells;
+   private int origin;
+
+   public ArrayTape(Character blankSymbol, Character startSymbol) {
+      this(blankSymbol, startSymbol, DEFAULT_CAPACITY);
+   }
+
+   public ArrayTape(Character blankSymbol, Character startSymbol, Character... contents) {
+      this(blankSymbol, startSymbol, Math.max(DEFAULT_CAPACITY, contents.length + 1));
+      for (int i = 0; i < contents.length; i++) {
+         cells[i + 1] = contents[i];
+      }
+      markUsed(contents.length);
+   }
+
+   private ArrayTape(char blankSymbol, char startSymbol, int initialCapacity) {
+      super(blankSymbol);
+      if (initialCapacity < 1) {
+         throw new IllegalArgumentException("The initial capacity must be positive.");
+      }
+      this.cells = new char[initialCapacity];
+      this.origin = 0;
+      Arrays.fill(cells, blankSymbol);
+      cells[0] = startSymbol;
+   }
+
+   /**
+    * Creates an empty tape with room for the specified number of cells before the first
+    * resize. This is a factory rather than a constructor so that it cannot be confused with
+    * the one taking tape contents.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol written at index 0
+    * @param initialCapacity
+    *           number of preallocated cells, at least one
+    * @return empty tape
+    */
+   public static ArrayTape withCapacity(Character blankSymbol, Character startSymbol,
+         int initialCapacity) {
+      return new ArrayTape(blankSymbol, startSymbol, initialCapacity);
+   }
+
+   @Override
+   public char charAt(int index) {
+      final int ix = index + origin;
+      return ix >= 0 && ix < cells.length ? cells[ix] : blankSymbol();
+   }
+
+   @Override
+   public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      // the stored part in one copy, then blanks on either side of the array
+      final int from = Math.max(srcBegin + origin, 0);
+      final int to = Math.min(srcEnd + origin, cells.length);
+      if (from >= to) {
+         Arrays.fill(dst, dstBegin, dstBegin + srcEnd - srcBegin, blankSymbol());
+         return;
+      }
+      Arrays.fill(dst, dstBegin, dstBegin + from - origin - srcBegin, blankSymbol());
+      System.arraycopy(cells, from, dst, dstBegin + from - origin - srcBegin, to - from);
+      Arrays.fill(dst, dstBegin + to - origin - srcBegin, dstBegin + srcEnd - srcBegin,
+            blankSymbol());
+   }
+
+   @Override
+   public char readChar() {
+      final int ix = currentIndex() + origin;
+      return ix < cells.length ? cells[ix] : blankSymbol();
+   }
+
+   @Override
+   protected int scanRun(int shift, int max) {
+      final char symbol = readChar();
+      final char blank = blankSymbol();
+      int ix = currentIndex() + origin;
+      int length = 0;
+      while (length < max) {
+         if (ix >= cells.length) {
+            // the rest of the tape to the right is blank
+            if (symbol != blank) {
+               break;
+            }
+            if (shift > 0) {
+               return max;
+            }
+         }
+         else if (cells[ix] != symbol) {
+            break;
+         }
+         ix += shift;
+         length++;
+      }
+      return length;
+   }
+
+   @Override
+   protected void store(int index, char symbol) {
+      int ix = index + origin;
+      if (ix < 0 || ix >= cells.length) {
+         grow(ix);
+         ix = index + origin;
+      }
+      cells[ix] = symbol;
+   }
+
+   /**
+    * Doubles the array, repeatedly if needed, until it covers the specified array index.
+    * Growth to the left shifts the existing cells and the origin by the added amount.
+    */
+   private void grow(int ix) {
+      final FlightRecorderEvents.TapeResizeEvent event = FlightRecorderEvents.AVAILABLE
+            ? FlightRecorderEvents.beginTapeResize()
+            : null;
+      int capacity = cells.length;
+      int shift = 0;
+      while (ix + shift < 0 || ix + shift >= capacity) {
+         if (ix + shift < 0) {
+            shift += capacity;
+         }
+         capacity *= 2;
+         if (capacity < 0) {
+            throw new IllegalStateException("Error: tape exceeded the maximum array size.");
+         }
+      }
+      final char[] grown = new char[capacity];
+      Arrays.fill(grown, blankSymbol());
+      System.arraycopy(cells, 0, grown, shift, cells.length);
+      if (event != null) {
+         FlightRecorderEvents.endTapeResize(event, this, cells.length, capacity);
+      }
+      cells = grown;
+      origin += shift;
+   }
+}
@@ -0,0 +1,439 @@
+package org.lessa.turing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lessa.turing.Event.OnDiverged;
+import org.lessa.turing.Event.OnHalted;
+import org.lessa.turing.Event.OnStateChanged;
+import org.lessa.turing.Event.OnTransition;
+
+/**
+ * Event handler that logs the records of {@link LoggingEventHandler} as JSON lines, with every
+ * symbol and move quoted so that each line parses, without slowing the machine down. The step
+ * loop only copies each event into a preallocated ring buffer; a background thread drains the
+ * buffer, formats whole batches of records into a reusable {@link StringBuilder} and encodes
+ * them into a reusable byte buffer, so neither side allocates per event.
+ * <p>
+ * When the ring buffer is full, the {@link OverflowPolicy} decides whether the machine waits
+ * for the drain thread or the event is dropped. The handler may be shared by machines running
+ * concurrently. Closing it drains every event published so far and flushes the output, which
+ * is never closed.
+ */
+public final class AsyncEventHandler implements Event.EventHandler, Closeable {
+
+   /**
+    * What a machine does with an event when the ring buffer is full.
+    */
+   public enum OverflowPolicy {
+      /**
+       * Waits for the drain thread to make room, so that no event is lost.
+       */
+      BLOCK,
+      /**
+       * Drops the event and counts it, so that the machine never waits.
+       */
+      DROP
+   }
+
+   public static final int DEFAULT_CAPACITY = 1 << 16;
+
+   private static final int BATCH_CHARS = 1 << 16;
+   private static final byte DIVERGED = 0;
+   private static final byte HALTED = 1;
+   private static final long IDLE_PARK_NANOS = 1000000;
+   private static final long FULL_PARK_NANOS = 10000;
+   private static final byte STATE_CHANGED = 2;
+   private static final byte TRANSITION = 3;
+
+   private final ByteBuffer bytes;
+   private CharBuffer chars;
+   private volatile boolean closed;
+   private volatile long consumed;
+   private final Thread drainer;
+   private final AtomicLong dropped = new AtomicLong();
+   private final CharsetEncoder encoder;
+   private volatile IOException failure;
+   private final byte[] kinds;
+   private final int mask;
+   private final OutputStream out;
+   private final String[] outputs;
+   private final OverflowPolicy policy;
+   private final Object producerLock = new Object();
+   private volatile long published;
+   private final long[] stateIds;
+   private final String[] states;
+   private final char[][] symbols;
+   private final int[] symbolCounts;
+   private final StringBuilder text;
+   private final Transition[] transitions;
+
+   /**
+    * Creates a handler that writes UTF-8 lines to the output, with the default capacity, and
+    * makes machines wait when the buffer is full.
+    *
+    * @param out
+    *           destination of the JSON lines
+    */
+   public AsyncEventHandler(OutputStream out) {
+      this(out, StandardCharsets.UTF_8, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+   }
+
+   /**
+    * Creates a handler and starts its drain thread.
+    *
+    * @param out
+    *           destination of the JSON lines
+    * @param charset
+    *           encoding of the lines
+    * @param capacity
+    *           number of events the ring buffer holds, rounded up to a power of two
+    * @param policy
+    *           what to do with events when the ring buffer is full
+    */
+   public AsyncEventHandler(OutputStream out, Charset charset, int capacity,
+         OverflowPolicy policy) {
+      if (capacity < 1 || capacity > 1 << 30) {
+         throw new IllegalArgumentException("The capacity must be between 1 and 2^30.");
+      }
+      final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+      this.mask = size - 1;
+      this.kinds = new byte[size];
+      this.outputs = new String[size];
+      this.stateIds = new long[size];
+      this.states = new String[size];
+      this.symbols = new char[size][];
+      this.symbolCounts = new int[size];
+      this.transitions = new Transition[size];
+      this.out = out;
+      this.policy = policy;
+      this.text = new StringBuilder(BATCH_CHARS + 256);
+      this.chars = CharBuffer.allocate(BATCH_CHARS + 256);
+      this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.bytes = ByteBuffer.allocate(BATCH_CHARS);
+      this.drainer = new Thread(this::drain, "turing-event-drain");
+      this.drainer.setDaemon(true);
+      this.drainer.start();
+   }
+
+   /**
+    * Drains and writes every event published so far, flushes the output and stops the drain
+    * thread. Events handled after this call are dropped.
+    *
+    * @throws IOException
+    *            if writing to the output failed at any time
+    */
+   @Override
+   public void close() throws IOException {
+      // under the lock, so that an event claimed before this point is published before the
+      // drain thread can see the handler closed
+      synchronized (producerLock) {
+         closed = true;
+      }
+      LockSupport.unpark(drainer);
+      try {
+         drainer.join();
+      }
+      catch (final InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+         throw failure;
+      }
+   }
+
+   /**
+    * Number of events dropped because the buffer was full, the handler was closed, or the
+    * output failed.
+    *
+    * @return number of dropped events
+    */
+   public long dropped() {
+      return dropped.get();
+   }
+
+   @Override
+   public void handle(OnDiverged event) {
+      synchronized (producerLock) {
+         final long sequence = claim();
+         if (sequence >= 0) {
+            final int slot = (int) sequence & mask;
+            record(slot, DIVERGED, event.stateId(), event.state());
+            copySymbols(slot, event.symbols());
+            published = sequence + 1;
+         }
+      }
+   }
+
+   @Override
+   public void handle(OnHalted event) {
+      // the tape is read now, since the machine may run again before the record is drained
+      final List<Tape> tapes = event.machine().tapes();
+      final String output = tapes.get(tapes.size() - 1).toString();
+      synchronized (producerLock) {
+         final long sequence = claim();
+         if (sequence >= 0) {
+            final int slot = (int) sequence & mask;
+            record(slot, HALTED, event.stateId(), event.state());
+            outputs[slot] = output;
+            published = sequence + 1;
+         }
+      }
+   }
+
+   @Override
+   public void handle(OnStateChanged event) {
+      synchronized (producerLock) {
+         final long sequence = claim();
+         if (sequence >= 0) {
+            final int slot = (int) sequence & mask;
+            record(slot, STATE_CHANGED, event.stateId(), event.state());
+            copySymbols(slot, event.symbols());
+            published = sequence + 1;
+         }
+      }
+   }
+
+   @Override
+   public void handle(OnTransition event) {
+      synchronized (producerLock) {
+         final long sequence = claim();
+         if (sequence >= 0) {
+            final int slot = (int) sequence & mask;
+            record(slot, TRANSITION, event.stateId(), event.state());
+            transitions[slot] = event.transition();
+            published = sequence + 1;
+         }
+      }
+   }
+
+   @Override
+   public boolean retainsEvents() {
+      return false;
+   }
+
+   private static void appendEscaped(final StringBuilder text, final char c) {
+      if (c == '"' || c == '\\') {
+         text.append('\\').append(c);
+      }
+      else if (c < ' ') {
+         text.append("\\u00").append(Character.forDigit(c >> 4, 16))
+               .append(Character.forDigit(c & 0xF, 16));
+      }
+      else {
+         text.append(c);
+      }
+   }
+
+   /**
+    * Appends a symbol as a JSON string of one character, without boxing or allocating it.
+    */
+   private static void appendString(final StringBuilder text, final char value) {
+      text.append('"');
+      appendEscaped(text, value);
+      text.append('"');
+   }
+
+   private static void appendString(final StringBuilder text, final String value) {
+      text.append('"');
+      for (int i = 0; i < value.length(); i++) {
+         appendEscaped(text, value.charAt(i));
+      }
+      text.append('"');
+   }
+
+   /**
+    * Claims the next slot of the ring buffer, waiting for room or dropping the event as the
+    * policy says. Must be called holding the producer lock.
+    *
+    * @return sequence number of the claimed slot, or -1 if the event is dropped
+    */
+   private long claim() {
+      final long sequence = published;
+      while (!closed && failure == null && sequence - consumed > mask) {
+         if (policy == OverflowPolicy.DROP) {
+            break;
+         }
+         LockSupport.unpark(drainer);
+         LockSupport.parkNanos(this, FULL_PARK_NANOS);
+      }
+      if (closed || failure != null || sequence - consumed > mask) {
+         dropped.incrementAndGet();
+         return -1;
+      }
+      return sequence;
+   }
+
+   private void copySymbols(final int slot, final List<Character> headSymbols) {
+      final int count = headSymbols.size();
+      if (symbols[slot] == null || symbols[slot].length < count) {
+         symbols[slot] = new char[count];
+      }
+      for (int i = 0; i < count; i++) {
+         symbols[slot][i] = headSymbols.get(i);
+      }
+      symbolCounts[slot] = count;
+   }
+
+   /**
+    * Body of the drain thread: formats published records in batches until the handler is
+    * closed and every record is written.
+    */
+   private void drain() {
+      long next = 0;
+      boolean dirty = false;
+      while (true) {
+         final boolean closing = closed;
+         final long available = published;
+         if (next == available) {
+            if (dirty) {
+               dirty = !flush();
+            }
+            if (closing || failure != null) {
+               return;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            continue;
+         }
+         while (next < available) {
+            format((int) next & mask);
+            next++;
+            if (text.length() >= BATCH_CHARS) {
+               write();
+               consumed = next;
+            }
+         }
+         write();
+         consumed = next;
+         dirty = true;
+      }
+   }
+
+   private boolean flush() {
+      if (failure == null) {
+         try {
+            out.flush();
+         }
+         catch (final IOException ioe) {
+            failure = ioe;
+         }
+      }
+      return failure == null;
+   }
+
+   private void format(final int slot) {
+      text.append("{\"stateId\": ").append(stateIds[slot]);
+      switch (kinds[slot]) {
+         case DIVERGED:
+            text.append(", \"diverged\": ");
+            appendString(text, states[slot]);
+            text.append(", \"tapeHeadSymbols\": ");
+            formatSymbols(slot);
+            break;
+         case HALTED:
+            text.append(", \"halted\": ");
+            appendString(text, states[slot]);
+            text.append(", \"output\": ");
+            appendString(text, outputs[slot]);
+            outputs[slot] = null;
+            break;
+         case STATE_CHANGED:
+            text.append(", \"state\": ");
+            appendString(text, states[slot]);
+            text.append(", \"tapeHeadSymbols\": ");
+            formatSymbols(slot);
+            break;
+         default:
+            formatTransition(transitions[slot]);
+            transitions[slot] = null;
+            break;
+      }
+      text.append("}\n");
+   }
+
+   private void formatSymbols(final int slot) {
+      text.append('[');
+      for (int i = 0; i < symbolCounts[slot]; i++) {
+         text.append(i == 0 ? "" : ", ");
+         appendString(text, symbols[slot][i]);
+      }
+      text.append(']');
+   }
+
+   private void formatTransition(final Transition transition) {
+      final List<Character> outputSymbols = transition.outputs();
+      final List<Move> moves = transition.moves();
+      text.append(", \"transition\": {\"nextState\": ");
+      appendString(text, transition.state());
+      text.append(", \"writeToTapes\": [");
+      for (int i = 0; i < outputSymbols.size(); i++) {
+         text.append(i == 0 ? "" : ", ");
+         appendString(text, outputSymbols.get(i).charValue());
+      }
+      text.append("], \"moves\": [");
+      for (int i = 0; i < moves.size(); i++) {
+         text.append(i == 0 ? "" : ", ");
+         appendString(text, moves.get(i).name());
+      }
+      text.append("]}");
+   }
+
+   private void record(final int slot, final byte kind, final long stateId,
+         final String state) {
+      kinds[slot] = kind;
+      stateIds[slot] = stateId;
+      states[slot] = state;
+   }
+
+   /**
+    * Encodes the formatted batch and writes it to the output. After a failure, batches are
+    * discarded and producers drop their events.
+    */
+   private void write() {
+      final int length = text.length();
+      if (chars.capacity() < length) {
+         chars = CharBuffer.allocate(length);
+      }
+      chars.clear();
+      text.getChars(0, length, chars.array(), 0);
+      chars.limit(length);
+      text.setLength(0);
+      if (failure != null) {
+         return;
+      }
+      encoder.reset();
+      try {
+         CoderResult result = encoder.encode(chars, bytes, true);
+         while (result.isOverflow()) {
+            writeBytes();
+            result = encoder.encode(chars, bytes, true);
+         }
+         result = encoder.flush(bytes);
+         while (result.isOverflow()) {
+            writeBytes();
+            result = encoder.flush(bytes);
+         }
+         writeBytes();
+      }
+      catch (final IOException ioe) {
+         failure = ioe;
+      }
+   }
+
+   private void writeBytes() throws IOException {
+      out.write(bytes.array(), 0, bytes.position());
+      bytes.clear();
+   }
+}
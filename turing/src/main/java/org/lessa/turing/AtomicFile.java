@@ -0,0 +1,78 @@
+package org.lessa.turing;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Replaces files atomically where the file system allows. The new content is written to a
+ * temporary file of its own next to the target, forced to the device and only then moved
+ * over the target, so that concurrent writers never share a temporary file and a crash
+ * never leaves a partial file behind.
+ */
+final class AtomicFile {
+
+   /**
+    * Content of a file, written to a stream.
+    */
+   @FunctionalInterface
+   interface Content {
+
+      void writeTo(OutputStream out) throws IOException;
+   }
+
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   private AtomicFile() {
+   }
+
+   /**
+    * Replaces a file with new content, readable by everyone like a file created with the
+    * usual umask.
+    *
+    * @param path
+    *           file to replace, created if it does not exist
+    * @param content
+    *           content of the file
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   static void replace(Path path, Content content) throws IOException {
+      final Path target = path.toAbsolutePath();
+      final Path temporary = Files.createTempFile(target.getParent(),
+            target.getFileName().toString(), ".tmp");
+      try {
+         // temporary files are private to their owner, which the target should not be
+         if (Files.getFileAttributeView(temporary, PosixFileAttributeView.class) != null) {
+            Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString(
+                  "rw-r--r--"));
+         }
+         try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel),
+                  BUFFER_SIZE);
+            content.writeTo(out);
+            out.flush();
+            channel.force(true);
+         }
+         try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+         }
+         catch (final AtomicMoveNotSupportedException amnse) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      finally {
+         Files.deleteIfExists(temporary);
+      }
+   }
+}
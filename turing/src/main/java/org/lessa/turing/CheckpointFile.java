@@ -0,0 +1,36 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Checkpoint sink that saves every checkpoint of a run to the same file, replacing the
+ * previous one atomically, so that the file always holds the latest complete snapshot. A run
+ * that is killed can then be resumed with {@link MachineSnapshot#load(Path)} and
+ * {@link MachineDefinition#resume(MachineSnapshot)}.
+ * <p>
+ * A checkpoint file serves one run at a time. The sink belongs to the definition, so
+ * concurrent runs of one definition, such as the jobs of a {@link MachineBatchRunner}, all
+ * save to the same file: saves never fail or corrupt it, but it holds the latest checkpoint
+ * of any of the runs. Concurrent runs that must be resumed each need a definition with a
+ * file of their own.
+ */
+public final class CheckpointFile implements CheckpointSink {
+
+   private final Path path;
+
+   /**
+    * Creates a sink that saves snapshots to the specified file.
+    *
+    * @param path
+    *           snapshot file, replaced on every checkpoint
+    */
+   public CheckpointFile(Path path) {
+      this.path = path;
+   }
+
+   @Override
+   public void save(MachineSnapshot snapshot) throws IOException {
+      snapshot.save(path);
+   }
+}
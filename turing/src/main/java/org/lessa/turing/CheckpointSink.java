@@ -0,0 +1,21 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+
+/**
+ * Saves the checkpoints of a run, see {@link MachineBuilder#withCheckpointSink(CheckpointSink)}.
+ */
+@FunctionalInterface
+public interface CheckpointSink {
+
+   /**
+    * Saves a snapshot taken by a run, from which
+    * {@link MachineDefinition#resume(MachineSnapshot)} resumes the run.
+    *
+    * @param snapshot
+    *           snapshot of the run
+    * @throws IOException
+    *            if the snapshot cannot be saved
+    */
+   void save(MachineSnapshot snapshot) throws IOException;
+}
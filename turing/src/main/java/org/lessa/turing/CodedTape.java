@@ -0,0 +1,166 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+/**
+ * Tape that stores the byte code of every cell's symbol in an {@link Alphabet} instead of the
+ * symbol itself, so that a cell takes a single byte and compiled machines read and write codes
+ * without translating symbols. The symbol API is an adapter over the codes, and only accepts
+ * symbols of the alphabet.
+ */
+public class CodedTape extends Tape {
+
+   private static final int DEFAULT_CAPACITY = 64;
+
+   private final Alphabet alphabet;
+   private final byte blankCode;
+   private byte[] cells;
+
+   /**
+    * Creates an empty tape over the specified alphabet.
+    *
+    * @param alphabet
+    *           alphabet of at most {@value Alphabet#MAX_BYTE_CODES} symbols, including the
+    *           blank and start symbols
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @throws IllegalArgumentException
+    *            if the alphabet is too large or lacks the blank or start symbol
+    */
+   public CodedTape(Alphabet alphabet, Character blankSymbol, Character startSymbol) {
+      super(blankSymbol);
+      if (alphabet.size() > Alphabet.MAX_BYTE_CODES) {
+         throw new IllegalArgumentException(String.format(
+               "Coded tapes hold at most %d symbols, not %d.", Alphabet.MAX_BYTE_CODES,
+               alphabet.size()));
+      }
+      this.alphabet = alphabet;
+      this.blankCode = (byte) code(blankSymbol);
+      this.cells = new byte[DEFAULT_CAPACITY];
+      Arrays.fill(cells, blankCode);
+      cells[0] = (byte) code(startSymbol);
+   }
+
+   public Alphabet alphabet() {
+      return alphabet;
+   }
+
+   @Override
+   public char charAt(int index) {
+      return alphabet.symbol(codeAt(index));
+   }
+
+   /**
+    * Code of the symbol stored at the specified cell.
+    *
+    * @param index
+    *           absolute cell index
+    * @return symbol code
+    */
+   public int codeAt(int index) {
+      return (index >= 0 && index < cells.length ? cells[index] : blankCode) & 0xFF;
+   }
+
+   @Override
+   public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      for (int ix = srcBegin; ix < srcEnd; ix++) {
+         dst[dstBegin + ix - srcBegin] = alphabet.symbol(codeAt(ix));
+      }
+   }
+
+   @Override
+   public char readChar() {
+      return alphabet.symbol(readCode());
+   }
+
+   /**
+    * Code of the symbol under the head.
+    *
+    * @return symbol code
+    */
+   public int readCode() {
+      final int ix = currentIndex();
+      return (ix < cells.length ? cells[ix] : blankCode) & 0xFF;
+   }
+
+   /**
+    * Writes a symbol by code under the head.
+    *
+    * @param code
+    *           symbol code in the tape's alphabet
+    */
+   public void writeCode(int code) {
+      final int ix = currentIndex();
+      if (ix >= cells.length) {
+         grow(ix);
+      }
+      cells[ix] = (byte) code;
+      markUsed(ix);
+   }
+
+   @Override
+   protected int scanRun(int shift, int max) {
+      final byte code = (byte) readCode();
+      int ix = currentIndex();
+      int length = 0;
+      while (length < max) {
+         if (ix >= cells.length) {
+            // the rest of the tape to the right is blank
+            if (code != blankCode) {
+               break;
+            }
+            if (shift > 0) {
+               return max;
+            }
+         }
+         else if (cells[ix] != code) {
+            break;
+         }
+         ix += shift;
+         length++;
+      }
+      return length;
+   }
+
+   @Override
+   protected void store(int index, char symbol) {
+      if (index < 0) {
+         throw new IllegalStateException("Error: tried to write beyond the start of the tape.");
+      }
+      final int code = code(symbol);
+      if (index >= cells.length) {
+         grow(index);
+      }
+      cells[index] = (byte) code;
+   }
+
+   private int code(char symbol) {
+      final int code = alphabet.code(symbol);
+      if (code < 0) {
+         throw new IllegalArgumentException(
+               String.format("Symbol '%s' is not part of the tape alphabet.", symbol));
+      }
+      return code;
+   }
+
+   private void grow(int index) {
+      final FlightRecorderEvents.TapeResizeEvent event = FlightRecorderEvents.AVAILABLE
+            ? FlightRecorderEvents.beginTapeResize()
+            : null;
+      int capacity = cells.length;
+      while (index >= capacity) {
+         capacity *= 2;
+         if (capacity < 0) {
+            throw new IllegalStateException("Error: tape exceeded the maximum array size.");
+         }
+      }
+      final int length = cells.length;
+      cells = Arrays.copyOf(cells, capacity);
+      Arrays.fill(cells, length, capacity, blankCode);
+      if (event != null) {
+         FlightRecorderEvents.endTapeResize(event, this, length, capacity);
+      }
+   }
+}
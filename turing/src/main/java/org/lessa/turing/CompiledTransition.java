@@ -0,0 +1,128 @@
+package org.lessa.turing;
+
+import java.util.List;
+
+/**
+ * Transition of a {@link CompiledTransitionFunction}. Besides the {@link Transition} view, it
+ * carries the next state, the symbols to write and the head moves in primitive form so that
+ * an interpreter can apply it without touching any list or boxed value.
+ */
+public final class CompiledTransition implements Transition {
+
+   final Move[] directions;
+   final int id;
+   final List<Move> moves;
+   final int nextState;
+   final int[] outputCodes;
+   final List<Character> outputs;
+   final char[] outputSymbols;
+   final boolean repeats;
+   final int[] shifts;
+   final String state;
+
+   CompiledTransition(int id, Transition transition, int nextState, boolean repeats,
+         Alphabet alphabet) {
+      this.id = id;
+      this.repeats = repeats;
+      this.moves = transition.moves();
+      this.nextState = nextState;
+      this.outputs = transition.outputs();
+      this.state = transition.state();
+
+      final int numTapes = outputs.size();
+      this.directions = moves.toArray(new Move[numTapes]);
+      this.outputCodes = new int[numTapes];
+      this.outputSymbols = new char[numTapes];
+      this.shifts = new int[numTapes];
+      for (int i = 0; i < numTapes; i++) {
+         outputSymbols[i] = outputs.get(i);
+         outputCodes[i] = alphabet.code(outputSymbols[i]);
+         shifts[i] = moves.get(i) == Move.RIGHT ? 1 : moves.get(i) == Move.LEFT ? -1 : 0;
+      }
+   }
+
+   /**
+    * Creates a transition that writes the same symbols and moves the heads the same way as
+    * another one, sharing its arrays and lists, which are never modified.
+    */
+   CompiledTransition(int id, CompiledTransition action, String state, int nextState,
+         boolean repeats) {
+      this.directions = action.directions;
+      this.id = id;
+      this.moves = action.moves;
+      this.nextState = nextState;
+      this.outputCodes = action.outputCodes;
+      this.outputs = action.outputs;
+      this.outputSymbols = action.outputSymbols;
+      this.repeats = repeats;
+      this.shifts = action.shifts;
+      this.state = state;
+   }
+
+   /**
+    * Dense identifier of this transition in {@code [0, transitionCount())} of the function
+    * that owns it.
+    *
+    * @return transition identifier
+    */
+   public int id() {
+      return id;
+   }
+
+   @Override
+   public List<Move> moves() {
+      return moves;
+   }
+
+   /**
+    * Code of the state the machine enters after this transition.
+    *
+    * @return next state code
+    */
+   public int nextState() {
+      return nextState;
+   }
+
+   /**
+    * Code of the symbol written on the specified tape.
+    *
+    * @param tape
+    *           tape index
+    * @return output symbol code
+    */
+   public int outputCode(int tape) {
+      return outputCodes[tape];
+   }
+
+   @Override
+   public List<Character> outputs() {
+      return outputs;
+   }
+
+   /**
+    * Whether this transition writes back the symbols it reads and stays in its own state.
+    * Such a transition applies again and again for as long as every moving head keeps reading
+    * the same symbol, which lets an interpreter jump over whole runs at once.
+    *
+    * @return {@code true} if the transition leaves symbols and state unchanged
+    */
+   public boolean repeats() {
+      return repeats;
+   }
+
+   /**
+    * Head displacement on the specified tape: -1 for left, 0 for none and 1 for right.
+    *
+    * @param tape
+    *           tape index
+    * @return head displacement
+    */
+   public int shift(int tape) {
+      return shifts[tape];
+   }
+
+   @Override
+   public String state() {
+      return state;
+   }
+}
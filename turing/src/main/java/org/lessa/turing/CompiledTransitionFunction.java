@@ -0,0 +1,134 @@
+package org.lessa.turing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transition function compiled into a flat table. States and symbols are interned to dense
+ * codes, and the transition for state {@code q} and head symbols {@code s_0..s_k-1} lives at
+ * index {@code q * |Γ|^k + Σ s_i * |Γ|^(k-1-i)}, so a lookup is pure arithmetic.
+ */
+public final class CompiledTransitionFunction implements TransitionFunction {
+
+   private final Alphabet alphabet;
+   private final int numTapes;
+   private final Map<String, Integer> stateCodes;
+   private final String[] states;
+   private final int stride;
+   private final CompiledTransition[] table;
+   private final CompiledTransition[] transitions;
+
+   CompiledTransitionFunction(Alphabet alphabet, int numTapes, int stride,
+         Map<String, Integer> stateCodes, String[] states, CompiledTransition[] table,
+         CompiledTransition[] transitions) {
+      this.alphabet = alphabet;
+      this.numTapes = numTapes;
+      this.stateCodes = Collections.unmodifiableMap(stateCodes);
+      this.states = states;
+      this.stride = stride;
+      this.table = table;
+      this.transitions = transitions;
+   }
+
+   /**
+    * Symbols mentioned by any transition, either as a head symbol or as an output.
+    *
+    * @return interned symbols
+    */
+   public Alphabet alphabet() {
+      return alphabet;
+   }
+
+   /**
+    * Looks up a transition by codes.
+    *
+    * @param state
+    *           current state code
+    * @param symbols
+    *           head symbols encoded with {@link #encode(int[])}
+    * @return transition, or {@code null} if the function is undefined at that point
+    */
+   public CompiledTransition apply(int state, int symbols) {
+      return table[state * stride + symbols];
+   }
+
+   @Override
+   public Transition apply(String state, List<Character> symbols) {
+      final Integer stateCode = stateCodes.get(state);
+      if (stateCode == null || symbols.size() != numTapes) {
+         return null;
+      }
+      int encoded = 0;
+      for (int i = 0; i < numTapes; i++) {
+         final Character symbol = symbols.get(i);
+         final int code = symbol == null ? -1 : alphabet.code(symbol);
+         if (code < 0) {
+            return null;
+         }
+         encoded = encoded * alphabet.size() + code;
+      }
+      return apply(stateCode, encoded);
+   }
+
+   /**
+    * Encodes one symbol code per tape into the symbol part of a table index.
+    *
+    * @param symbolCodes
+    *           symbol code under each tape head
+    * @return encoded head symbols
+    */
+   public int encode(int[] symbolCodes) {
+      int encoded = 0;
+      for (int i = 0; i < numTapes; i++) {
+         encoded = encoded * alphabet.size() + symbolCodes[i];
+      }
+      return encoded;
+   }
+
+   public int numTapes() {
+      return numTapes;
+   }
+
+   /**
+    * State with the specified code.
+    *
+    * @param code
+    *           state code
+    * @return state name
+    */
+   public String state(int code) {
+      return states[code];
+   }
+
+   /**
+    * Code of the specified state.
+    *
+    * @param state
+    *           state name
+    * @return state code, or -1 if no transition mentions the state
+    */
+   public int stateCode(String state) {
+      final Integer code = stateCodes.get(state);
+      return code == null ? -1 : code;
+   }
+
+   public int stateCount() {
+      return states.length;
+   }
+
+   /**
+    * Transition with the specified identifier.
+    *
+    * @param id
+    *           transition identifier
+    * @return transition
+    */
+   public CompiledTransition transition(int id) {
+      return transitions[id];
+   }
+
+   public int transitionCount() {
+      return transitions.length;
+   }
+}
@@ -0,0 +1,105 @@
+package org.lessa.turing;
+
+import java.util.List;
+
+/**
+ * Detects runs that return to a configuration they were in before, and therefore never halt.
+ * <p>
+ * Configurations are fingerprinted by a Zobrist-style hash: every non-blank cell contributes
+ * a pseudo-random value derived from its tape, index and symbol, so that a write updates the
+ * hash in constant time, and the state and head positions are mixed in when a fingerprint is
+ * taken. Fingerprints are compared with Brent's algorithm, which keeps a single saved
+ * fingerprint and moves it forward at power-of-two distances, so memory does not grow with
+ * the number of steps. A matching fingerprint is only a candidate: the configuration is then
+ * copied and the loop is reported once it recurs exactly, one period later, so that a hash
+ * collision never stops a run that would have halted.
+ */
+final class CycleDetector {
+
+   private long power = 1;
+   private long saved;
+   private long savedStateId = -1;
+   private long distance = 1;
+   private long tapeHash;
+   private final List<Tape> tapes;
+   private MachineSnapshot verifying;
+   private long verifyAt = -1;
+
+   /**
+    * Creates a detector for a run on the specified tapes, hashing their current contents.
+    */
+   CycleDetector(List<Tape> tapes) {
+      this.tapes = tapes;
+      for (int i = 0; i < tapes.size(); i++) {
+         final Tape tape = tapes.get(i);
+         for (int ix = tape.minUsedIndex(); ix <= tape.maxUsedIndex(); ix++) {
+            tapeHash ^= cellHash(i, ix, tape.charAt(ix), tape.blankSymbol());
+         }
+      }
+   }
+
+   /**
+    * Pseudo-random contribution of a cell, zero for blank cells so that the used range of a
+    * tape does not matter. The mixing function is the SplitMix64 finalizer.
+    */
+   private static long cellHash(int tape, int index, char symbol, char blankSymbol) {
+      if (symbol == blankSymbol) {
+         return 0;
+      }
+      return mix(((long) index << 20) ^ ((long) tape << 16) ^ symbol);
+   }
+
+   private static long mix(long value) {
+      long z = value + 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * Checks the configuration the run has reached after {@code stateId} steps.
+    *
+    * @return period of the loop, in steps, once it is proven, or 0
+    */
+   long check(long stateId, String state) {
+      if (verifyAt >= 0 && stateId >= verifyAt) {
+         final long period = stateId - verifying.stateId();
+         final boolean looping = stateId == verifyAt && verifying.matches(state, tapes);
+         verifying = null;
+         verifyAt = -1;
+         if (looping) {
+            return period;
+         }
+      }
+
+      long fingerprint = mix(tapeHash ^ state.hashCode());
+      for (int i = 0; i < tapes.size(); i++) {
+         fingerprint = mix(fingerprint ^ tapes.get(i).currentIndex());
+      }
+
+      // Brent: compare with the saved fingerprint, which moves up at powers of two
+      if (savedStateId >= 0 && fingerprint == saved && verifyAt < 0) {
+         verifying = MachineSnapshot.of(state, stateId, tapes);
+         verifyAt = stateId + (stateId - savedStateId);
+      }
+      if (distance == power) {
+         saved = fingerprint;
+         savedStateId = stateId;
+         power <<= 1;
+         distance = 0;
+      }
+      distance++;
+      return 0;
+   }
+
+   /**
+    * Updates the hash before a symbol is written over another on a tape.
+    */
+   void written(int tape, int index, char previous, char symbol) {
+      if (previous != symbol) {
+         final char blankSymbol = tapes.get(tape).blankSymbol();
+         tapeHash ^= cellHash(tape, index, previous, blankSymbol)
+               ^ cellHash(tape, index, symbol, blankSymbol);
+      }
+   }
+}
@@ -10,9 +10,30 @@ public class Event {
 
       void handle(OnHalted event);
 
+      /**
+       * Notified when a run with cycle detection enabled is proven to repeat a configuration
+       * forever, right before it stops. Does nothing by default.
+       *
+       * @param event
+       *           looping event, with the period of the loop
+       */
+      default void handle(OnLooping event) {
+      }
+
       void handle(OnStateChanged event);
 
       void handle(OnTransition event);
+
+      /**
+       * Whether this handler may keep references to events, or to the lists they expose,
+       * after {@code handle} returns. Handlers that return {@code false} are handed one
+       * mutable event object per event type, which is overwritten on every step.
+       *
+       * @return {@code true} if events must not be reused across calls
+       */
+      default boolean retainsEvents() {
+         return true;
+      }
    }
 
    public interface MachineEvent {
@@ -32,6 +53,15 @@ public class Event {
       List<Character> symbols();
    }
 
+   public interface OnLooping extends MachineEvent {
+      /**
+       * Number of steps after which the machine is back in the same configuration.
+       *
+       * @return period of the loop
+       */
+      long period();
+   }
+
    public interface OnStateChanged extends MachineEvent {
       List<Character> symbols();
    }
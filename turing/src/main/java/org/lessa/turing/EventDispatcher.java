@@ -0,0 +1,238 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.lessa.turing.Event.EventHandler;
+
+/**
+ * Delivers machine events to subscribers. Callers are expected to check
+ * {@link #hasSubscribers()} before gathering event data, so that a machine without subscribers
+ * constructs nothing at all. Subscribers are notified in the order they were registered.
+ * Those that do not retain events share one mutable event object per event type, while all
+ * others share a fresh immutable event, created at most once per event.
+ */
+final class EventDispatcher {
+
+   private static class BaseEvent implements Event.MachineEvent {
+
+      private Machine machine;
+      private String state;
+      private long stateId;
+
+      BaseEvent(Machine machine, String state, long stateId) {
+         this.machine = machine;
+         this.state = state;
+         this.stateId = stateId;
+      }
+
+      @Override
+      public Machine machine() {
+         return machine;
+      }
+
+      @Override
+      public String state() {
+         return state;
+      }
+
+      @Override
+      public long stateId() {
+         return stateId;
+      }
+
+      final void reset(Machine machine, String state, long stateId) {
+         this.machine = machine;
+         this.state = state;
+         this.stateId = stateId;
+      }
+   }
+
+   private static final class DivergedEvent extends SymbolsEvent implements Event.OnDiverged {
+
+      DivergedEvent(Machine machine, String state, long stateId, List<Character> symbols) {
+         super(machine, state, stateId, symbols);
+      }
+   }
+
+   private static final class HaltedEvent extends SymbolsEvent implements Event.OnHalted {
+
+      HaltedEvent(Machine machine, String state, long stateId, List<Character> symbols) {
+         super(machine, state, stateId, symbols);
+      }
+   }
+
+   private static final class LoopingEvent extends BaseEvent implements Event.OnLooping {
+
+      private long period;
+
+      LoopingEvent(Machine machine, String state, long stateId, long period) {
+         super(machine, state, stateId);
+         this.period = period;
+      }
+
+      @Override
+      public long period() {
+         return period;
+      }
+
+      void reset(Machine machine, String state, long stateId, long period) {
+         reset(machine, state, stateId);
+         this.period = period;
+      }
+   }
+
+   private static final class StateChangedEvent extends SymbolsEvent
+         implements Event.OnStateChanged {
+
+      StateChangedEvent(Machine machine, String state, long stateId, List<Character> symbols) {
+         super(machine, state, stateId, symbols);
+      }
+   }
+
+   private static class SymbolsEvent extends BaseEvent {
+
+      private List<Character> symbols;
+
+      SymbolsEvent(Machine machine, String state, long stateId, List<Character> symbols) {
+         super(machine, state, stateId);
+         this.symbols = symbols;
+      }
+
+      public List<Character> symbols() {
+         return symbols;
+      }
+
+      final void reset(Machine machine, String state, long stateId, List<Character> symbols) {
+         reset(machine, state, stateId);
+         this.symbols = symbols;
+      }
+   }
+
+   private static final class TransitionEvent extends BaseEvent implements Event.OnTransition {
+
+      private Transition transition;
+
+      TransitionEvent(Machine machine, String state, long stateId, Transition transition) {
+         super(machine, state, stateId);
+         this.transition = transition;
+      }
+
+      @Override
+      public Transition transition() {
+         return transition;
+      }
+
+      void reset(Machine machine, String state, long stateId, Transition transition) {
+         reset(machine, state, stateId);
+         this.transition = transition;
+      }
+   }
+
+   private final DivergedEvent diverged;
+   private final HaltedEvent halted;
+   private final LoopingEvent looping;
+   private final Machine machine;
+   private final boolean[] retaining;
+   private final StateChangedEvent stateChanged;
+   private final EventHandler[] subscribers;
+   private final TransitionEvent transition;
+
+   EventDispatcher(Machine machine, List<EventHandler> subscribers) {
+      this.machine = machine;
+      this.subscribers = subscribers.toArray(new EventHandler[subscribers.size()]);
+      this.retaining = new boolean[this.subscribers.length];
+      for (int i = 0; i < retaining.length; i++) {
+         retaining[i] = this.subscribers[i].retainsEvents();
+      }
+      this.diverged = new DivergedEvent(machine, null, 0, null);
+      this.halted = new HaltedEvent(machine, null, 0, null);
+      this.looping = new LoopingEvent(machine, null, 0, 0);
+      this.stateChanged = new StateChangedEvent(machine, null, 0, null);
+      this.transition = new TransitionEvent(machine, null, 0, null);
+   }
+
+   boolean hasSubscribers() {
+      return subscribers.length > 0;
+   }
+
+   void diverged(long stateId, String state, List<Character> symbols) {
+      diverged.reset(machine, state, stateId, symbols);
+      DivergedEvent event = null;
+      for (int i = 0; i < subscribers.length; i++) {
+         if (!retaining[i]) {
+            subscribers[i].handle(diverged);
+            continue;
+         }
+         if (event == null) {
+            event = new DivergedEvent(machine, state, stateId, copy(symbols));
+         }
+         subscribers[i].handle(event);
+      }
+   }
+
+   void halted(long stateId, String state, List<Character> symbols) {
+      halted.reset(machine, state, stateId, symbols);
+      HaltedEvent event = null;
+      for (int i = 0; i < subscribers.length; i++) {
+         if (!retaining[i]) {
+            subscribers[i].handle(halted);
+            continue;
+         }
+         if (event == null) {
+            event = new HaltedEvent(machine, state, stateId, copy(symbols));
+         }
+         subscribers[i].handle(event);
+      }
+   }
+
+   void looping(long stateId, String state, long period) {
+      looping.reset(machine, state, stateId, period);
+      LoopingEvent event = null;
+      for (int i = 0; i < subscribers.length; i++) {
+         if (!retaining[i]) {
+            subscribers[i].handle(looping);
+            continue;
+         }
+         if (event == null) {
+            event = new LoopingEvent(machine, state, stateId, period);
+         }
+         subscribers[i].handle(event);
+      }
+   }
+
+   void stateChanged(long stateId, String state, List<Character> symbols) {
+      stateChanged.reset(machine, state, stateId, symbols);
+      StateChangedEvent event = null;
+      for (int i = 0; i < subscribers.length; i++) {
+         if (!retaining[i]) {
+            subscribers[i].handle(stateChanged);
+            continue;
+         }
+         if (event == null) {
+            event = new StateChangedEvent(machine, state, stateId, copy(symbols));
+         }
+         subscribers[i].handle(event);
+      }
+   }
+
+   void transition(long stateId, String state, Transition transition) {
+      this.transition.reset(machine, state, stateId, transition);
+      TransitionEvent event = null;
+      for (int i = 0; i < subscribers.length; i++) {
+         if (!retaining[i]) {
+            subscribers[i].handle(this.transition);
+            continue;
+         }
+         if (event == null) {
+            event = new TransitionEvent(machine, state, stateId, transition);
+         }
+         subscribers[i].handle(event);
+      }
+   }
+
+   private static List<Character> copy(List<Character> symbols) {
+      return Collections.unmodifiableList(Arrays.asList(symbols.toArray(new Character[0])));
+   }
+}
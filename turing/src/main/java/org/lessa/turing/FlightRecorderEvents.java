@@ -0,0 +1,166 @@
+package org.lessa.turing;
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the engine, all disabled by default so that a recording only
+ * pays for them when its settings enable them, for instance with
+ * {@code jfr configure +org.lessa.turing.MachineRun#enabled=true}. Duration events are only
+ * recorded above their threshold, which settings may lower.
+ * <p>
+ * The {@code jdk.jfr} API exists from Java 8 update 262 and Java 11 on. On older runtimes,
+ * {@link #AVAILABLE} is {@code false} and callers never reach the methods that load the event
+ * classes.
+ */
+final class FlightRecorderEvents {
+
+   /**
+    * Whether the runtime has the flight recorder API.
+    */
+   static final boolean AVAILABLE = available();
+
+   /**
+    * Run that ended because no transition was defined.
+    */
+   @Category({ "Lessa", "Turing" })
+   @Description("Run that stopped because no transition was defined.")
+   @Enabled(false)
+   @Label("Machine Diverged")
+   @Name("org.lessa.turing.Diverged")
+   static final class DivergedEvent extends Event {
+
+      @Label("State")
+      String state;
+
+      @Label("Steps")
+      long steps;
+
+      @Label("Head Symbols")
+      String symbols;
+   }
+
+   /**
+    * Machine run, from start to end.
+    */
+   @Category({ "Lessa", "Turing" })
+   @Description("Machine run, from start to end.")
+   @Enabled(false)
+   @Label("Machine Run")
+   @Name("org.lessa.turing.MachineRun")
+   @Threshold("10 ms")
+   static final class RunEvent extends Event {
+
+      @Label("Final State")
+      String finalState;
+
+      @Label("Start State")
+      String startState;
+
+      @Label("Start Step")
+      long startStep;
+
+      @Label("Outcome")
+      String outcome;
+
+      @Label("Steps")
+      long steps;
+
+      @Label("Tapes")
+      int tapes;
+   }
+
+   /**
+    * Tape storage growing to a new capacity.
+    */
+   @Category({ "Lessa", "Turing" })
+   @Description("Tape storage growing to a new capacity.")
+   @Enabled(false)
+   @Label("Tape Resize")
+   @Name("org.lessa.turing.TapeResize")
+   @Threshold("1 ms")
+   static final class TapeResizeEvent extends Event {
+
+      @Label("New Capacity")
+      int newCapacity;
+
+      @Label("Old Capacity")
+      int oldCapacity;
+
+      @Label("Tape Type")
+      String tapeType;
+   }
+
+   private FlightRecorderEvents() {
+   }
+
+   private static boolean available() {
+      try {
+         Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+         return true;
+      }
+      catch (final ClassNotFoundException | LinkageError e) {
+         return false;
+      }
+   }
+
+   static RunEvent beginRun() {
+      final RunEvent event = new RunEvent();
+      event.begin();
+      return event;
+   }
+
+   static TapeResizeEvent beginTapeResize() {
+      final TapeResizeEvent event = new TapeResizeEvent();
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Commits a run event, and a divergence event if the run diverged.
+    */
+   static void endRun(RunEvent event, String startState, long startStep, RunResult result,
+         List<Tape> tapes) {
+      event.end();
+      if (event.shouldCommit()) {
+         event.finalState = result.finalState();
+         event.outcome = result.outcome().name();
+         event.startState = startState;
+         event.startStep = startStep;
+         event.steps = result.steps();
+         event.tapes = tapes.size();
+         event.commit();
+      }
+      if (result.outcome() == RunResult.Outcome.DIVERGED) {
+         final DivergedEvent diverged = new DivergedEvent();
+         if (diverged.isEnabled()) {
+            final StringBuilder symbols = new StringBuilder(tapes.size());
+            for (final Tape tape : tapes) {
+               symbols.append(tape.readChar());
+            }
+            diverged.state = result.finalState();
+            diverged.steps = result.steps();
+            diverged.symbols = symbols.toString();
+            diverged.commit();
+         }
+      }
+   }
+
+   static void endTapeResize(TapeResizeEvent event, Tape tape, int oldCapacity,
+         int newCapacity) {
+      event.end();
+      if (event.shouldCommit()) {
+         event.newCapacity = newCapacity;
+         event.oldCapacity = oldCapacity;
+         event.tapeType = tape.getClass().getSimpleName();
+         event.commit();
+      }
+   }
+}
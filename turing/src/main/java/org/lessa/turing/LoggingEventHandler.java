@@ -1,10 +1,16 @@
 package org.lessa.turing;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 
 import org.lessa.turing.Event.OnDiverged;
 import org.lessa.turing.Event.OnHalted;
+import org.lessa.turing.Event.OnLooping;
 import org.lessa.turing.Event.OnStateChanged;
 import org.lessa.turing.Event.OnTransition;
 
@@ -14,10 +20,29 @@ public final class LoggingEventHandler implements Event.EventHandler {
       System.err.println("Machine diverged: no transition found for current machine state.");
    }
 
+   /**
+    * Prints the output tape straight from its cells, so that a large tape is not copied into
+    * a string first.
+    */
    @Override
    public void handle(OnHalted event) {
-      System.out.printf("Machine halted with the following contents on its output tape: %s\n",
-            event.machine().tapes().get(event.machine().tapes().size() - 1));
+      final List<Tape> tapes = event.machine().tapes();
+      final Writer out = new OutputStreamWriter(System.out, Charset.defaultCharset());
+      try {
+         out.write("Machine halted with the following contents on its output tape: ");
+         tapes.get(tapes.size() - 1).writeTo(out);
+         out.write("\n");
+         out.flush();
+      }
+      catch (final IOException ioe) {
+         throw new UncheckedIOException(ioe);
+      }
+   }
+
+   @Override
+   public void handle(OnLooping event) {
+      System.err.printf("Machine is looping: its configuration repeats every %d steps.\n",
+            event.period());
    }
 
    @Override
@@ -30,6 +55,11 @@ public final class LoggingEventHandler implements Event.EventHandler {
       logTransition(event.stateId(), event.transition());
    }
 
+   @Override
+   public boolean retainsEvents() {
+      return false;
+   }
+
    private void logInternalState(long stateId, String state, List<Character> tapeHeadSymbols) {
       final String logEntry = String.format(
             "{\"stateId\": %d, \"state\": \"%s\", \"tapeHeadSymbols\": %s}", stateId, state,
@@ -25,6 +25,14 @@ public interface Machine {
     */
    Character blankSymbol();
 
+   /**
+    * Immutable definition this machine runs, shared with every machine created
+    * from it.
+    *
+    * @return machine definition
+    */
+   MachineDefinition definition();
+
    /**
     * Set of final or accepting states. The initial tape contents is said to be
     * accepted by the machine if it eventually halts in a state from this set.
@@ -53,12 +61,32 @@ public interface Machine {
    Set<Character> inputSymbols();
 
    /**
-    * Runs the machine. If the machine diverges, it emits an
+    * Metrics collected over every run of this machine so far, see
+    * {@link MachineBuilder#withMetrics(boolean)}. May be called from any thread, in which
+    * case the counters of a run in progress may be slightly behind.
+    *
+    * @return snapshot of the metrics, or {@code null} if metrics are disabled
+    */
+   MachineMetrics metrics();
+
+   /**
+    * Runs the machine without limits. If the machine diverges, it emits an
     * {@link Event.OnDiverged} event and if it halts with one of the final
     * states, it emits an {@link Event.OnHalted} event.
     */
    void run();
 
+   /**
+    * Runs the machine until it halts, diverges or reaches one of the specified
+    * limits. Events are emitted as in {@link #run()}; a run stopped by a limit
+    * emits neither {@link Event.OnHalted} nor {@link Event.OnDiverged}.
+    *
+    * @param limits
+    *           step and time budgets for the run
+    * @return how the run ended, after how many steps and in which state
+    */
+   RunResult run(RunLimits limits);
+
    /**
     * Special tape start symbol. In the formal definition, this is denoted by a
     * the symbol '▷'.
@@ -94,4 +122,15 @@ public interface Machine {
     * @return transition function
     */
    TransitionFunction transitionFunction();
-}
\ No newline at end of file
+
+   /**
+    * Creates a machine with the same definition as this one, reading the
+    * specified input tape and starting from fresh, empty work tapes. Same as
+    * {@code definition().newMachine(inputTape)}.
+    *
+    * @param inputTape
+    *           input tape of the new machine, which must not be shared
+    * @return new machine
+    */
+   Machine withInputTape(Tape inputTape);
+}
@@ -0,0 +1,213 @@
+package org.lessa.turing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs many (machine definition, input tape) pairs in parallel. Each job creates its own
+ * {@link Machine} from the definition, so the transition function and every other immutable
+ * part are shared while each run gets private tapes.
+ */
+public final class MachineBatchRunner {
+
+   /**
+    * Machine definition to run on a given input, within the given limits.
+    */
+   public static final class Job {
+
+      private final MachineDefinition definition;
+      private final Tape input;
+      private final RunLimits limits;
+
+      /**
+       * Creates a job for the definition of an existing machine, whose own tapes are left
+       * untouched.
+       *
+       * @param machine
+       *           machine whose definition is run
+       * @param input
+       *           input tape, owned by this job from now on
+       * @param limits
+       *           step and time budgets for the run
+       */
+      public Job(Machine machine, Tape input, RunLimits limits) {
+         this(machine.definition(), input, limits);
+      }
+
+      /**
+       * Creates a job.
+       *
+       * @param definition
+       *           machine definition to run
+       * @param input
+       *           input tape, owned by this job from now on
+       * @param limits
+       *           step and time budgets for the run
+       */
+      public Job(MachineDefinition definition, Tape input, RunLimits limits) {
+         this.definition = definition;
+         this.input = input;
+         this.limits = limits;
+      }
+
+      public MachineDefinition definition() {
+         return definition;
+      }
+
+      public Tape input() {
+         return input;
+      }
+
+      public RunLimits limits() {
+         return limits;
+      }
+   }
+
+   /**
+    * Completed job, holding either the run result or the exception that aborted the run.
+    */
+   public static final class Result {
+
+      private final Throwable failure;
+      private final Job job;
+      private final Machine machine;
+      private final RunResult result;
+
+      private Result(Job job, Machine machine, RunResult result, Throwable failure) {
+         this.job = job;
+         this.machine = machine;
+         this.result = result;
+         this.failure = failure;
+      }
+
+      /**
+       * Exception thrown by the run, such as a head moving beyond the start of a tape.
+       *
+       * @return failure, or {@code null} if the run completed
+       */
+      public Throwable failure() {
+         return failure;
+      }
+
+      public Job job() {
+         return job;
+      }
+
+      /**
+       * Machine that performed the run, whose tapes hold the final contents.
+       *
+       * @return machine private to this job
+       */
+      public Machine machine() {
+         return machine;
+      }
+
+      /**
+       * Result of the run.
+       *
+       * @return run result, or {@code null} if the run failed
+       */
+      public RunResult result() {
+         return result;
+      }
+   }
+
+   private final ExecutorService executor;
+
+   /**
+    * Creates a runner on the common {@link ForkJoinPool}.
+    */
+   public MachineBatchRunner() {
+      this(ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Creates a runner on the specified executor. The runner never shuts the executor down.
+    *
+    * @param executor
+    *           executor that runs the jobs, typically a {@link ForkJoinPool} sized to the
+    *           number of cores
+    */
+   public MachineBatchRunner(ExecutorService executor) {
+      this.executor = executor;
+   }
+
+   /**
+    * Runs every job and returns all results once the last one completes.
+    *
+    * @param jobs
+    *           jobs to run
+    * @return results in completion order
+    * @throws InterruptedException
+    *            if the calling thread is interrupted while waiting
+    */
+   public List<Result> runAll(final Collection<Job> jobs) throws InterruptedException {
+      final List<Result> results = new ArrayList<>(jobs.size());
+      run(jobs, results::add);
+      return results;
+   }
+
+   /**
+    * Runs every job, handing each result to the sink as soon as its job completes. The sink
+    * is always called on the calling thread, so it does not need to be thread-safe.
+    *
+    * @param jobs
+    *           jobs to run
+    * @param sink
+    *           receives results in completion order
+    * @throws InterruptedException
+    *            if the calling thread is interrupted while waiting; jobs still pending are
+    *            cancelled
+    * @throws Error
+    *            thrown by a run, such as a {@link StackOverflowError}, as it is; jobs still
+    *            pending are cancelled
+    */
+   public void run(final Collection<Job> jobs, final Consumer<Result> sink)
+         throws InterruptedException {
+
+      final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+      final List<Future<Result>> pending = new ArrayList<>(jobs.size());
+      for (final Job job : jobs) {
+         pending.add(completion.submit(() -> execute(job)));
+      }
+
+      try {
+         for (int i = 0; i < pending.size(); i++) {
+            try {
+               sink.accept(completion.take().get());
+            }
+            catch (final ExecutionException ee) {
+               // errors are not run failures, so they reach the caller as they are
+               if (ee.getCause() instanceof Error) {
+                  throw (Error) ee.getCause();
+               }
+               // execute() reports run failures in its result, so this is a runner bug
+               throw new IllegalStateException("Batch job failed unexpectedly.", ee.getCause());
+            }
+         }
+      }
+      finally {
+         for (final Future<Result> future : pending) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private static Result execute(final Job job) {
+      final Machine machine = job.definition().newMachine(job.input());
+      try {
+         return new Result(job, machine, machine.run(job.limits()), null);
+      }
+      catch (final RuntimeException re) {
+         return new Result(job, machine, null, re);
+      }
+   }
+}
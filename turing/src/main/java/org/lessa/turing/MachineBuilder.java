@@ -2,256 +2,47 @@ package org.lessa.turing;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import org.lessa.turing.Event.EventHandler;
 
 public class MachineBuilder {
 
-   private static class MachineImpl implements Machine {
-
-      private final Set<Character> alphabetSymbols;
-      private final Character blankSymbol;
-      private final Set<String> finalStates;
-      private final String initialState;
-      private final Set<Character> inputSymbols;
-      private final Character startSymbol;
-      private final Set<String> states;
-      private final List<EventHandler> subscribers;
-      private final List<Tape> tapes;
-      private final TransitionFunction transitionFunction;
-
-      MachineImpl(Set<Character> alphabetSymbols, Character blankSymbol, Set<String> finalStates,
-            String initialState, Set<Character> inputSymbols, Character startSymbol,
-            Set<String> states, List<EventHandler> subscribers, List<Tape> tapes,
-            TransitionFunction transitionFunction) {
-         this.alphabetSymbols = alphabetSymbols;
-         this.blankSymbol = blankSymbol;
-         this.finalStates = finalStates;
-         this.initialState = initialState;
-         this.inputSymbols = inputSymbols;
-         this.startSymbol = startSymbol;
-         this.states = states;
-         this.subscribers = subscribers;
-         this.tapes = tapes;
-         this.transitionFunction = transitionFunction;
-      }
-
-      @Override
-      public Set<Character> alphabetSymbols() {
-         return alphabetSymbols;
-      }
-
-      @Override
-      public Character blankSymbol() {
-         return blankSymbol;
-      }
-
-      @Override
-      public Set<String> finalStates() {
-         return finalStates;
-      }
-
-      @Override
-      public String initialState() {
-         return initialState;
-      }
-
-      @Override
-      public Set<Character> inputSymbols() {
-         return inputSymbols;
-      }
-
-      @Override
-      public void run() {
-
-         int stateId = 0;
-
-         String state = initialState();
-         List<Character> tapeHeadSymbols = tapes.stream().map(tape -> tape.read())
-               .collect(Collectors.toList());
-
-         onStateChanged(stateId, state, tapeHeadSymbols);
-
-         while (!finalStates().contains(state)) {
-            final Transition transition = transitionFunction().apply(state, tapeHeadSymbols);
-            if (transition == null) {
-               onDiverged(stateId, state, tapeHeadSymbols);
-               System.exit(-1);
-            }
-            onTransition(stateId, state, transition);
-            IntStream.range(0, tapes.size())
-                  .forEach(ix -> tapes.get(ix).write(transition.outputs().get(ix)));
-            IntStream.range(0, tapes.size())
-                  .forEach(ix -> tapes.get(ix).move(transition.moves().get(ix)));
-            state = transition.state();
-            if (!states.contains(state)) {
-               throw new IllegalArgumentException(
-                     String.format("Unrecognized machine state '%s'.", state));
-            }
-            tapeHeadSymbols = tapes.stream().map(tape -> tape.read()).collect(Collectors.toList());
-            onStateChanged(++stateId, state, tapeHeadSymbols);
-         }
-
-         onHalted(stateId, state, tapeHeadSymbols);
-      }
-
-      @Override
-      public Character startSymbol() {
-         return startSymbol;
-      }
-
-      @Override
-      public Set<String> states() {
-         return states;
-      }
-
-      @Override
-      public List<Tape> tapes() {
-         return tapes;
-      }
-
-      @Override
-      public TransitionFunction transitionFunction() {
-         return transitionFunction;
-      }
-
-      private void onDiverged(int stateId, String state, List<Character> tapeHeadSymbols) {
-         for (final EventHandler eh : subscribers) {
-            eh.handle(new Event.OnDiverged() {
-
-               @Override
-               public Machine machine() {
-                  return MachineImpl.this;
-               }
-
-               @Override
-               public String state() {
-                  return state;
-               }
-
-               @Override
-               public long stateId() {
-                  return stateId;
-               }
-
-               @Override
-               public List<Character> symbols() {
-                  return tapeHeadSymbols;
-               }
-            });
-         }
-      }
-
-      private void onHalted(int stateId, String state, List<Character> tapeHeadSymbols) {
-         for (final EventHandler eh : subscribers) {
-            eh.handle(new Event.OnHalted() {
-
-               @Override
-               public Machine machine() {
-                  return MachineImpl.this;
-               }
-
-               @Override
-               public String state() {
-                  return state;
-               }
-
-               @Override
-               public long stateId() {
-                  return stateId;
-               }
-
-               @Override
-               public List<Character> symbols() {
-                  return tapeHeadSymbols;
-               }
-            });
-         }
-      }
-
-      private void onStateChanged(int stateId, String state, List<Character> tapeHeadSymbols) {
-         for (final EventHandler eh : subscribers) {
-            eh.handle(new Event.OnStateChanged() {
-
-               @Override
-               public Machine machine() {
-                  return MachineImpl.this;
-               }
-
-               @Override
-               public String state() {
-                  return state;
-               }
-
-               @Override
-               public long stateId() {
-                  return stateId;
-               }
-
-               @Override
-               public List<Character> symbols() {
-                  return tapeHeadSymbols;
-               }
-            });
-         }
-      }
-
-      private void onTransition(final int stateId, final String state,
-            final Transition transition) {
-         for (final EventHandler eh : subscribers) {
-            eh.handle(new Event.OnTransition() {
-
-               @Override
-               public Machine machine() {
-                  return MachineImpl.this;
-               }
-
-               @Override
-               public String state() {
-                  return state;
-               }
-
-               @Override
-               public long stateId() {
-                  return stateId;
-               }
-
-               @Override
-               public Transition transition() {
-                  return transition;
-               }
-
-            });
-         }
-      }
-   }
-
-   private Set<Character> alphabetSymbols;
-   private Character blankSymbol;
-   private Set<String> finalStates;
-   private String initialState;
-   private Set<Character> inputSymbols;
+   // read by the MachineDefinition constructor, so that adding a part does not mean adding
+   // yet another positional parameter
+   boolean accelerated;
+   Set<Character> alphabetSymbols;
+   Character blankSymbol;
+   long checkpointInterval;
+   CheckpointSink checkpointSink;
+   boolean codeGeneration;
+   boolean cycleDetection;
+   Set<String> finalStates;
+   String initialState;
+   Set<Character> inputSymbols;
    private Tape inputTape;
-   private int moreTapes;
-   private Character startSymbol;
-   private Set<String> states;
-   private final List<EventHandler> subscribers;
-
-   private TransitionFunction transitionFunction;
+   boolean metrics;
+   MetricsExporter metricsExporter;
+   int moreTapes;
+   private NondeterministicTransitionFunction nondeterministicFunction;
+   Character startSymbol;
+   Set<String> states;
+   final List<EventHandler> subscribers;
+   TapeFactory tapeFactory;
+   TransitionFunction transitionFunction;
 
    /**
-    * Creates a builder with default blank and start symbols and an empty list
-    * of subscribers.
+    * Creates a builder with default blank and start symbols, an empty list
+    * of subscribers and array-backed tapes.
     */
    public MachineBuilder() {
       blankSymbol = Machine.DEFAULT_BLANK_SYMBOL;
       startSymbol = Machine.DEFAULT_START_SYMBOL;
       subscribers = new ArrayList<>();
+      tapeFactory = TapeFactory.ARRAY;
    }
 
    /**
@@ -263,29 +54,58 @@ public class MachineBuilder {
     *            if any machine part fails validation
     */
    public final Machine build() throws MachineBuilderException {
+      final MachineDefinition definition = buildDefinition();
+      return inputTape == null ? definition.newMachine() : definition.newMachine(inputTape);
+   }
+
+   /**
+    * Uses the parameters passed to the builder, except for the input tape, in
+    * order to create and return a new {@link MachineDefinition} object. The
+    * definition takes copies of every collection, so the builder may be reused.
+    *
+    * @return machine definition
+    * @throws MachineBuilderException
+    *            if any machine part fails validation
+    */
+   public final MachineDefinition buildDefinition() throws MachineBuilderException {
 
       // validate machine parts
-      validate();
+      validate(false);
 
-      // the blank and start symbols must always exist in the alphabet
-      alphabetSymbols.add(blankSymbol);
-      alphabetSymbols.add(startSymbol);
+      return new MachineDefinition(this);
+   }
 
-      final List<Tape> tapes = new ArrayList<>();
+   /**
+    * Uses the parameters passed to the builder, except for the input tape, the deterministic
+    * transition function and every option of deterministic runs, in order to create and
+    * return a new {@link NondeterministicMachine} object.
+    *
+    * @return nondeterministic machine
+    * @throws MachineBuilderException
+    *            if any machine part fails validation
+    */
+   public final NondeterministicMachine buildNondeterministic() throws MachineBuilderException {
 
-      // first tape is the input
-      tapes.add(inputTape == null ? new Tape(blankSymbol, startSymbol) : inputTape);
+      // validate machine parts
+      validate(true);
 
-      // additional empty tapes
-      for (int i = 0; i < moreTapes; i++) {
-         tapes.add(new Tape(blankSymbol, startSymbol));
-      }
+      return new NondeterministicMachine(alphabet(), blankSymbol, new HashSet<>(finalStates),
+            initialState, new HashSet<>(inputSymbols), moreTapes + 1, startSymbol,
+            new HashSet<>(states), nondeterministicFunction);
+   }
 
-      return new MachineImpl(Collections.unmodifiableSet(alphabetSymbols), blankSymbol,
-            Collections.unmodifiableSet(finalStates), initialState,
-            Collections.unmodifiableSet(inputSymbols), startSymbol,
-            Collections.unmodifiableSet(states), Collections.unmodifiableList(subscribers),
-            Collections.unmodifiableList(tapes), transitionFunction);
+   /**
+    * Enables macro steps on compiled transition functions. A transition that stays in its
+    * state and writes back what it reads is then applied to a whole run of equal symbols at
+    * once, as a single transition event covering as many steps as the run is long.
+    *
+    * @param accelerated
+    *           whether runs may collapse repeated transitions into macro steps
+    * @return this builder
+    */
+   public final MachineBuilder withAcceleration(final boolean accelerated) {
+      this.accelerated = accelerated;
+      return this;
    }
 
    public final MachineBuilder withAlphabetSymbols(final Character... alphabetSymbols) {
@@ -299,6 +119,70 @@ public class MachineBuilder {
       return this;
    }
 
+   /**
+    * Sets the number of steps between two checkpoints, see
+    * {@link #withCheckpointSink(CheckpointSink)}.
+    *
+    * @param interval
+    *           number of steps between two checkpoints, or 0 or less to disable them
+    * @return this builder
+    */
+   public final MachineBuilder withCheckpointInterval(final long interval) {
+      this.checkpointInterval = interval;
+      return this;
+   }
+
+   /**
+    * Enables checkpoints: every {@link #withCheckpointInterval(long) interval} steps, runs
+    * hand a snapshot of the machine to the sink, which
+    * {@link MachineDefinition#resume(MachineSnapshot)} resumes from. The snapshot is taken by
+    * the step loop itself, generated loops included, so checkpoints neither need subscribers
+    * nor slow down the steps in between. Checkpoints are off by default. The sink is shared
+    * by every run of the definition, so it must be thread-safe if runs are concurrent.
+    *
+    * @param sink
+    *           sink of the snapshots, such as a {@link CheckpointFile}, or {@code null} for
+    *           none
+    * @return this builder
+    */
+   public final MachineBuilder withCheckpointSink(final CheckpointSink sink) {
+      this.checkpointSink = sink;
+      return this;
+   }
+
+   /**
+    * Enables code generation for single-tape machines with compiled transition functions.
+    * The definition then carries a step loop generated and compiled at build time for its
+    * transition function alone, which runs use whenever the machine has no subscribers. Code
+    * generation needs the system Java compiler; without it, runs silently fall back to the
+    * table-driven loop, see {@link MachineDefinition#generated()}.
+    *
+    * @param codeGeneration
+    *           whether to generate a step loop for the machine
+    * @return this builder
+    */
+   public final MachineBuilder withCodeGeneration(final boolean codeGeneration) {
+      this.codeGeneration = codeGeneration;
+      return this;
+   }
+
+   /**
+    * Enables cycle detection. Runs then stop with {@link RunResult.Outcome#LOOPING}, and
+    * notify an {@link Event.OnLooping} event, as soon as they are proven to repeat a
+    * configuration, that is, the same state, head positions and tape contents. Machines that
+    * never halt without ever repeating a configuration, such as one that keeps writing to
+    * fresh cells, still run until their limits are reached. Detection costs a few hash
+    * updates per step, and disables generated step loops.
+    *
+    * @param cycleDetection
+    *           whether runs detect that they are looping
+    * @return this builder
+    */
+   public final MachineBuilder withCycleDetection(final boolean cycleDetection) {
+      this.cycleDetection = cycleDetection;
+      return this;
+   }
+
    public final MachineBuilder withFinalStates(final String... finalStates) {
       this.finalStates = Arrays.stream(finalStates).filter(s -> s != null)
             .collect(Collectors.toSet());
@@ -321,11 +205,54 @@ public class MachineBuilder {
       return this;
    }
 
+   /**
+    * Enables metrics: every machine counts its steps, the visits to each state, the hits of
+    * each transition, the travel of each head and the running time, which
+    * {@link Machine#metrics()} takes snapshots of. Counting costs an array increment per
+    * step; generated step loops only pay it on transitions that leave or enter a state,
+    * since the hits of a state's only self-loop follow from the steps spent in it.
+    *
+    * @param metrics
+    *           whether machines collect metrics
+    * @return this builder
+    */
+   public final MachineBuilder withMetrics(final boolean metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /**
+    * Enables metrics, see {@link #withMetrics(boolean)}, and exports a snapshot of them at
+    * the end of every run.
+    *
+    * @param exporter
+    *           exporter of the metrics, such as a {@link PrometheusFileExporter}, or
+    *           {@code null} for none
+    * @return this builder
+    */
+   public final MachineBuilder withMetricsExporter(final MetricsExporter exporter) {
+      this.metricsExporter = exporter;
+      return this;
+   }
+
    public final MachineBuilder withMoreTapes(final int moreTapes) {
       this.moreTapes = moreTapes;
       return this;
    }
 
+   /**
+    * Sets the transition function of machines built by {@link #buildNondeterministic()}.
+    *
+    * @param transitionFunction
+    *           function allowing any number of transitions from each configuration
+    * @return this builder
+    */
+   public final MachineBuilder withNondeterministicTransitionFunction(
+         final NondeterministicTransitionFunction transitionFunction) {
+      this.nondeterministicFunction = transitionFunction;
+      return this;
+   }
+
    public final MachineBuilder withStartSymbol(final char symbol) {
       this.startSymbol = symbol;
       return this;
@@ -341,12 +268,35 @@ public class MachineBuilder {
       return this;
    }
 
+   /**
+    * Selects how the work tapes, and the input tape unless one is given with
+    * {@link #withInputTape(Tape)}, store their cells.
+    *
+    * @param tapeFactory
+    *           factory of empty tapes, such as {@link TapeFactory#RUN_LENGTH}
+    * @return this builder
+    */
+   public final MachineBuilder withTapeFactory(final TapeFactory tapeFactory) {
+      this.tapeFactory = tapeFactory;
+      return this;
+   }
+
    public final MachineBuilder withTransitionFunction(final TransitionFunction transitionFunction) {
       this.transitionFunction = transitionFunction;
       return this;
    }
 
-   private void validate() throws MachineBuilderException {
+   /**
+    * Alphabet with the blank and start symbols, which must always exist in it.
+    */
+   Set<Character> alphabet() {
+      final Set<Character> alphabet = new HashSet<>(alphabetSymbols);
+      alphabet.add(blankSymbol);
+      alphabet.add(startSymbol);
+      return alphabet;
+   }
+
+   private void validate(final boolean nondeterministic) throws MachineBuilderException {
 
       final MachineBuilderException mbe = new MachineBuilderException(
             "Invalid arguments to MachineBuilder.");
@@ -404,13 +354,39 @@ public class MachineBuilder {
       }
 
       // transitionFunction: not null
-      if (transitionFunction == null) {
+      if ((nondeterministic ? nondeterministicFunction : transitionFunction) == null) {
          mbe.addViolation(MachinePart.TRANSTION_FUNCTION,
                "The transition function must be non-null.");
       }
 
+      // transitionFunction: when compiled, every target state is checked here instead of on
+      // every step
+      if (!nondeterministic && transitionFunction instanceof CompiledTransitionFunction) {
+         validate((CompiledTransitionFunction) transitionFunction, mbe);
+      }
+
       if (mbe.hasViolations()) {
          throw mbe;
       }
    }
-}
\ No newline at end of file
+
+   private void validate(final CompiledTransitionFunction function,
+         final MachineBuilderException mbe) {
+
+      // transitionFunction: one symbol per tape
+      if (function.numTapes() != moreTapes + 1) {
+         mbe.addViolation(MachinePart.TRANSTION_FUNCTION,
+               String.format("The transition function expects %d tapes but the machine has %d.",
+                     function.numTapes(), moreTapes + 1));
+      }
+
+      // transitionFunction: target states contained in states
+      for (int id = 0; id < function.transitionCount(); id++) {
+         final String state = function.transition(id).state();
+         if (states != null && !states.contains(state)) {
+            mbe.addViolation(MachinePart.TRANSTION_FUNCTION,
+                  String.format("Unrecognized machine state '%s'.", state));
+         }
+      }
+   }
+}
@@ -0,0 +1,377 @@
+package org.lessa.turing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates, compiles and loads a {@link MachineLoop} specialized to one single-tape
+ * compiled transition function. The generated loop is a {@code switch} over state codes
+ * with a nested {@code switch} over symbols, whose cases write, move and jump to the next
+ * state with constants, so the JIT sees the whole machine as straight-line code.
+ * <p>
+ * The Java source is compiled in memory with the system Java compiler and defined in a class
+ * loader of its own, which is collected along with the machine definition. Without a
+ * compiler, as on a JRE, no loop is returned and runs use the table-driven step loop instead.
+ * Generated source that does not compile or load is a bug of this class, reported with the
+ * compiler's diagnostics rather than hidden behind the table-driven loop.
+ */
+final class MachineClassGenerator {
+
+   private static final String PACKAGE = "org.lessa.turing.generated";
+
+   /**
+    * Class loader of a single generated class.
+    */
+   private static final class GeneratedClassLoader extends ClassLoader {
+
+      GeneratedClassLoader(ClassLoader parent) {
+         super(parent);
+      }
+
+      Class<?> define(String name, byte[] bytes) {
+         return defineClass(name, bytes, 0, bytes.length);
+      }
+   }
+
+   /**
+    * Source file held in memory.
+    */
+   private static final class Source extends SimpleJavaFileObject {
+
+      private final String code;
+
+      Source(String className, String code) {
+         super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension),
+               Kind.SOURCE);
+         this.code = code;
+      }
+
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+         return code;
+      }
+   }
+
+   private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+   private MachineClassGenerator() {
+   }
+
+   /**
+    * Generates a step loop for the specified function.
+    *
+    * @param function
+    *           single-tape compiled transition function
+    * @param isFinal
+    *           final flags indexed by state code
+    * @param accelerated
+    *           whether repeating transitions take macro steps
+    * @param metered
+    *           whether the loop counts the hits of every transition
+    * @return new step loop, or {@code null} if the function has more than one tape or there
+    *         is no compiler
+    * @throws IllegalStateException
+    *            if the generated source does not compile or load, with the diagnostics of the
+    *            compiler
+    */
+   static MachineLoop generate(final CompiledTransitionFunction function,
+         final boolean[] isFinal, final boolean accelerated, final boolean metered) {
+
+      final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      if (function.numTapes() != 1 || compiler == null) {
+         return null;
+      }
+
+      final String simpleName = "Machine" + NEXT_ID.incrementAndGet();
+      final String className = PACKAGE + "." + simpleName;
+      final String code = source(simpleName, function, isFinal, accelerated, metered);
+
+      final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+      final JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+            compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+
+         @Override
+         public JavaFileObject getJavaFileForOutput(Location location, String name,
+               JavaFileObject.Kind kind, FileObject sibling) {
+            final URI uri = URI.create("mem:///" + name.replace('.', '/') + kind.extension);
+            return new SimpleJavaFileObject(uri, kind) {
+
+               @Override
+               public OutputStream openOutputStream() {
+                  final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                  classes.put(name, bytes);
+                  return bytes;
+               }
+            };
+         }
+      };
+
+      final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      try {
+         final Boolean compiled = compiler.getTask(null, fileManager, diagnostics,
+               Arrays.asList("-classpath", classPath(), "-g:none"), null,
+               Collections.singletonList(new Source(className, code))).call();
+         if (!Boolean.TRUE.equals(compiled) || !classes.containsKey(className)) {
+            final StringBuilder message = new StringBuilder(String.format(
+                  "The step loop generated for %s does not compile:", className));
+            for (final Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+               message.append('\n').append(d);
+            }
+            throw new IllegalStateException(message.toString());
+         }
+         final GeneratedClassLoader loader = new GeneratedClassLoader(
+               MachineLoop.class.getClassLoader());
+         return (MachineLoop) loader.define(className, classes.get(className).toByteArray())
+               .getDeclaredConstructor()
+               .newInstance();
+      }
+      catch (final ReflectiveOperationException roe) {
+         throw new IllegalStateException(
+               String.format("The step loop generated for %s does not load.", className), roe);
+      }
+      finally {
+         try {
+            fileManager.close();
+         }
+         catch (final IOException ioe) {
+            // nothing was written to disk
+         }
+      }
+   }
+
+   /**
+    * Class path of the application, plus the location of this library in case it was
+    * loaded from elsewhere.
+    */
+   private static String classPath() {
+      final StringBuilder path = new StringBuilder(System.getProperty("java.class.path", ""));
+      final CodeSource source = MachineLoop.class.getProtectionDomain().getCodeSource();
+      if (source != null && source.getLocation() != null) {
+         try {
+            path.append(File.pathSeparatorChar)
+                  .append(new File(source.getLocation().toURI()).getPath());
+         }
+         catch (final URISyntaxException | IllegalArgumentException e) {
+            // not a file location, rely on the class path alone
+         }
+      }
+      return path.toString();
+   }
+
+   /**
+    * Java source of the step loop, see {@link MachineLoop#run} for the contract.
+    * <p>
+    * A metered loop adds every transition it takes to the counters array, except the only
+    * transition from a state back to itself, if there is one: a loop on such a state
+    * subtracts the step count from the transition's counter when it enters the state and adds
+    * it back when it leaves, so the steps that repeat the state, usually the hot ones, count
+    * nothing at all. Counts are kept in the array rather than in local variables, which would
+    * all stay live across the loop and crowd the registers the tape needs.
+    */
+   static String source(final String simpleName, final CompiledTransitionFunction function,
+         final boolean[] isFinal, final boolean accelerated, final boolean metered) {
+
+      final Alphabet alphabet = function.alphabet();
+      final int[] selfLoops = metered ? selfLoops(function, isFinal) : null;
+      final StringBuilder out = new StringBuilder(4096);
+      out.append("package ").append(PACKAGE).append(";\n\n");
+      out.append("import org.lessa.turing.Move;\n");
+      out.append("import org.lessa.turing.Tape;\n\n");
+      out.append("public final class ").append(simpleName)
+            .append(" implements org.lessa.turing.MachineLoop {\n\n");
+      out.append("   @Override\n");
+      out.append("   public int run(Tape tape, int state, long[] counters, long maxSteps,")
+            .append(" long deadline) {\n");
+      out.append("      long steps = counters[0];\n");
+      if (accelerated) {
+         out.append("      long iterations = 0;\n");
+      }
+      if (metered) {
+         selfLoopCounts(out, "      ", selfLoops, "-=");
+      }
+      out.append("      while (true) {\n");
+
+      // final states stop the loop before any limit is checked
+      out.append("         switch (state) {\n");
+      boolean anyFinal = false;
+      for (int state = 0; state < isFinal.length; state++) {
+         if (isFinal[state]) {
+            out.append("         case ").append(state).append(":\n");
+            anyFinal = true;
+         }
+      }
+      if (anyFinal) {
+         out.append("            counters[0] = steps;\n");
+         out.append("            return state;\n");
+      }
+      out.append("         default:\n");
+      out.append("            break;\n");
+      out.append("         }\n");
+      // without macro steps, every iteration is a step and steps can pace the clock alone
+      out.append("         if (steps >= maxSteps || (")
+            .append(accelerated ? "iterations++" : "steps")
+            .append(" & ")
+            .append(RunLimits.DEADLINE_CHECK_MASK)
+            .append("L) == 0\n");
+      out.append("               && deadline != Long.MAX_VALUE")
+            .append(" && System.nanoTime() - deadline >= 0) {\n");
+      if (metered) {
+         selfLoopCounts(out, "            ", selfLoops, "+=");
+      }
+      out.append("            counters[0] = steps;\n");
+      out.append("            return state;\n");
+      out.append("         }\n");
+
+      out.append("         final char symbol = tape.readChar();\n");
+      out.append("         switch (state) {\n");
+      for (int state = 0; state < function.stateCount(); state++) {
+         if (isFinal[state]) {
+            continue;
+         }
+         out.append("         case ").append(state).append(":\n");
+         out.append("            switch (symbol) {\n");
+         for (int code = 0; code < alphabet.size(); code++) {
+            final CompiledTransition transition = function.apply(state, code);
+            if (transition != null) {
+               transition(out, state, alphabet.symbol(code), transition, accelerated,
+                     selfLoops);
+            }
+         }
+         out.append("            default:\n");
+         out.append("               break;\n");
+         out.append("            }\n");
+         out.append("            break;\n");
+      }
+      out.append("         default:\n");
+      out.append("            break;\n");
+      out.append("         }\n");
+      if (metered) {
+         selfLoopCounts(out, "         ", selfLoops, "+=");
+      }
+      out.append("         counters[0] = steps;\n");
+      out.append("         return ~state;\n");
+      out.append("      }\n");
+      out.append("   }\n");
+      out.append("}\n");
+      return out.toString();
+   }
+
+   /**
+    * Statement that adds the step count to, or subtracts it from, the counter of the self-loop
+    * of the current state, if it has one whose hits are not counted one by one.
+    */
+   private static void selfLoopCounts(final StringBuilder out, final String indent,
+         final int[] selfLoops, final String operator) {
+      out.append(indent).append("switch (state) {\n");
+      for (int state = 0; state < selfLoops.length; state++) {
+         if (selfLoops[state] >= 0) {
+            out.append(indent).append("case ").append(state).append(":\n");
+            out.append(indent).append("   counters[").append(selfLoops[state] + 1).append("] ")
+                  .append(operator).append(" steps;\n");
+            out.append(indent).append("   break;\n");
+         }
+      }
+      out.append(indent).append("default:\n");
+      out.append(indent).append("   break;\n");
+      out.append(indent).append("}\n");
+   }
+
+   /**
+    * Id of the only transition from every state back to itself, or -1 for states with none,
+    * or with more than one.
+    */
+   private static int[] selfLoops(final CompiledTransitionFunction function,
+         final boolean[] isFinal) {
+      final int[] selfLoops = new int[function.stateCount()];
+      Arrays.fill(selfLoops, -1);
+      for (int state = 0; state < selfLoops.length; state++) {
+         int count = 0;
+         for (int code = 0; code < function.alphabet().size() && !isFinal[state]; code++) {
+            final CompiledTransition transition = function.apply(state, code);
+            if (transition != null && transition.nextState == state) {
+               selfLoops[state] = transition.id;
+               count++;
+            }
+         }
+         if (count > 1) {
+            selfLoops[state] = -1;
+         }
+      }
+      return selfLoops;
+   }
+
+   /**
+    * Case of a transition, counted unless it is the self-loop of a metered state, see
+    * {@link #source}.
+    *
+    * @param selfLoops
+    *           self-loop of every state, see {@link #selfLoops}, or {@code null} if the loop
+    *           is not metered
+    */
+   private static void transition(final StringBuilder out, final int state, final char symbol,
+         final CompiledTransition transition, final boolean accelerated,
+         final int[] selfLoops) {
+
+      final boolean counted = selfLoops != null && selfLoops[state] != transition.id;
+      final boolean leaves = selfLoops != null && transition.nextState != state;
+      final Move direction = transition.directions[0];
+      final String move = "Move." + direction.name();
+      out.append("            case ").append((int) symbol).append(":\n");
+      if (accelerated && transition.repeats && direction != Move.NONE) {
+         out.append("               if (maxSteps - steps > 1) {\n");
+         out.append("                  final int count = tape.runLength(").append(move)
+               .append(", (int) Math.min(maxSteps - steps, ")
+               .append(MachineRun.MAX_MACRO_STEP).append("));\n");
+         out.append("                  if (count > 1) {\n");
+         out.append("                     tape.sweep(").append(move).append(", count);\n");
+         out.append("                     steps += count;\n");
+         if (counted) {
+            out.append("                     counters[").append(transition.id + 1)
+                  .append("] += count;\n");
+         }
+         out.append("                     continue;\n");
+         out.append("                  }\n");
+         out.append("               }\n");
+      }
+      out.append("               tape.writeChar((char) ").append((int) transition.outputSymbols[0])
+            .append(");\n");
+      if (direction != Move.NONE) {
+         out.append("               tape.move(").append(move).append(");\n");
+      }
+      if (leaves && selfLoops[state] >= 0) {
+         out.append("               counters[").append(selfLoops[state] + 1)
+               .append("] += steps;\n");
+      }
+      out.append("               state = ").append(transition.nextState).append(";\n");
+      out.append("               steps++;\n");
+      if (counted) {
+         out.append("               counters[").append(transition.id + 1).append("]++;\n");
+      }
+      if (leaves && selfLoops[transition.nextState] >= 0) {
+         out.append("               counters[").append(selfLoops[transition.nextState] + 1)
+               .append("] -= steps;\n");
+      }
+      out.append("               continue;\n");
+   }
+}
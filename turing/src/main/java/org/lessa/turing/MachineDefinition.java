@@ -0,0 +1,324 @@
+package org.lessa.turing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.lessa.turing.Event.EventHandler;
+
+/**
+ * Immutable, validated description of a machine: everything but its tapes. A definition is
+ * built once by {@link MachineBuilder#buildDefinition()} and can then create any number of
+ * {@link Machine} runs, concurrently if its subscribers are thread-safe, without validating
+ * or compiling anything again. Accessors shared with {@link Machine} have the same meaning.
+ */
+public final class MachineDefinition {
+
+   private final boolean accelerated;
+   private final Alphabet alphabet;
+   private final Set<Character> alphabetSymbols;
+   private final Character blankSymbol;
+   private final long checkpointInterval;
+   private final CheckpointSink checkpointSink;
+   private final boolean cycleDetection;
+   private final boolean[] finalStateCodes;
+   private final int[] functionSymbolCodes;
+   private final Set<String> finalStates;
+   private final MachineLoop loop;
+   private final String initialState;
+   private final Set<Character> inputSymbols;
+   private final int[] machineSymbolCodes;
+   private final boolean metrics;
+   private final MetricsExporter metricsExporter;
+   private final int numTapes;
+   private final Character startSymbol;
+   private final Set<String> states;
+   private final List<EventHandler> subscribers;
+   private final TapeFactory tapeFactory;
+   private final TransitionFunction transitionFunction;
+
+   /**
+    * Creates a definition from the parts of a validated builder. The definition takes copies
+    * of every collection, so the builder may be reused.
+    */
+   MachineDefinition(MachineBuilder builder) {
+      this.accelerated = builder.accelerated;
+      this.alphabetSymbols = Collections.unmodifiableSet(builder.alphabet());
+      this.blankSymbol = builder.blankSymbol;
+      this.checkpointInterval = Math.max(0, builder.checkpointInterval);
+      this.checkpointSink = builder.checkpointSink;
+      this.cycleDetection = builder.cycleDetection;
+      this.finalStates = Collections.unmodifiableSet(new HashSet<>(builder.finalStates));
+      this.initialState = builder.initialState;
+      this.inputSymbols = Collections.unmodifiableSet(new HashSet<>(builder.inputSymbols));
+      this.metrics = builder.metrics || builder.metricsExporter != null;
+      this.metricsExporter = builder.metricsExporter;
+      this.numTapes = builder.moreTapes + 1;
+      this.startSymbol = builder.startSymbol;
+      this.states = Collections.unmodifiableSet(new HashSet<>(builder.states));
+      this.subscribers = Collections.unmodifiableList(new ArrayList<>(builder.subscribers));
+      this.tapeFactory = builder.tapeFactory;
+      this.transitionFunction = builder.transitionFunction;
+      this.alphabet = new Alphabet(alphabetSymbols);
+
+      // final states by code, so that compiled runs never look up a state name
+      if (transitionFunction instanceof CompiledTransitionFunction) {
+         final CompiledTransitionFunction function =
+               (CompiledTransitionFunction) transitionFunction;
+         this.finalStateCodes = new boolean[function.stateCount()];
+         for (int code = 0; code < finalStateCodes.length; code++) {
+            finalStateCodes[code] = finalStates.contains(function.state(code));
+         }
+         this.loop = builder.codeGeneration
+               ? MachineClassGenerator.generate(function, finalStateCodes, accelerated,
+                     metrics)
+               : null;
+
+         // symbol codes of the machine alphabet and of the function, both ways
+         final Alphabet symbols = function.alphabet();
+         this.functionSymbolCodes = new int[alphabet.size()];
+         for (int code = 0; code < functionSymbolCodes.length; code++) {
+            functionSymbolCodes[code] = symbols.code(alphabet.symbol(code));
+         }
+         this.machineSymbolCodes = new int[symbols.size()];
+         for (int code = 0; code < machineSymbolCodes.length; code++) {
+            machineSymbolCodes[code] = alphabet.code(symbols.symbol(code));
+         }
+      }
+      else {
+         this.finalStateCodes = null;
+         this.functionSymbolCodes = null;
+         this.loop = null;
+         this.machineSymbolCodes = null;
+      }
+   }
+
+   /**
+    * Whether runs collapse repeated transitions into macro steps, see
+    * {@link MachineBuilder#withAcceleration(boolean)}.
+    *
+    * @return {@code true} if macro steps are enabled
+    */
+   public boolean accelerated() {
+      return accelerated;
+   }
+
+   /**
+    * Machine alphabet, including the blank and start symbols, which assigns every symbol the
+    * code that {@link CodedTape coded tapes} store.
+    *
+    * @return interned machine symbols
+    */
+   public Alphabet alphabet() {
+      return alphabet;
+   }
+
+   public Set<Character> alphabetSymbols() {
+      return alphabetSymbols;
+   }
+
+   public Character blankSymbol() {
+      return blankSymbol;
+   }
+
+   /**
+    * Number of steps between two checkpoints, see
+    * {@link MachineBuilder#withCheckpointInterval(long)}.
+    *
+    * @return checkpoint interval, or 0 if checkpoints are disabled
+    */
+   public long checkpointInterval() {
+      return checkpointInterval;
+   }
+
+   /**
+    * Sink of the checkpoints of every run, see
+    * {@link MachineBuilder#withCheckpointSink(CheckpointSink)}.
+    *
+    * @return checkpoint sink, or {@code null} if there is none
+    */
+   public CheckpointSink checkpointSink() {
+      return checkpointSink;
+   }
+
+   /**
+    * Whether runs stop when they are proven to loop, see
+    * {@link MachineBuilder#withCycleDetection(boolean)}.
+    *
+    * @return {@code true} if cycle detection is enabled
+    */
+   public boolean cycleDetection() {
+      return cycleDetection;
+   }
+
+   public Set<String> finalStates() {
+      return finalStates;
+   }
+
+   /**
+    * Whether runs use a step loop generated for this definition, see
+    * {@link MachineBuilder#withCodeGeneration(boolean)}. This is {@code false} when code
+    * generation was requested but is not possible, such as on a runtime without a compiler.
+    *
+    * @return {@code true} if a step loop was generated
+    */
+   public boolean generated() {
+      return loop != null;
+   }
+
+   public String initialState() {
+      return initialState;
+   }
+
+   public Set<Character> inputSymbols() {
+      return inputSymbols;
+   }
+
+   /**
+    * Whether machines collect metrics, see {@link MachineBuilder#withMetrics(boolean)}.
+    *
+    * @return {@code true} if metrics are enabled
+    */
+   public boolean metrics() {
+      return metrics;
+   }
+
+   /**
+    * Exporter of the metrics at the end of every run, see
+    * {@link MachineBuilder#withMetricsExporter(MetricsExporter)}.
+    *
+    * @return metrics exporter, or {@code null} if there is none
+    */
+   public MetricsExporter metricsExporter() {
+      return metricsExporter;
+   }
+
+   /**
+    * Creates a run on an empty input tape.
+    *
+    * @return new machine
+    */
+   public Machine newMachine() {
+      return newMachine(tapeFactory.create(alphabet, blankSymbol, startSymbol));
+   }
+
+   /**
+    * Creates a run on the specified input tape and fresh, empty work tapes.
+    *
+    * @param inputTape
+    *           input tape, owned by the new machine from now on
+    * @return new machine
+    */
+   public Machine newMachine(final Tape inputTape) {
+      final List<Tape> tapes = new ArrayList<>(numTapes);
+      tapes.add(inputTape);
+      for (int i = 1; i < numTapes; i++) {
+         tapes.add(tapeFactory.create(alphabet, blankSymbol, startSymbol));
+      }
+      return new MachineRun(this, Collections.unmodifiableList(tapes));
+   }
+
+   /**
+    * Number of tapes of every run, including the input tape.
+    *
+    * @return number of tapes
+    */
+   public int numTapes() {
+      return numTapes;
+   }
+
+   /**
+    * Creates a run that continues from a snapshot, on fresh tapes restored from it. Running
+    * it takes the same steps as the run the snapshot was taken from would have taken: state
+    * ids carry on from the snapshot's, step budgets count from the start of the original
+    * run, and the first event is a state change to the snapshot's state.
+    *
+    * @param snapshot
+    *           snapshot of a run of this definition, or of an identical one
+    * @return new machine
+    * @throws IllegalArgumentException
+    *            if the snapshot does not fit the tapes or states of this definition
+    */
+   public Machine resume(final MachineSnapshot snapshot) {
+      if (snapshot.numTapes() != numTapes) {
+         throw new IllegalArgumentException(String.format(
+               "The snapshot has %d tapes but the machine has %d.", snapshot.numTapes(),
+               numTapes));
+      }
+      if (!states.contains(snapshot.state())) {
+         throw new IllegalArgumentException(
+               String.format("Unrecognized machine state '%s'.", snapshot.state()));
+      }
+      final List<Tape> tapes = new ArrayList<>(numTapes);
+      for (int i = 0; i < numTapes; i++) {
+         final Tape tape = tapeFactory.create(alphabet, blankSymbol, startSymbol);
+         snapshot.restore(i, tape);
+         tapes.add(tape);
+      }
+      return new MachineRun(this, Collections.unmodifiableList(tapes), snapshot.state(),
+            snapshot.stateId());
+   }
+
+   public Character startSymbol() {
+      return startSymbol;
+   }
+
+   public Set<String> states() {
+      return states;
+   }
+
+   /**
+    * Subscribers notified by every run of this definition.
+    *
+    * @return immutable list of subscribers
+    */
+   public List<EventHandler> subscribers() {
+      return subscribers;
+   }
+
+   /**
+    * Factory of the work tapes, and of the input tape when none is given.
+    *
+    * @return tape factory
+    */
+   public TapeFactory tapeFactory() {
+      return tapeFactory;
+   }
+
+   public TransitionFunction transitionFunction() {
+      return transitionFunction;
+   }
+
+   /**
+    * Final flags indexed by state code, only available for compiled transition functions.
+    */
+   boolean[] finalStateCodes() {
+      return finalStateCodes;
+   }
+
+   /**
+    * Code in the compiled function's alphabet of every symbol code of the machine alphabet,
+    * -1 for symbols no transition mentions. Only available for compiled transition functions.
+    */
+   int[] functionSymbolCodes() {
+      return functionSymbolCodes;
+   }
+
+   /**
+    * Generated step loop, or {@code null} if there is none.
+    */
+   MachineLoop loop() {
+      return loop;
+   }
+
+   /**
+    * Code in the machine alphabet of every symbol code of the compiled function's alphabet,
+    * -1 for symbols outside the machine alphabet. Only available for compiled transition
+    * functions.
+    */
+   int[] machineSymbolCodes() {
+      return machineSymbolCodes;
+   }
+}
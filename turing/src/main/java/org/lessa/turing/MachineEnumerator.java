@@ -0,0 +1,593 @@
+package org.lessa.turing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enumerates every machine with a given number of states and symbols, busy beaver style, and
+ * runs each one on a blank tape to find those that halt and the longest running among them.
+ * <p>
+ * Enumerated machines follow the busy beaver conventions rather than those of {@link Machine}:
+ * a single tape unbounded in both directions, blank symbol {@code 0}, initial state {@code A}
+ * and no final states, a machine halting when it meets a state and symbol without transition.
+ * As in the usual definitions of the step count S(n, m) and of the score Σ(n, m), the halting
+ * step is counted and assumed to write a {@code 1}.
+ * <p>
+ * Transition tables are int arrays with one packed transition per state and symbol, built in
+ * tree normal form: a machine starts with an empty table and runs until it meets an undefined
+ * transition, where it branches into the machine that halts there and one machine for every
+ * way of defining the transition. Branches resume from the configuration of their parent. A
+ * new transition may only introduce the lowest state and symbol not used yet, and the first
+ * one always moves right, so machines that only differ by the names of their states and
+ * symbols, or by mirroring, are enumerated once. Every enumerated machine stands for all the
+ * tables that agree with it on the transitions it uses.
+ * <p>
+ * Branches that cannot halt are pruned: a table without undefined transitions never halts,
+ * and neither does a machine that, past the visited part of the tape, keeps moving away from
+ * it through a cycle of states. Machines that neither halt nor are pruned within the step
+ * budget of the {@link RunLimits} are undecided; the time budget bounds the whole enumeration.
+ */
+public final class MachineEnumerator {
+
+   /**
+    * Enumerated machine that halts.
+    */
+   public static final class Candidate {
+
+      private final int haltSymbol;
+      private final int haltState;
+      private final long ones;
+      private final long steps;
+      private final int symbols;
+      private final int[] table;
+
+      private Candidate(int[] table, int symbols, int haltState, int haltSymbol, long steps,
+            long ones) {
+         this.haltSymbol = haltSymbol;
+         this.haltState = haltState;
+         this.ones = ones;
+         this.steps = steps;
+         this.symbols = symbols;
+         this.table = table;
+      }
+
+      /**
+       * Number of cells that hold a symbol other than blank when the machine halts.
+       *
+       * @return score of the machine
+       */
+      public long ones() {
+         return ones;
+      }
+
+      /**
+       * Number of steps the machine takes to halt, the halting step included.
+       *
+       * @return step count
+       */
+      public long steps() {
+         return steps;
+      }
+
+      /**
+       * Transition table in the usual busy beaver notation, such as
+       * {@code 1RB1LB_1LA1RZ}: states {@code A}, {@code B}, ... in order, separated by
+       * underscores, each with one transition per symbol made of the symbol to write, the
+       * move and the next state. The halting transition goes to state {@code Z} and unused
+       * transitions are {@code ---}.
+       */
+      @Override
+      public String toString() {
+         final StringBuilder notation = new StringBuilder(table.length * 3 + table.length
+               / symbols);
+         for (int pair = 0; pair < table.length; pair++) {
+            if (pair > 0 && pair % symbols == 0) {
+               notation.append('_');
+            }
+            final int transition = table[pair];
+            if (pair == haltState * symbols + haltSymbol) {
+               notation.append("1RZ");
+            }
+            else if (transition == UNDEFINED) {
+               notation.append("---");
+            }
+            else {
+               notation.append(write(transition))
+                     .append(right(transition) ? 'R' : 'L')
+                     .append((char) ('A' + next(transition)));
+            }
+         }
+         return notation.toString();
+      }
+
+      /**
+       * Whether this candidate beats another one with the same step count, or score, by
+       * comparing the other measure and then the notation, so that winners do not depend
+       * on the order of the enumeration.
+       */
+      private boolean beats(Candidate other, long mine, long theirs) {
+         if (mine != theirs) {
+            return mine > theirs;
+         }
+         return toString().compareTo(other.toString()) < 0;
+      }
+   }
+
+   /**
+    * Outcome of an enumeration.
+    */
+   public static final class Result {
+
+      private final boolean complete;
+      private final long halting;
+      private final SortedMap<Long, Long> haltingStepCounts;
+      private final Candidate longestRunning;
+      private final Candidate mostProductive;
+      private final long nonHalting;
+      private final long undecided;
+
+      private Result(Search search) {
+         final SortedMap<Long, Long> stepCounts = new TreeMap<>();
+         for (final Map.Entry<Long, LongAdder> e : search.stepCounts.entrySet()) {
+            stepCounts.put(e.getKey(), e.getValue().sum());
+         }
+         this.complete = !search.deadlineExceeded;
+         this.halting = search.halting.sum();
+         this.haltingStepCounts = Collections.unmodifiableSortedMap(stepCounts);
+         this.longestRunning = search.longestRunning.get();
+         this.mostProductive = search.mostProductive.get();
+         this.nonHalting = search.nonHalting.sum();
+         this.undecided = search.undecided.sum();
+      }
+
+      /**
+       * Whether every machine was enumerated, which is not the case when the time budget was
+       * exceeded.
+       *
+       * @return {@code true} if the enumeration finished
+       */
+      public boolean complete() {
+         return complete;
+      }
+
+      /**
+       * Number of enumerated machines that halt within the step budget.
+       *
+       * @return halting machine count
+       */
+      public long halting() {
+         return halting;
+      }
+
+      /**
+       * Number of halting machines for each step count.
+       *
+       * @return machine counts by step count, in ascending order of step count
+       */
+      public SortedMap<Long, Long> haltingStepCounts() {
+         return haltingStepCounts;
+      }
+
+      /**
+       * Halting machine with the most steps, and among those the highest score.
+       *
+       * @return longest running machine, or {@code null} if no machine halts
+       */
+      public Candidate longestRunning() {
+         return longestRunning;
+      }
+
+      /**
+       * Halting machine with the highest score, and among those the most steps.
+       *
+       * @return most productive machine, or {@code null} if no machine halts
+       */
+      public Candidate mostProductive() {
+         return mostProductive;
+      }
+
+      /**
+       * Number of enumerated machines pruned because they cannot halt.
+       *
+       * @return non-halting machine count
+       */
+      public long nonHalting() {
+         return nonHalting;
+      }
+
+      /**
+       * Number of enumerated machines still running when they ran out of steps.
+       *
+       * @return undecided machine count
+       */
+      public long undecided() {
+         return undecided;
+      }
+   }
+
+   /**
+    * Partially defined machine, paused on a state and symbol without transition. Cells are
+    * bytes of a tape array that grows both ways, of which only the range from {@code min} to
+    * {@code max} was visited.
+    */
+   private static final class Node {
+
+      private int defined;
+      private int head;
+      private int max;
+      private int min;
+      private long ones;
+      private int state;
+      private long steps;
+      private final int[] table;
+      private byte[] tape;
+      private int usedStates;
+      private int usedSymbols;
+
+      Node(int[] table, byte[] tape) {
+         this.head = tape.length / 2;
+         this.max = head;
+         this.min = head;
+         this.table = table;
+         this.tape = tape;
+         this.usedStates = 1;
+         this.usedSymbols = 1;
+      }
+
+      Node(Node other) {
+         this.defined = other.defined;
+         this.head = other.head;
+         this.max = other.max;
+         this.min = other.min;
+         this.ones = other.ones;
+         this.state = other.state;
+         this.steps = other.steps;
+         this.table = other.table.clone();
+         this.tape = other.tape.clone();
+         this.usedStates = other.usedStates;
+         this.usedSymbols = other.usedSymbols;
+      }
+   }
+
+   /**
+    * Progress of a single enumeration, shared by every task of a parallel one.
+    */
+   private static final class Search {
+
+      private final long deadline;
+      private volatile boolean deadlineExceeded;
+      private final LongAdder halting = new LongAdder();
+      private final AtomicReference<Candidate> longestRunning = new AtomicReference<>();
+      private final long maxSteps;
+      private final AtomicReference<Candidate> mostProductive = new AtomicReference<>();
+      private final LongAdder nonHalting = new LongAdder();
+      private final int states;
+      private final ConcurrentHashMap<Long, LongAdder> stepCounts = new ConcurrentHashMap<>();
+      private final int symbols;
+      private final LongAdder undecided = new LongAdder();
+
+      Search(int states, int symbols, RunLimits limits) {
+         this.deadline = limits.deadline();
+         this.maxSteps = limits.maxSteps();
+         this.states = states;
+         this.symbols = symbols;
+      }
+
+      /**
+       * Runs a machine until it halts, is pruned or runs out of steps, and adds the machines
+       * it branches into to the specified list.
+       */
+      void expand(Node node, List<Node> branches) {
+         if (deadlineExceeded) {
+            return;
+         }
+         if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+            deadlineExceeded = true;
+            return;
+         }
+         final int[] table = node.table;
+         byte[] tape = node.tape;
+         int head = node.head;
+         int max = node.max;
+         int min = node.min;
+         long ones = node.ones;
+         int state = node.state;
+         long steps = node.steps;
+
+         while (true) {
+            if (steps >= maxSteps) {
+               undecided.increment();
+               return;
+            }
+            if ((steps & RunLimits.DEADLINE_CHECK_MASK) == 0 && deadline != Long.MAX_VALUE
+                  && System.nanoTime() - deadline >= 0) {
+               deadlineExceeded = true;
+               return;
+            }
+            final int symbol = tape[head];
+            final int transition = table[state * symbols + symbol];
+            if (transition == UNDEFINED) {
+               break;
+            }
+            final int write = write(transition);
+            ones += (write == 0 ? 0 : 1) - (symbol == 0 ? 0 : 1);
+            tape[head] = (byte) write;
+            head += right(transition) ? 1 : -1;
+            state = next(transition);
+            steps++;
+            if (head > max || head < min) {
+               if (head < 0 || head == tape.length) {
+                  final int shift = tape.length / 2;
+                  final byte[] grown = new byte[tape.length * 2];
+                  System.arraycopy(tape, 0, grown, shift, tape.length);
+                  tape = grown;
+                  head += shift;
+                  max += shift;
+                  min += shift;
+               }
+               max = Math.max(max, head);
+               min = Math.min(min, head);
+               if (runsAway(table, state, right(transition))) {
+                  nonHalting.increment();
+                  return;
+               }
+            }
+         }
+
+         node.head = head;
+         node.max = max;
+         node.min = min;
+         node.ones = ones;
+         node.state = state;
+         node.steps = steps;
+         node.tape = tape;
+         branch(node, branches);
+      }
+
+      /**
+       * Counts the machine that halts on the undefined transition of a node, and adds the
+       * machines that define it to the specified list, the node itself being reused by the
+       * last of them.
+       */
+      private void branch(Node node, List<Node> branches) {
+         final int symbol = node.tape[node.head];
+         halted(node, symbol);
+
+         final int maxNext = Math.min(node.usedStates, states - 1);
+         final int maxWrite = Math.min(node.usedSymbols, symbols - 1);
+         // by mirror symmetry, the first transition moves right
+         final int firstMove = node.defined == 0 ? 1 : 0;
+         final int count = (maxNext + 1) * (maxWrite + 1) * (2 - firstMove);
+         if (node.defined == node.table.length - 1) {
+            nonHalting.add(count);
+            return;
+         }
+
+         final int pair = node.state * symbols + symbol;
+         int remaining = count;
+         for (int next = 0; next <= maxNext; next++) {
+            for (int write = 0; write <= maxWrite; write++) {
+               for (int move = firstMove; move < 2; move++) {
+                  final Node branch = --remaining == 0 ? node : new Node(node);
+                  branch.table[pair] = next << 8 | write << 1 | move;
+                  branch.defined++;
+                  branch.usedStates = Math.max(branch.usedStates, next + 1);
+                  branch.usedSymbols = Math.max(branch.usedSymbols, write + 1);
+                  branches.add(branch);
+               }
+            }
+         }
+      }
+
+      private void halted(Node node, int symbol) {
+         final long steps = node.steps + 1;
+         final long ones = node.ones + (symbol == 0 ? 1 : 0);
+         halting.increment();
+         LongAdder stepCount = stepCounts.get(steps);
+         if (stepCount == null) {
+            stepCount = stepCounts.computeIfAbsent(steps, s -> new LongAdder());
+         }
+         stepCount.increment();
+
+         final Candidate longest = longestRunning.get();
+         final Candidate productive = mostProductive.get();
+         if (longest != null && steps < longest.steps && productive != null
+               && ones < productive.ones) {
+            return;
+         }
+         final Candidate candidate = new Candidate(node.table.clone(), symbols, node.state,
+               symbol, steps, ones);
+         longestRunning.accumulateAndGet(candidate, (current, c) -> current == null
+               || c.steps > current.steps
+               || c.steps == current.steps && c.beats(current, c.ones, current.ones) ? c
+                     : current);
+         mostProductive.accumulateAndGet(candidate, (current, c) -> current == null
+               || c.ones > current.ones
+               || c.ones == current.ones && c.beats(current, c.steps, current.steps) ? c
+                     : current);
+      }
+
+      /**
+       * Whether a machine that just moved onto a blank cell beyond the visited part of the
+       * tape keeps moving the same way forever: its transitions on blank all move that way
+       * and lead back to a state already passed through.
+       */
+      private boolean runsAway(int[] table, int state, boolean right) {
+         int passed = 0;
+         while ((passed & 1 << state) == 0) {
+            passed |= 1 << state;
+            final int transition = table[state * symbols];
+            if (transition == UNDEFINED || right(transition) != right) {
+               return false;
+            }
+            state = next(transition);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Task that enumerates the machines a node branches into, forking a task for a branch
+    * whenever the pool runs short of queued work.
+    */
+   private static final class Subtree extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Node node;
+      private final Search search;
+
+      Subtree(Search search, Node node) {
+         this.node = node;
+         this.search = search;
+      }
+
+      @Override
+      protected void compute() {
+         final List<Subtree> forked = new ArrayList<>();
+         final List<Node> branches = new ArrayList<>();
+         final Deque<Node> pending = new ArrayDeque<>();
+         pending.push(node);
+         while (!pending.isEmpty()) {
+            search.expand(pending.pop(), branches);
+            for (int i = branches.size() - 1; i >= 0; i--) {
+               if (i > 0 && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                  final Subtree subtree = new Subtree(search, branches.get(i));
+                  subtree.fork();
+                  forked.add(subtree);
+               }
+               else {
+                  pending.push(branches.get(i));
+               }
+            }
+            branches.clear();
+         }
+         for (int i = forked.size() - 1; i >= 0; i--) {
+            forked.get(i).join();
+         }
+      }
+   }
+
+   /**
+    * Maximum number of states, named {@code A} to {@code Y} with {@code Z} for halting.
+    */
+   public static final int MAX_STATES = 25;
+
+   /**
+    * Maximum number of symbols, named {@code 0} to {@code 9}.
+    */
+   public static final int MAX_SYMBOLS = 10;
+
+   private static final int INITIAL_TAPE_LENGTH = 64;
+   private static final int SURPLUS_TASKS = 3;
+   private static final int UNDEFINED = -1;
+
+   private final ForkJoinPool pool;
+
+   private MachineEnumerator(ForkJoinPool pool) {
+      this.pool = pool;
+   }
+
+   /**
+    * Creates an enumerator that runs every machine on the calling thread.
+    *
+    * @return new enumerator
+    */
+   public static MachineEnumerator sequential() {
+      return new MachineEnumerator(null);
+   }
+
+   /**
+    * Creates an enumerator that runs machines in parallel on the common {@link ForkJoinPool}.
+    *
+    * @return new enumerator
+    */
+   public static MachineEnumerator workStealing() {
+      return workStealing(ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Creates an enumerator that runs machines in parallel on the specified pool, which it
+    * never shuts down.
+    *
+    * @param pool
+    *           pool that runs the machines, typically sized to the number of cores
+    * @return new enumerator
+    */
+   public static MachineEnumerator workStealing(ForkJoinPool pool) {
+      return new MachineEnumerator(pool);
+   }
+
+   private static int next(int transition) {
+      return transition >>> 8;
+   }
+
+   private static boolean right(int transition) {
+      return (transition & 1) != 0;
+   }
+
+   private static int write(int transition) {
+      return (transition >>> 1) & 0x7F;
+   }
+
+   /**
+    * Enumerates and runs every machine with the specified number of states and symbols.
+    *
+    * @param states
+    *           number of states, between 1 and {@link #MAX_STATES}
+    * @param symbols
+    *           number of symbols, blank included, between 2 and {@link #MAX_SYMBOLS}
+    * @param limits
+    *           bounded step budget of every machine, and time budget of the enumeration
+    * @return outcome of the enumeration
+    * @throws IllegalArgumentException
+    *            if the number of states or symbols is out of range, or the step budget is
+    *            unbounded
+    */
+   public Result enumerate(int states, int symbols, RunLimits limits) {
+      if (states < 1 || states > MAX_STATES) {
+         throw new IllegalArgumentException(
+               String.format("The number of states must be between 1 and %d.", MAX_STATES));
+      }
+      if (symbols < 2 || symbols > MAX_SYMBOLS) {
+         throw new IllegalArgumentException(
+               String.format("The number of symbols must be between 2 and %d.", MAX_SYMBOLS));
+      }
+      if (limits.maxSteps() == Long.MAX_VALUE) {
+         throw new IllegalArgumentException("The step budget must be bounded.");
+      }
+      final int[] table = new int[states * symbols];
+      Arrays.fill(table, UNDEFINED);
+      final Node root = new Node(table, new byte[INITIAL_TAPE_LENGTH]);
+      final Search search = new Search(states, symbols, limits);
+
+      if (pool == null) {
+         final List<Node> branches = new ArrayList<>();
+         final Deque<Node> pending = new ArrayDeque<>();
+         pending.push(root);
+         while (!pending.isEmpty()) {
+            search.expand(pending.pop(), branches);
+            for (int i = branches.size() - 1; i >= 0; i--) {
+               pending.push(branches.get(i));
+            }
+            branches.clear();
+         }
+      }
+      else {
+         pool.invoke(new Subtree(search, root));
+      }
+      return new Result(search);
+   }
+}
@@ -0,0 +1,341 @@
+package org.lessa.turing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches the configuration tree of a {@link NondeterministicMachine} for a branch that
+ * reaches one of its final states, and stops as soon as one does. Branches run on forks of
+ * {@link PersistentTape persistent tapes}, which only copy the chunks each branch changes.
+ * <p>
+ * A breadth-first explorer visits configurations level by level on the calling thread, so it
+ * finds the shortest accepting branch, if any, even when other branches never halt. A
+ * work-stealing explorer follows branches depth-first as tasks of a {@link ForkJoinPool}, and
+ * reports whichever accepting branch it finds first; since a branch that never halts can keep
+ * a worker busy forever, it is best used with a step budget.
+ * <p>
+ * Results are reported as {@link RunResult runs}: the step budget of the {@link RunLimits}
+ * bounds the length of every branch and the time budget bounds the whole search. The outcome
+ * is {@link RunResult.Outcome#HALTED} if a branch was accepted, and otherwise
+ * {@link RunResult.Outcome#DIVERGED} if every branch ran out of transitions, with branches
+ * that move a head beyond the start of a tape counted as such. Explorations do not notify
+ * events.
+ */
+public final class MachineExplorer {
+
+   /**
+    * Outcome of an exploration, with the tapes of the accepting branch.
+    */
+   public static final class Result {
+
+      private final long configurations;
+      private final RunResult result;
+      private final List<Tape> tapes;
+
+      private Result(RunResult result, List<Tape> tapes, long configurations) {
+         this.configurations = configurations;
+         this.result = result;
+         this.tapes = tapes;
+      }
+
+      /**
+       * Number of configurations visited by the search, the initial one included.
+       *
+       * @return configuration count
+       */
+      public long configurations() {
+         return configurations;
+      }
+
+      /**
+       * Outcome of the search, whose step count is the length of the accepting branch, or of
+       * the longest branch explored if none was accepted. The final state is {@code null}
+       * unless a branch was accepted.
+       *
+       * @return search result
+       */
+      public RunResult result() {
+         return result;
+      }
+
+      /**
+       * Tapes of the accepting branch, input tape first.
+       *
+       * @return final tapes, or an empty list if no branch was accepted
+       */
+      public List<Tape> tapes() {
+         return tapes;
+      }
+   }
+
+   /**
+    * State and tapes of one branch, after a number of steps.
+    */
+   private static final class Configuration {
+
+      private final String state;
+      private final long steps;
+      private final PersistentTape[] tapes;
+
+      Configuration(String state, long steps, PersistentTape[] tapes) {
+         this.state = state;
+         this.steps = steps;
+         this.tapes = tapes;
+      }
+   }
+
+   /**
+    * Progress of a single exploration, shared by every task of a parallel one.
+    */
+   private static final class Search {
+
+      private final AtomicReference<Configuration> accepted = new AtomicReference<>();
+      private final long deadline;
+      private volatile boolean deadlineExceeded;
+      private final LongAdder explored = new LongAdder();
+      private final RunLimits limits;
+      private final NondeterministicMachine machine;
+      private final LongAccumulator maxSteps = new LongAccumulator(Math::max, 0);
+      private volatile boolean stepBudgetExhausted;
+
+      Search(NondeterministicMachine machine, RunLimits limits) {
+         this.deadline = limits.deadline();
+         this.limits = limits;
+         this.machine = machine;
+      }
+
+      /**
+       * Whether the search goes on, which it does until a branch is accepted or the time
+       * budget is exceeded.
+       */
+      boolean running() {
+         return accepted.get() == null && !deadlineExceeded;
+      }
+
+      /**
+       * Counts a configuration as visited, and accepts it if it is in a final state. The
+       * clock is read every {@link RunLimits#DEADLINE_CHECK_MASK} + 1 visits of the caller,
+       * which counts its own visits: the shared count is summed while other tasks add to it,
+       * so it may skip every value the clock would be read at.
+       *
+       * @param visits
+       *           number of configurations the calling task or loop visited before this one
+       * @return {@code true} if the branch should go on
+       */
+      boolean visit(Configuration configuration, long visits) {
+         explored.increment();
+         maxSteps.accumulate(configuration.steps);
+         if (machine.finalStates().contains(configuration.state)) {
+            accepted.compareAndSet(null, configuration);
+            return false;
+         }
+         if (deadline != Long.MAX_VALUE
+               && (visits & RunLimits.DEADLINE_CHECK_MASK) == 0
+               && System.nanoTime() - deadline >= 0) {
+            deadlineExceeded = true;
+            return false;
+         }
+         if (configuration.steps >= limits.maxSteps()) {
+            stepBudgetExhausted = true;
+            return false;
+         }
+         return running();
+      }
+
+      Result result() {
+         final Configuration configuration = accepted.get();
+         if (configuration != null) {
+            return new Result(
+                  new RunResult(RunResult.Outcome.HALTED, configuration.steps,
+                        configuration.state),
+                  Collections.unmodifiableList(Arrays.asList(configuration.tapes)),
+                  explored.sum());
+         }
+         final RunResult.Outcome outcome = deadlineExceeded
+               ? RunResult.Outcome.DEADLINE_EXCEEDED
+               : stepBudgetExhausted ? RunResult.Outcome.STEP_BUDGET_EXHAUSTED
+                     : RunResult.Outcome.DIVERGED;
+         return new Result(new RunResult(outcome, maxSteps.get(), null),
+               Collections.emptyList(), explored.sum());
+      }
+   }
+
+   /**
+    * Task that follows one branch, forking a task for every other branch it meets.
+    */
+   private static final class Branch extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Configuration configuration;
+      private final Search search;
+
+      Branch(Search search, Configuration configuration) {
+         this.configuration = configuration;
+         this.search = search;
+      }
+
+      @Override
+      protected void compute() {
+         final List<Branch> forked = new ArrayList<>();
+         Configuration current = configuration;
+         long visits = 0;
+         while (current != null && search.visit(current, visits++)) {
+            final List<Configuration> next = successors(search.machine, current);
+            for (int i = 1; i < next.size(); i++) {
+               final Branch branch = new Branch(search, next.get(i));
+               branch.fork();
+               forked.add(branch);
+            }
+            current = next.isEmpty() ? null : next.get(0);
+         }
+         for (int i = forked.size() - 1; i >= 0; i--) {
+            forked.get(i).join();
+         }
+      }
+   }
+
+   private final ForkJoinPool pool;
+
+   private MachineExplorer(ForkJoinPool pool) {
+      this.pool = pool;
+   }
+
+   /**
+    * Creates an explorer that searches breadth-first on the calling thread.
+    *
+    * @return new explorer
+    */
+   public static MachineExplorer breadthFirst() {
+      return new MachineExplorer(null);
+   }
+
+   /**
+    * Creates an explorer that searches branches in parallel on the common
+    * {@link ForkJoinPool}.
+    *
+    * @return new explorer
+    */
+   public static MachineExplorer workStealing() {
+      return workStealing(ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Creates an explorer that searches branches in parallel on the specified pool, which it
+    * never shuts down.
+    *
+    * @param pool
+    *           pool that runs the branches, typically sized to the number of cores
+    * @return new explorer
+    */
+   public static MachineExplorer workStealing(ForkJoinPool pool) {
+      return new MachineExplorer(pool);
+   }
+
+   /**
+    * Explores the machine on an empty input tape.
+    *
+    * @param machine
+    *           machine to explore
+    * @param limits
+    *           bounds on the length of every branch and on the duration of the search
+    * @return outcome of the search
+    */
+   public Result explore(NondeterministicMachine machine, RunLimits limits) {
+      return explore(machine,
+            new PersistentTape(machine.blankSymbol(), machine.startSymbol()), limits);
+   }
+
+   /**
+    * Explores the machine on the specified input tape, which is copied and left untouched.
+    *
+    * @param machine
+    *           machine to explore
+    * @param input
+    *           input tape
+    * @param limits
+    *           bounds on the length of every branch and on the duration of the search
+    * @return outcome of the search
+    */
+   public Result explore(NondeterministicMachine machine, Tape input, RunLimits limits) {
+      final PersistentTape[] tapes = new PersistentTape[machine.numTapes()];
+      tapes[0] = PersistentTape.copyOf(input);
+      for (int i = 1; i < tapes.length; i++) {
+         tapes[i] = new PersistentTape(machine.blankSymbol(), machine.startSymbol());
+      }
+      final Configuration initial = new Configuration(machine.initialState(), 0, tapes);
+      final Search search = new Search(machine, limits);
+
+      if (pool == null) {
+         final Queue<Configuration> frontier = new ArrayDeque<>();
+         frontier.add(initial);
+         long visits = 0;
+         while (!frontier.isEmpty() && search.running()) {
+            final Configuration configuration = frontier.remove();
+            if (search.visit(configuration, visits++)) {
+               frontier.addAll(successors(machine, configuration));
+            }
+         }
+      }
+      else {
+         pool.invoke(new Branch(search, initial));
+      }
+      return search.result();
+   }
+
+   /**
+    * Configurations reached from the specified one by each allowed transition, in the order
+    * of the transitions. The last one takes over the tapes of the configuration, which must
+    * not be used afterwards; the others get forks of them.
+    */
+   private static List<Configuration> successors(NondeterministicMachine machine,
+         Configuration configuration) {
+      final PersistentTape[] tapes = configuration.tapes;
+      final List<Character> symbols = new ArrayList<>(tapes.length);
+      for (final PersistentTape tape : tapes) {
+         symbols.add(tape.read());
+      }
+      final List<Transition> transitions = machine.transitionFunction()
+            .apply(configuration.state, symbols);
+      if (transitions == null || transitions.isEmpty()) {
+         return Collections.emptyList();
+      }
+
+      final List<Configuration> successors = new ArrayList<>(transitions.size());
+      for (int t = 0; t < transitions.size(); t++) {
+         final Transition transition = transitions.get(t);
+         if (!movesWithinTapes(tapes, transition.moves())) {
+            continue;
+         }
+         final PersistentTape[] next = t == transitions.size() - 1 ? tapes
+               : new PersistentTape[tapes.length];
+         for (int i = 0; i < tapes.length; i++) {
+            if (next != tapes) {
+               next[i] = tapes[i].fork();
+            }
+            next[i].writeChar(transition.outputs().get(i));
+            next[i].move(transition.moves().get(i));
+         }
+         successors.add(new Configuration(transition.state(), configuration.steps + 1, next));
+      }
+      return successors;
+   }
+
+   private static boolean movesWithinTapes(PersistentTape[] tapes, List<Move> moves) {
+      for (int i = 0; i < tapes.length; i++) {
+         if (moves.get(i) == Move.LEFT && tapes[i].currentIndex() == 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
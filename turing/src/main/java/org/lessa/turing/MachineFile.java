@@ -0,0 +1,895 @@
+package org.lessa.turing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reads and writes complete machine definitions, in a compact text format or a binary one,
+ * so that machines can be stored and loaded without writing any code. Definitions are read
+ * into a {@link MachineBuilder} with everything but run options set, and transitions are
+ * decoded straight into a {@link CompiledTransitionFunction}: every transition is placed in
+ * the table as soon as it is read, and transitions that write the same symbols and move the
+ * same way share their arrays, so a transition costs one small object.
+ * <p>
+ * The text format has one declaration per line, with tokens separated by blanks, followed
+ * by the transitions, one per line:
+ *
+ * <pre>
+ * # unary successor
+ * tapes 1
+ * blank _
+ * start &gt;
+ * alphabet 1
+ * input 1
+ * states q0 q1 q2 H
+ * initial q0
+ * final H
+ * tape 111
+ * transitions
+ * q0 &gt; &gt; R q1
+ * q1 1 1 R q1
+ * q1 _ 1 L q2
+ * q2 1 1 L q2
+ * q2 &gt; &gt; N H
+ * </pre>
+ *
+ * Declarations may come in any order, and all but {@code states} and {@code transitions} are
+ * optional: a single tape, the {@link Machine#DEFAULT_BLANK_SYMBOL default blank} and
+ * {@link Machine#DEFAULT_START_SYMBOL start} symbols and an empty input tape are assumed.
+ * The {@code tape} declaration holds the cells of the input tape after the start symbol. A
+ * transition lists the current state, the symbols under the heads, the symbols to write and
+ * the moves, one character per tape each, with moves {@code L}, {@code N} and {@code R}, and
+ * then the next state. Lines starting with {@code #} are comments, and symbols cannot be
+ * blanks.
+ * <p>
+ * The binary format holds the same declarations, symbols being written as chars and states
+ * as modified UTF-8, and then the transitions as codes: states by their position in the
+ * states declaration, symbols by their code in the machine {@link Alphabet} and moves by
+ * ordinal.
+ */
+public final class MachineFile {
+
+   /**
+    * Transition that writes some symbols and moves the heads some way, from which the arrays
+    * and lists shared by all such transitions are created.
+    */
+   private static final class Action implements Transition {
+
+      private final List<Move> moves;
+      private final List<Character> outputs;
+      private final String state;
+
+      Action(Alphabet alphabet, int[] writes, int[] moves, String state) {
+         final Character[] outputs = new Character[writes.length];
+         final Move[] directions = new Move[moves.length];
+         for (int i = 0; i < writes.length; i++) {
+            outputs[i] = alphabet.boxed(writes[i]);
+            directions[i] = MOVES[moves[i]];
+         }
+         this.moves = Collections.unmodifiableList(Arrays.asList(directions));
+         this.outputs = Collections.unmodifiableList(Arrays.asList(outputs));
+         this.state = state;
+      }
+
+      @Override
+      public List<Move> moves() {
+         return moves;
+      }
+
+      @Override
+      public List<Character> outputs() {
+         return outputs;
+      }
+
+      @Override
+      public String state() {
+         return state;
+      }
+   }
+
+   /**
+    * Declarations of a machine, everything but its transitions.
+    */
+   private static final class Header {
+
+      private final List<Character> alphabet = new ArrayList<>();
+      private char blank = Machine.DEFAULT_BLANK_SYMBOL;
+      private final List<String> finalStates = new ArrayList<>();
+      private String initialState;
+      private final List<Character> inputSymbols = new ArrayList<>();
+      private int numTapes = 1;
+      private char start = Machine.DEFAULT_START_SYMBOL;
+      private final List<String> states = new ArrayList<>();
+      private char[] tape = new char[0];
+
+      /**
+       * Machine alphabet, with the blank and start symbols, whose codes transitions use.
+       */
+      Alphabet alphabet() {
+         final Set<Character> symbols = new HashSet<>(alphabet);
+         symbols.add(blank);
+         symbols.add(start);
+         return new Alphabet(symbols);
+      }
+
+      MachineBuilder builder(CompiledTransitionFunction function) {
+         final ArrayTape input = ArrayTape.withCapacity(blank, start, tape.length + 1);
+         if (tape.length > 0) {
+            input.restore(0, 1, tape);
+         }
+         return new MachineBuilder().withAlphabetSymbols(alphabet.toArray(new Character[0]))
+               .withBlankSymbol(blank)
+               .withStartSymbol(start)
+               .withInputSymbols(inputSymbols.toArray(new Character[0]))
+               .withStates(states.toArray(new String[0]))
+               .withInitialState(initialState)
+               .withFinalStates(finalStates.toArray(new String[0]))
+               .withMoreTapes(numTapes - 1)
+               .withInputTape(input)
+               .withTransitionFunction(function);
+      }
+   }
+
+   /**
+    * Line of the text format, split into tokens without copying them.
+    */
+   private static final class Line {
+
+      private int count;
+      private int[] ends = new int[8];
+      private int number;
+      private int[] starts = new int[8];
+      private String text;
+
+      IOException error(String format, Object... args) {
+         return new IOException(String.format("Line %d: %s", number, String.format(format,
+               args)));
+      }
+
+      boolean read(BufferedReader reader) throws IOException {
+         text = reader.readLine();
+         if (text == null) {
+            return false;
+         }
+         number++;
+         count = 0;
+         final int length = text.length();
+         int ix = 0;
+         while (ix < length) {
+            while (ix < length && Character.isWhitespace(text.charAt(ix))) {
+               ix++;
+            }
+            if (ix == length) {
+               break;
+            }
+            if (count == starts.length) {
+               starts = Arrays.copyOf(starts, count * 2);
+               ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = ix;
+            while (ix < length && !Character.isWhitespace(text.charAt(ix))) {
+               ix++;
+            }
+            ends[count++] = ix;
+         }
+         return true;
+      }
+
+      /**
+       * Whether the line has no tokens or is a comment.
+       */
+      boolean blank() {
+         return count == 0 || text.charAt(starts[0]) == '#';
+      }
+
+      char symbol(int token) throws IOException {
+         if (ends[token] - starts[token] != 1) {
+            throw error("Expected a single symbol but found '%s'.", token(token));
+         }
+         return text.charAt(starts[token]);
+      }
+
+      void symbols(int from, List<Character> symbols) throws IOException {
+         for (int token = from; token < count; token++) {
+            symbols.add(symbol(token));
+         }
+      }
+
+      String token(int token) {
+         return text.substring(starts[token], ends[token]);
+      }
+
+      void tokens(int from, List<String> tokens) {
+         for (int token = from; token < count; token++) {
+            tokens.add(token(token));
+         }
+      }
+   }
+
+   /**
+    * Compiled table under construction, filled one transition at a time from codes.
+    */
+   private static final class Table {
+
+      private final Map<Long, CompiledTransition> actions = new HashMap<>();
+      private final Alphabet alphabet;
+      private int count;
+      private int lastState = -1;
+      private final int numTapes;
+      private final boolean shared;
+      private final Map<String, Integer> stateCodes;
+      private final String[] states;
+      private final int stride;
+      private final CompiledTransition[] table;
+      private CompiledTransition[] transitions = new CompiledTransition[16];
+
+      Table(Alphabet alphabet, List<String> states, int numTapes) throws IOException {
+         this.alphabet = alphabet;
+         this.numTapes = numTapes;
+         this.states = states.toArray(new String[0]);
+         this.stateCodes = new HashMap<>(this.states.length * 4 / 3 + 1);
+         for (int code = 0; code < this.states.length; code++) {
+            if (stateCodes.putIfAbsent(this.states[code], code) != null) {
+               throw new IOException(
+                     String.format("Duplicate state '%s'.", this.states[code]));
+            }
+         }
+         long stride = 1;
+         for (int i = 0; i < numTapes && stride <= MAX_TABLE_SIZE; i++) {
+            stride *= alphabet.size();
+         }
+         if (stride > MAX_TABLE_SIZE || stride * this.states.length > MAX_TABLE_SIZE) {
+            throw new IOException(String.format(
+                  "The compiled table for %d states, %d symbols and %d tapes is too large.",
+                  this.states.length, alphabet.size(), numTapes));
+         }
+         this.stride = (int) stride;
+         this.table = new CompiledTransition[this.stride * this.states.length];
+         // actions are keyed by their outputs and moves when every combination fits a long
+         final int bits = 64 - Long.numberOfLeadingZeros(alphabet.size() * 3L);
+         this.shared = (long) bits * numTapes < Long.SIZE;
+      }
+
+      /**
+       * Adds a transition.
+       *
+       * @return {@code false} if the function is already defined for the state and symbols
+       */
+      boolean add(int state, int[] reads, int[] writes, int[] moves, int next) {
+         int index = state;
+         for (int i = 0; i < numTapes; i++) {
+            index = index * alphabet.size() + reads[i];
+         }
+         if (table[index] != null) {
+            return false;
+         }
+         boolean repeats = state == next;
+         long key = 0;
+         for (int i = 0; i < numTapes; i++) {
+            repeats &= reads[i] == writes[i];
+            key = key * alphabet.size() * 3 + writes[i] * 3 + moves[i];
+         }
+         final CompiledTransition action = shared ? actions.get(key) : null;
+         final CompiledTransition transition;
+         if (action == null) {
+            transition = new CompiledTransition(count,
+                  new Action(alphabet, writes, moves, states[next]), next, repeats, alphabet);
+            if (shared) {
+               actions.put(key, transition);
+            }
+         }
+         else {
+            transition = new CompiledTransition(count, action, states[next], next, repeats);
+         }
+         if (count == transitions.length) {
+            transitions = Arrays.copyOf(transitions, count * 2);
+         }
+         transitions[count++] = transition;
+         table[index] = transition;
+         return true;
+      }
+
+      CompiledTransitionFunction function() {
+         return new CompiledTransitionFunction(alphabet, numTapes, stride, stateCodes, states,
+               table, Arrays.copyOf(transitions, count));
+      }
+
+      /**
+       * Code of the state named by a range of a string. Transitions from a state are usually
+       * listed together, so the last state found is checked first, without copying the name.
+       *
+       * @return state code, or -1 if the state was not declared
+       */
+      int stateCode(String text, int start, int end) {
+         final int length = end - start;
+         if (lastState >= 0 && states[lastState].length() == length
+               && text.regionMatches(start, states[lastState], 0, length)) {
+            return lastState;
+         }
+         final Integer code = stateCodes.get(text.substring(start, end));
+         if (code == null) {
+            return -1;
+         }
+         lastState = code;
+         return code;
+      }
+   }
+
+   private static final int BUFFER_SIZE = 1 << 16;
+   private static final int MAGIC = 0x544D4446;
+   private static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
+   // a table of two symbols, blank and start, cannot hold more tapes
+   private static final int MAX_TAPES = Integer.SIZE - 2;
+   private static final String MOVE_CODES = "LNR";
+   private static final Move[] MOVES = Move.values();
+   private static final String TAPES_RANGE =
+         "The number of tapes must be between 1 and " + MAX_TAPES + ".";
+   private static final short VERSION = 1;
+
+   private MachineFile() {
+   }
+
+   /**
+    * Reads a machine definition from a file in either format, telling them apart by the
+    * first bytes of the file. Text files are read as UTF-8.
+    *
+    * @param path
+    *           machine definition file
+    * @return builder set up with the machine definition and input tape
+    * @throws IOException
+    *            if the file cannot be read or does not hold a valid definition
+    */
+   public static MachineBuilder load(Path path) throws IOException {
+      final long size = Files.size(path);
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+         in.mark(Integer.BYTES);
+         int magic = 0;
+         int read = 0;
+         for (int b; read < Integer.BYTES && (b = in.read()) >= 0; read++) {
+            magic = magic << 8 | b;
+         }
+         in.reset();
+         final boolean binary = read == Integer.BYTES && magic == MAGIC;
+         return binary ? readBinary(in, size)
+               : readText(new InputStreamReader(in, StandardCharsets.UTF_8));
+      }
+   }
+
+   /**
+    * Reads a machine definition written by
+    * {@link #writeBinary(MachineDefinition, Tape, OutputStream)}. The stream is left open.
+    *
+    * @param in
+    *           source of the definition
+    * @return builder set up with the machine definition and input tape
+    * @throws IOException
+    *            if the stream cannot be read or does not hold a valid definition
+    */
+   public static MachineBuilder readBinary(InputStream in) throws IOException {
+      return readBinary(in, Long.MAX_VALUE);
+   }
+
+   /**
+    * Reads a machine definition in the binary format from a source of known size. Counts
+    * read from the source are checked against it, and arrays only grow as their elements are
+    * read, so a corrupt count fails with an {@link IOException} rather than an allocation.
+    */
+   private static MachineBuilder readBinary(InputStream in, long size) throws IOException {
+      final DataInputStream data = new DataInputStream(new BufferedInputStream(in,
+            BUFFER_SIZE));
+      if (data.readInt() != MAGIC || data.readShort() != VERSION) {
+         throw new IOException("Not a machine definition.");
+      }
+      final Header header = new Header();
+      header.numTapes = data.readInt();
+      if (!validTapes(header.numTapes)) {
+         throw new IOException(TAPES_RANGE);
+      }
+      header.blank = data.readChar();
+      header.start = data.readChar();
+      readSymbols(data, size, header.alphabet);
+      readSymbols(data, size, header.inputSymbols);
+      // a state name takes at least its two length bytes
+      final int numStates = readCount(data, size / Short.BYTES, "states");
+      for (int code = 0; code < numStates; code++) {
+         header.states.add(data.readUTF());
+      }
+      header.initialState = header.states.get(readStateCode(data, numStates));
+      final int numFinalStates = readCount(data, numStates, "final states");
+      for (int i = 0; i < numFinalStates; i++) {
+         header.finalStates.add(header.states.get(readStateCode(data, numStates)));
+      }
+      final int length = readCount(data, Math.min(MAX_TABLE_SIZE, size / Character.BYTES),
+            "tape cells");
+      header.tape = new char[Math.min(length, BUFFER_SIZE)];
+      for (int ix = 0; ix < length; ix++) {
+         if (ix == header.tape.length) {
+            header.tape = Arrays.copyOf(header.tape, (int) Math.min(length, 2L * ix));
+         }
+         header.tape[ix] = data.readChar();
+      }
+
+      final Alphabet alphabet = header.alphabet();
+      final Table table = new Table(alphabet, header.states, header.numTapes);
+      final boolean wide = alphabet.size() > Alphabet.MAX_BYTE_CODES;
+      final int[] reads = new int[header.numTapes];
+      final int[] writes = new int[header.numTapes];
+      final int[] moves = new int[header.numTapes];
+      // transitions are fixed-width records, read whole rather than field by field
+      final ByteBuffer record = ByteBuffer.allocate(
+            2 * Integer.BYTES + header.numTapes * ((wide ? 4 : 2) + 1));
+      final int numTransitions = readCount(data, size / record.capacity(), "transitions");
+      for (int t = 0; t < numTransitions; t++) {
+         data.readFully(record.array());
+         record.clear();
+         final int state = record.getInt();
+         for (int i = 0; i < reads.length; i++) {
+            reads[i] = wide ? record.getShort() & 0xFFFF : record.get() & 0xFF;
+         }
+         for (int i = 0; i < writes.length; i++) {
+            writes[i] = wide ? record.getShort() & 0xFFFF : record.get() & 0xFF;
+         }
+         for (int i = 0; i < moves.length; i++) {
+            moves[i] = record.get() & 0xFF;
+         }
+         final int next = record.getInt();
+         if (!valid(state, numStates) || !valid(next, numStates)
+               || !valid(reads, alphabet.size()) || !valid(writes, alphabet.size())
+               || !valid(moves, MOVES.length)) {
+            throw new IOException(String.format("Transition %d is out of range.", t));
+         }
+         if (!table.add(state, reads, writes, moves, next)) {
+            throw new IOException(String.format("Transition %d is defined twice.", t));
+         }
+      }
+      return header.builder(table.function());
+   }
+
+   /**
+    * Reads a machine definition in the text format. The reader is left open.
+    *
+    * @param in
+    *           source of the definition
+    * @return builder set up with the machine definition and input tape
+    * @throws IOException
+    *            if the reader fails or does not hold a valid definition
+    */
+   public static MachineBuilder readText(Reader in) throws IOException {
+      final BufferedReader reader = new BufferedReader(in, BUFFER_SIZE);
+      final Header header = new Header();
+      final Line line = new Line();
+      Table table = null;
+      int[] reads = null;
+      int[] writes = null;
+      int[] moves = null;
+
+      while (line.read(reader)) {
+         if (line.blank()) {
+            continue;
+         }
+         if (table != null) {
+            if (line.count != 5) {
+               throw line.error("Expected 'state reads writes moves next' but found '%s'.",
+                     line.text.trim());
+            }
+            final int state = stateCode(line, table, 0);
+            codes(line, 1, table.alphabet, reads);
+            codes(line, 2, table.alphabet, writes);
+            moves(line, 3, moves);
+            final int next = stateCode(line, table, 4);
+            if (!table.add(state, reads, writes, moves, next)) {
+               throw line.error("The transition from '%s' on '%s' is defined twice.",
+                     line.token(0), line.token(1));
+            }
+            continue;
+         }
+
+         final String keyword = line.token(0);
+         switch (keyword) {
+            case "alphabet":
+               line.symbols(1, header.alphabet);
+               break;
+            case "blank":
+               requireTokens(line, 2);
+               header.blank = line.symbol(1);
+               break;
+            case "final":
+               line.tokens(1, header.finalStates);
+               break;
+            case "initial":
+               requireTokens(line, 2);
+               header.initialState = line.token(1);
+               break;
+            case "input":
+               line.symbols(1, header.inputSymbols);
+               break;
+            case "start":
+               requireTokens(line, 2);
+               header.start = line.symbol(1);
+               break;
+            case "states":
+               line.tokens(1, header.states);
+               break;
+            case "tape":
+               if (line.count > 1) {
+                  requireTokens(line, 2);
+                  header.tape = line.token(1).toCharArray();
+               }
+               break;
+            case "tapes":
+               requireTokens(line, 2);
+               try {
+                  header.numTapes = Integer.parseInt(line.token(1));
+               }
+               catch (final NumberFormatException nfe) {
+                  throw line.error("Invalid number of tapes '%s'.", line.token(1));
+               }
+               if (!validTapes(header.numTapes)) {
+                  throw line.error(TAPES_RANGE);
+               }
+               break;
+            case "transitions":
+               table = new Table(header.alphabet(), header.states, header.numTapes);
+               reads = new int[header.numTapes];
+               writes = new int[header.numTapes];
+               moves = new int[header.numTapes];
+               break;
+            default:
+               throw line.error("Unknown declaration '%s'.", keyword);
+         }
+      }
+      if (table == null) {
+         throw new IOException("Missing 'transitions' declaration.");
+      }
+      return header.builder(table.function());
+   }
+
+   /**
+    * Writes a machine definition in the binary format. The stream is left open.
+    *
+    * @param definition
+    *           definition with a compiled transition function
+    * @param input
+    *           input tape, whose cells after the start symbol are written, or {@code null}
+    *           for an empty one
+    * @param out
+    *           destination of the definition
+    * @throws IOException
+    *            if the stream cannot be written
+    * @throws IllegalArgumentException
+    *            if the transition function of the definition is not compiled
+    */
+   public static void writeBinary(MachineDefinition definition, Tape input, OutputStream out)
+         throws IOException {
+      final CompiledTransitionFunction function = compiled(definition);
+      final List<String> states = new ArrayList<>(new TreeSet<>(definition.states()));
+      final Map<String, Integer> stateCodes = new HashMap<>();
+      for (int code = 0; code < states.size(); code++) {
+         stateCodes.put(states.get(code), code);
+      }
+      final Alphabet alphabet = definition.alphabet();
+      final boolean wide = alphabet.size() > Alphabet.MAX_BYTE_CODES;
+
+      final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out,
+            BUFFER_SIZE));
+      data.writeInt(MAGIC);
+      data.writeShort(VERSION);
+      data.writeInt(definition.numTapes());
+      data.writeChar(definition.blankSymbol());
+      data.writeChar(definition.startSymbol());
+      writeSymbols(data, alphabetSymbols(definition));
+      writeSymbols(data, new TreeSet<>(definition.inputSymbols()));
+      data.writeInt(states.size());
+      for (final String state : states) {
+         data.writeUTF(state);
+      }
+      data.writeInt(stateCodes.get(definition.initialState()));
+      data.writeInt(definition.finalStates().size());
+      for (final String state : new TreeSet<>(definition.finalStates())) {
+         data.writeInt(stateCodes.get(state));
+      }
+      final char[] cells = cells(input);
+      data.writeInt(cells.length);
+      for (final char cell : cells) {
+         data.writeChar(cell);
+      }
+
+      final int[] sources = sources(function);
+      final int numTapes = function.numTapes();
+      final int stride = stride(function);
+      final Alphabet symbols = function.alphabet();
+      final int[] reads = new int[numTapes];
+      data.writeInt(sources.length);
+      for (int id = 0; id < sources.length; id++) {
+         final CompiledTransition transition = function.transition(id);
+         data.writeInt(stateCodes.get(function.state(sources[id] / stride)));
+         int encoded = sources[id] % stride;
+         for (int i = numTapes - 1; i >= 0; i--) {
+            reads[i] = alphabet.code(symbols.symbol(encoded % symbols.size()));
+            encoded /= symbols.size();
+         }
+         for (final int code : reads) {
+            writeCode(data, code, wide);
+         }
+         for (int i = 0; i < numTapes; i++) {
+            writeCode(data, alphabet.code(transition.outputSymbols[i]), wide);
+         }
+         for (int i = 0; i < numTapes; i++) {
+            data.writeByte(transition.directions[i].ordinal());
+         }
+         data.writeInt(stateCodes.get(transition.state()));
+      }
+      data.flush();
+   }
+
+   /**
+    * Writes a machine definition in the text format. The writer is left open.
+    *
+    * @param definition
+    *           definition with a compiled transition function
+    * @param input
+    *           input tape, whose cells after the start symbol are written, or {@code null}
+    *           for an empty one
+    * @param out
+    *           destination of the definition
+    * @throws IOException
+    *            if the writer fails
+    * @throws IllegalArgumentException
+    *            if the transition function of the definition is not compiled, a symbol is
+    *            blank, or a state name is empty, holds blanks or starts with {@code #}
+    */
+   public static void writeText(MachineDefinition definition, Tape input, Writer out)
+         throws IOException {
+      final CompiledTransitionFunction function = compiled(definition);
+      final Set<Character> alphabet = alphabetSymbols(definition);
+      for (final Character symbol : definition.alphabetSymbols()) {
+         if (Character.isWhitespace(symbol)) {
+            throw new IllegalArgumentException(String.format(
+                  "Symbol '%s' cannot be written in the text format.", symbol));
+         }
+      }
+      for (final String state : definition.states()) {
+         if (state.isEmpty() || state.charAt(0) == '#'
+               || state.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException(String.format(
+                  "State '%s' cannot be written in the text format.", state));
+         }
+      }
+
+      final StringBuilder text = new StringBuilder();
+      text.append("tapes ").append(definition.numTapes()).append('\n');
+      text.append("blank ").append(definition.blankSymbol()).append('\n');
+      text.append("start ").append(definition.startSymbol()).append('\n');
+      append(text.append("alphabet"), alphabet).append('\n');
+      append(text.append("input"), new TreeSet<>(definition.inputSymbols())).append('\n');
+      append(text.append("states"), new TreeSet<>(definition.states())).append('\n');
+      text.append("initial ").append(definition.initialState()).append('\n');
+      append(text.append("final"), new TreeSet<>(definition.finalStates())).append('\n');
+      final char[] cells = cells(input);
+      if (cells.length > 0) {
+         text.append("tape ").append(cells).append('\n');
+      }
+      text.append("transitions\n");
+      out.append(text);
+
+      final int[] sources = sources(function);
+      final int numTapes = function.numTapes();
+      final int stride = stride(function);
+      final Alphabet symbols = function.alphabet();
+      final char[] reads = new char[numTapes];
+      for (int id = 0; id < sources.length; id++) {
+         final CompiledTransition transition = function.transition(id);
+         text.setLength(0);
+         text.append(function.state(sources[id] / stride)).append(' ');
+         int encoded = sources[id] % stride;
+         for (int i = numTapes - 1; i >= 0; i--) {
+            reads[i] = symbols.symbol(encoded % symbols.size());
+            encoded /= symbols.size();
+         }
+         text.append(reads).append(' ').append(transition.outputSymbols).append(' ');
+         for (int i = 0; i < numTapes; i++) {
+            text.append(MOVE_CODES.charAt(transition.directions[i].ordinal()));
+         }
+         text.append(' ').append(transition.state()).append('\n');
+         out.append(text);
+      }
+      out.flush();
+   }
+
+   /**
+    * Alphabet symbols of a definition, without the blank and start symbols that every
+    * definition has.
+    */
+   private static Set<Character> alphabetSymbols(MachineDefinition definition) {
+      final Set<Character> symbols = new TreeSet<>(definition.alphabetSymbols());
+      symbols.remove(definition.blankSymbol());
+      symbols.remove(definition.startSymbol());
+      return symbols;
+   }
+
+   private static StringBuilder append(StringBuilder text, Set<?> tokens) {
+      for (final Object token : tokens) {
+         text.append(' ').append(token);
+      }
+      return text;
+   }
+
+   /**
+    * Cells of an input tape after the start symbol, up to the last one used.
+    */
+   private static char[] cells(Tape input) {
+      if (input == null || input.maxUsedIndex() < 1) {
+         return new char[0];
+      }
+      final char[] cells = new char[input.maxUsedIndex()];
+      input.getChars(1, input.maxUsedIndex() + 1, cells, 0);
+      return cells;
+   }
+
+   private static void codes(Line line, int token, Alphabet alphabet, int[] codes)
+         throws IOException {
+      if (line.ends[token] - line.starts[token] != codes.length) {
+         throw line.error("Expected %d symbols but found '%s'.", codes.length,
+               line.token(token));
+      }
+      for (int i = 0; i < codes.length; i++) {
+         final char symbol = line.text.charAt(line.starts[token] + i);
+         codes[i] = alphabet.code(symbol);
+         if (codes[i] < 0) {
+            throw line.error("Symbol '%s' is not part of the alphabet.", symbol);
+         }
+      }
+   }
+
+   private static CompiledTransitionFunction compiled(MachineDefinition definition) {
+      if (!(definition.transitionFunction() instanceof CompiledTransitionFunction)) {
+         throw new IllegalArgumentException(
+               "Only definitions with a compiled transition function can be written.");
+      }
+      return (CompiledTransitionFunction) definition.transitionFunction();
+   }
+
+   private static void moves(Line line, int token, int[] moves) throws IOException {
+      if (line.ends[token] - line.starts[token] != moves.length) {
+         throw line.error("Expected %d moves but found '%s'.", moves.length,
+               line.token(token));
+      }
+      for (int i = 0; i < moves.length; i++) {
+         final char move = line.text.charAt(line.starts[token] + i);
+         moves[i] = MOVE_CODES.indexOf(move);
+         if (moves[i] < 0) {
+            throw line.error("Invalid move '%s', expected one of L, N and R.", move);
+         }
+      }
+   }
+
+   /**
+    * Reads a count, which must not be negative nor exceed a bound derived from what the
+    * source can hold.
+    */
+   private static int readCount(DataInputStream data, long max, String what)
+         throws IOException {
+      final int count = data.readInt();
+      if (count < 0 || count > max) {
+         throw new IOException(String.format("Invalid number of %s %d.", what, count));
+      }
+      return count;
+   }
+
+   private static int readStateCode(DataInputStream data, int numStates) throws IOException {
+      final int code = data.readInt();
+      if (!valid(code, numStates)) {
+         throw new IOException(String.format("State code %d is out of range.", code));
+      }
+      return code;
+   }
+
+   private static void readSymbols(DataInputStream data, long size, List<Character> symbols)
+         throws IOException {
+      final int count = readCount(data,
+            Math.min(Character.MAX_VALUE + 1, size / Character.BYTES), "symbols");
+      for (int i = 0; i < count; i++) {
+         symbols.add(data.readChar());
+      }
+   }
+
+   /**
+    * Checks that a declaration has the specified number of tokens, keyword included.
+    */
+   private static void requireTokens(Line line, int count) throws IOException {
+      if (line.count != count) {
+         throw line.error("Expected %d values for '%s' but found %d.", count - 1,
+               line.token(0), line.count - 1);
+      }
+   }
+
+   /**
+    * Table index of every transition of a function, by transition id.
+    */
+   private static int[] sources(CompiledTransitionFunction function) {
+      final int stride = stride(function);
+      final int[] sources = new int[function.transitionCount()];
+      for (int state = 0; state < function.stateCount(); state++) {
+         for (int symbols = 0; symbols < stride; symbols++) {
+            final CompiledTransition transition = function.apply(state, symbols);
+            if (transition != null) {
+               sources[transition.id] = state * stride + symbols;
+            }
+         }
+      }
+      return sources;
+   }
+
+   private static int stateCode(Line line, Table table, int token) throws IOException {
+      final int code = table.stateCode(line.text, line.starts[token], line.ends[token]);
+      if (code < 0) {
+         throw line.error("Unknown state '%s'.", line.token(token));
+      }
+      return code;
+   }
+
+   private static int stride(CompiledTransitionFunction function) {
+      int stride = 1;
+      for (int i = 0; i < function.numTapes(); i++) {
+         stride *= function.alphabet().size();
+      }
+      return stride;
+   }
+
+   private static boolean valid(int code, int size) {
+      return code >= 0 && code < size;
+   }
+
+   private static boolean valid(int[] codes, int size) {
+      for (final int code : codes) {
+         if (!valid(code, size)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean validTapes(int numTapes) {
+      return numTapes >= 1 && numTapes <= MAX_TAPES;
+   }
+
+   private static void writeCode(DataOutputStream data, int code, boolean wide)
+         throws IOException {
+      if (wide) {
+         data.writeShort(code);
+      }
+      else {
+         data.writeByte(code);
+      }
+   }
+
+   private static void writeSymbols(DataOutputStream data, Set<Character> symbols)
+         throws IOException {
+      data.writeInt(symbols.size());
+      for (final char symbol : symbols) {
+         data.writeChar(symbol);
+      }
+   }
+}
@@ -0,0 +1,30 @@
+package org.lessa.turing;
+
+/**
+ * Step loop of a single-tape machine, specialized to one transition function by
+ * {@link MachineClassGenerator}. Generated classes live in their own class loader, which is
+ * why this interface is public; it is not meant to be implemented or called elsewhere.
+ */
+public interface MachineLoop {
+
+   /**
+    * Runs the machine from the specified state until it reaches a final state, has no
+    * transition for the symbol under the head, or exceeds a limit.
+    *
+    * @param tape
+    *           the only tape of the machine
+    * @param state
+    *           code of the state to start from
+    * @param counters
+    *           array holding the number of steps taken so far, updated with the number of
+    *           steps taken when the loop returns; loops generated with metrics also add the
+    *           hits of the transition with id {@code i} to element {@code i + 1}
+    * @param maxSteps
+    *           step budget, see {@link RunLimits#maxSteps()}
+    * @param deadline
+    *           {@link System#nanoTime()} deadline, or {@link Long#MAX_VALUE} if there is none
+    * @return code of the state the loop stopped in, complemented with {@code ~} if the loop
+    *         stopped because no transition applies
+    */
+   int run(Tape tape, int state, long[] counters, long maxSteps, long deadline);
+}
@@ -0,0 +1,131 @@
+package org.lessa.turing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the metrics of a machine, over every run it performed so far, see
+ * {@link MachineBuilder#withMetrics(boolean)}. Macro steps count as many times as the steps
+ * they stand for.
+ */
+public final class MachineMetrics {
+
+   private final long elapsedNanos;
+   private final long[] headTravel;
+   private final int[] highWaterMarks;
+   private final Map<String, Long> stateVisits;
+   private final long steps;
+   private final long[] transitionHits;
+   private final List<Transition> transitions;
+
+   MachineMetrics(long elapsedNanos, long[] headTravel, int[] highWaterMarks, String[] states,
+         long[] stateVisits, long[] transitionHits, List<Transition> transitions) {
+      this.elapsedNanos = elapsedNanos;
+      this.headTravel = headTravel;
+      this.highWaterMarks = highWaterMarks;
+      final Map<String, Long> visits = new LinkedHashMap<>();
+      for (int i = 0; i < states.length; i++) {
+         visits.put(states[i], stateVisits[i]);
+      }
+      this.stateVisits = Collections.unmodifiableMap(visits);
+      long total = 0;
+      for (final long hits : transitionHits) {
+         total += hits;
+      }
+      this.steps = total;
+      this.transitionHits = transitionHits;
+      this.transitions = Collections.unmodifiableList(transitions);
+   }
+
+   /**
+    * Time spent running, summed over every run.
+    *
+    * @return running time in nanoseconds
+    */
+   public long elapsedNanos() {
+      return elapsedNanos;
+   }
+
+   /**
+    * Number of cells the head of the specified tape moved over.
+    *
+    * @param tape
+    *           tape index
+    * @return head travel distance
+    */
+   public long headTravel(int tape) {
+      return headTravel[tape];
+   }
+
+   /**
+    * Highest cell index written on the specified tape.
+    *
+    * @param tape
+    *           tape index
+    * @return high-water mark
+    */
+   public int highWaterMark(int tape) {
+      return highWaterMarks[tape];
+   }
+
+   /**
+    * Number of tapes the metrics cover.
+    *
+    * @return number of tapes
+    */
+   public int numTapes() {
+      return headTravel.length;
+   }
+
+   /**
+    * Number of configurations in each state: the start of a run and every step count once
+    * for the state the machine is in.
+    *
+    * @return immutable map of visit counts by state
+    */
+   public Map<String, Long> stateVisits() {
+      return stateVisits;
+   }
+
+   /**
+    * Number of transitions performed.
+    *
+    * @return step count
+    */
+   public long steps() {
+      return steps;
+   }
+
+   /**
+    * Average throughput of the runs.
+    *
+    * @return steps per second, or 0 if the machine never ran
+    */
+   public double stepsPerSecond() {
+      return elapsedNanos == 0 ? 0 : steps * 1e9 / elapsedNanos;
+   }
+
+   /**
+    * Number of times the specified transition was taken.
+    *
+    * @param id
+    *           index of the transition in {@link #transitions()}
+    * @return hit count
+    */
+   public long transitionHits(int id) {
+      return transitionHits[id];
+   }
+
+   /**
+    * Transitions counted by {@link #transitionHits(int)}: every transition of a compiled
+    * function, by {@link CompiledTransition#id()}, or every transition taken by interpreted
+    * runs, in the order they were first taken.
+    *
+    * @return immutable list of transitions
+    */
+   public List<Transition> transitions() {
+      return transitions;
+   }
+}
@@ -0,0 +1,560 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Single run of a {@link MachineDefinition}: the definition plus the tapes and the per-run
+ * buffers of the step loop.
+ */
+final class MachineRun implements Machine {
+
+   /**
+    * Longest macro step, so that deadlines are still checked on runs over huge blank areas.
+    */
+   static final int MAX_MACRO_STEP = 1 << 30;
+
+   /**
+    * Fixed-size list of the symbols under the tape heads, refilled in place on every step.
+    */
+   private static final class HeadSymbols extends AbstractList<Character> {
+
+      private final Character[] symbols;
+
+      HeadSymbols(int numTapes) {
+         this.symbols = new Character[numTapes];
+      }
+
+      @Override
+      public Character get(int index) {
+         return symbols[index];
+      }
+
+      @Override
+      public int size() {
+         return symbols.length;
+      }
+   }
+
+   private final Alphabet alphabet;
+   private final MachineDefinition definition;
+   private final EventDispatcher events;
+   private final MetricsCollector metrics;
+   private final String startState;
+   private final long startStateId;
+   private final HeadSymbols tapeHeadSymbols;
+   private final List<Tape> tapes;
+
+   MachineRun(MachineDefinition definition, List<Tape> tapes) {
+      this(definition, tapes, definition.initialState(), 0);
+   }
+
+   /**
+    * Creates a run that starts, or resumes, in the specified state after the specified
+    * number of steps.
+    */
+   MachineRun(MachineDefinition definition, List<Tape> tapes, String startState,
+         long startStateId) {
+      this.alphabet = definition.alphabet();
+      this.definition = definition;
+      this.events = new EventDispatcher(this, definition.subscribers());
+      this.metrics = definition.metrics() ? new MetricsCollector(definition) : null;
+      this.startState = startState;
+      this.startStateId = startStateId;
+      this.tapeHeadSymbols = new HeadSymbols(tapes.size());
+      this.tapes = tapes;
+   }
+
+   @Override
+   public Set<Character> alphabetSymbols() {
+      return definition.alphabetSymbols();
+   }
+
+   @Override
+   public Character blankSymbol() {
+      return definition.blankSymbol();
+   }
+
+   @Override
+   public MachineDefinition definition() {
+      return definition;
+   }
+
+   @Override
+   public Set<String> finalStates() {
+      return definition.finalStates();
+   }
+
+   @Override
+   public String initialState() {
+      return definition.initialState();
+   }
+
+   @Override
+   public Set<Character> inputSymbols() {
+      return definition.inputSymbols();
+   }
+
+   @Override
+   public MachineMetrics metrics() {
+      return metrics == null ? null : metrics.snapshot(tapes);
+   }
+
+   @Override
+   public void run() {
+      run(RunLimits.NONE);
+   }
+
+   @Override
+   public RunResult run(final RunLimits limits) {
+      if (!FlightRecorderEvents.AVAILABLE) {
+         return runMetered(limits);
+      }
+      final FlightRecorderEvents.RunEvent event = FlightRecorderEvents.beginRun();
+      final RunResult result = runMetered(limits);
+      FlightRecorderEvents.endRun(event, startState, startStateId, result, tapes);
+      return result;
+   }
+
+   @Override
+   public Character startSymbol() {
+      return definition.startSymbol();
+   }
+
+   @Override
+   public Set<String> states() {
+      return definition.states();
+   }
+
+   @Override
+   public List<Tape> tapes() {
+      return tapes;
+   }
+
+   @Override
+   public TransitionFunction transitionFunction() {
+      return definition.transitionFunction();
+   }
+
+   @Override
+   public Machine withInputTape(final Tape inputTape) {
+      return definition.newMachine(inputTape);
+   }
+
+   /**
+    * Coded view of the tapes when every tape stores codes of the machine alphabet, in which
+    * case compiled runs read and write codes instead of symbols.
+    *
+    * @return coded tapes, or {@code null} if any tape is not coded over the machine alphabet
+    */
+   private CodedTape[] codedTapes() {
+      final CodedTape[] coded = new CodedTape[tapes.size()];
+      for (int i = 0; i < coded.length; i++) {
+         final Tape tape = tapes.get(i);
+         if (!(tape instanceof CodedTape)
+               || !((CodedTape) tape).alphabet().equals(definition.alphabet())) {
+            return null;
+         }
+         coded[i] = (CodedTape) tape;
+      }
+      return coded;
+   }
+
+   /**
+    * Runs the step loop that fits the transition function and the options of the definition.
+    */
+   private RunResult execute(final RunLimits limits) {
+      if (definition.transitionFunction() instanceof CompiledTransitionFunction) {
+         final CompiledTransitionFunction function = (CompiledTransitionFunction) definition
+               .transitionFunction();
+         // generated loops neither notify subscribers nor detect cycles
+         if (definition.loop() != null && function.stateCode(startState) >= 0
+               && !events.hasSubscribers() && !definition.cycleDetection()) {
+            return runGenerated(function, definition.loop(), limits);
+         }
+         return runCompiled(function, limits);
+      }
+      return runInterpreted(limits);
+   }
+
+   /**
+    * Reads the symbol under every tape head into the reusable head symbol buffer, using the
+    * canonical boxed instance of each alphabet symbol.
+    */
+   private void readTapeHeadSymbols() {
+      for (int i = 0; i < tapes.size(); i++) {
+         final char symbol = tapes.get(i).readChar();
+         final int code = alphabet.code(symbol);
+         tapeHeadSymbols.symbols[i] = code < 0 ? Character.valueOf(symbol)
+               : alphabet.boxed(code);
+      }
+   }
+
+   /**
+    * Step loop over a compiled transition function. Head symbols are encoded straight into
+    * a table index and transitions are applied from their primitive form, so a step does
+    * not allocate. Target states were validated when the definition was built.
+    * <p>
+    * With acceleration on, a repeating transition is applied to the longest run of equal
+    * symbols under the moving heads in one macro step, which notifies a single transition
+    * and advances the state id by the length of the run.
+    * <p>
+    * When every tape is a {@link CodedTape} over the machine alphabet, head codes are mapped
+    * to the function's codes, and output codes back, through two small tables, so symbols
+    * are never looked up.
+    */
+   private RunResult runCompiled(final CompiledTransitionFunction function,
+         final RunLimits limits) {
+
+      final Alphabet symbols = function.alphabet();
+      final int numSymbols = symbols.size();
+      final int numTapes = tapes.size();
+      final CodedTape[] coded = codedTapes();
+      final int[] functionCodes = definition.functionSymbolCodes();
+      final int[] machineCodes = definition.machineSymbolCodes();
+      final boolean[] isFinal = definition.finalStateCodes();
+      final Set<String> finalStates = definition.finalStates();
+
+      final boolean accelerated = definition.accelerated();
+      final long checkpointInterval = checkpointInterval();
+      final long maxSteps = limits.maxSteps();
+      final long deadline = limits.deadline();
+
+      long iterations = 0;
+      long stateId = startStateId;
+      long nextCheckpoint = nextCheckpoint(stateId, checkpointInterval);
+      int state = function.stateCode(startState);
+      final CycleDetector cycles = definition.cycleDetection() ? new CycleDetector(tapes) : null;
+
+      onStateChanged(stateId, startState);
+      if (metrics != null && state >= 0) {
+         metrics.started(state);
+      }
+
+      // an initial state without transitions can only be final
+      if (state < 0 && finalStates.contains(startState)) {
+         onHalted(stateId, startState);
+         return new RunResult(RunResult.Outcome.HALTED, stateId, startState);
+      }
+
+      while (state < 0 || !isFinal[state]) {
+         if (stateId >= nextCheckpoint) {
+            checkpoint(stateId, state < 0 ? startState : function.state(state));
+            nextCheckpoint = nextCheckpoint(stateId, checkpointInterval);
+         }
+         final RunResult.Outcome exceeded = checkLimits(stateId, iterations++, maxSteps,
+               deadline);
+         if (exceeded != null) {
+            return new RunResult(exceeded, stateId,
+                  state < 0 ? startState : function.state(state));
+         }
+         if (cycles != null) {
+            final String current = state < 0 ? startState : function.state(state);
+            final long period = cycles.check(stateId, current);
+            if (period > 0) {
+               onLooping(stateId, current, period);
+               return new RunResult(RunResult.Outcome.LOOPING, stateId, current);
+            }
+         }
+         CompiledTransition transition = null;
+         if (state >= 0) {
+            int encoded = 0;
+            for (int i = 0; i < numTapes && encoded >= 0; i++) {
+               final int code = coded != null ? functionCodes[coded[i].readCode()]
+                     : symbols.code(tapes.get(i).readChar());
+               encoded = code < 0 ? -1 : encoded * numSymbols + code;
+            }
+            transition = encoded < 0 ? null : function.apply(state, encoded);
+         }
+         if (transition == null) {
+            final String current = state < 0 ? startState : function.state(state);
+            onDiverged(stateId, current);
+            return new RunResult(RunResult.Outcome.DIVERGED, stateId, current);
+         }
+         onTransition(stateId, function.state(state), transition);
+         if (accelerated && transition.repeats) {
+            final int count = macroStepLength(transition, maxSteps - stateId);
+            if (count > 1) {
+               for (int i = 0; i < numTapes; i++) {
+                  tapes.get(i).sweep(transition.directions[i], count);
+               }
+               stateId += count;
+               if (metrics != null) {
+                  metrics.taken(transition, count);
+               }
+               onStateChanged(stateId, transition.state);
+               continue;
+            }
+         }
+         for (int i = 0; i < numTapes; i++) {
+            final Tape tape = tapes.get(i);
+            if (cycles != null) {
+               cycles.written(i, tape.currentIndex(), tape.readChar(),
+                     transition.outputSymbols[i]);
+            }
+            final int code = coded != null ? machineCodes[transition.outputCodes[i]] : -1;
+            if (code >= 0) {
+               coded[i].writeCode(code);
+            }
+            else {
+               tape.writeChar(transition.outputSymbols[i]);
+            }
+         }
+         for (int i = 0; i < numTapes; i++) {
+            tapes.get(i).move(transition.directions[i]);
+         }
+         state = transition.nextState;
+         if (metrics != null) {
+            metrics.taken(transition, 1);
+         }
+         onStateChanged(++stateId, transition.state);
+      }
+
+      onHalted(stateId, function.state(state));
+      return new RunResult(RunResult.Outcome.HALTED, stateId, function.state(state));
+   }
+
+   /**
+    * Runs the loop generated for a single-tape compiled function and works out why it
+    * stopped from the state and step count it stopped with. With checkpoints enabled, the
+    * loop runs up to one checkpoint at a time.
+    */
+   private RunResult runGenerated(final CompiledTransitionFunction function,
+         final MachineLoop loop, final RunLimits limits) {
+
+      final long checkpointInterval = checkpointInterval();
+      final long maxSteps = limits.maxSteps();
+      // the step count, then the hit count of every transition if metrics are enabled
+      final long[] steps = new long[metrics == null ? 1 : function.transitionCount() + 1];
+      steps[0] = startStateId;
+      final boolean[] isFinal = definition.finalStateCodes();
+      if (metrics != null) {
+         metrics.started(function.stateCode(startState));
+      }
+      long nextCheckpoint = nextCheckpoint(steps[0], checkpointInterval);
+      int stopped = loop.run(tapes.get(0), function.stateCode(startState), steps,
+            Math.min(maxSteps, nextCheckpoint), limits.deadline());
+      while (stopped >= 0 && !isFinal[stopped] && steps[0] >= nextCheckpoint) {
+         checkpoint(steps[0], function.state(stopped));
+         if (steps[0] >= maxSteps) {
+            break;
+         }
+         nextCheckpoint = nextCheckpoint(steps[0], checkpointInterval);
+         stopped = loop.run(tapes.get(0), stopped, steps, Math.min(maxSteps, nextCheckpoint),
+               limits.deadline());
+      }
+      if (metrics != null) {
+         metrics.taken(steps);
+      }
+      if (stopped < 0) {
+         return new RunResult(RunResult.Outcome.DIVERGED, steps[0], function.state(~stopped));
+      }
+      final RunResult.Outcome outcome = isFinal[stopped] ? RunResult.Outcome.HALTED
+            : steps[0] >= maxSteps ? RunResult.Outcome.STEP_BUDGET_EXHAUSTED
+                  : RunResult.Outcome.DEADLINE_EXCEEDED;
+      return new RunResult(outcome, steps[0], function.state(stopped));
+   }
+
+   /**
+    * Step loop over an arbitrary transition function, which is handed a reusable view of
+    * the head symbols. Target states can only be checked as they are reached.
+    */
+   private RunResult runInterpreted(final RunLimits limits) {
+
+      final long checkpointInterval = checkpointInterval();
+      final long maxSteps = limits.maxSteps();
+      final long deadline = limits.deadline();
+
+      long stateId = startStateId;
+      long nextCheckpoint = nextCheckpoint(stateId, checkpointInterval);
+
+      final Set<String> finalStates = definition.finalStates();
+      final Set<String> states = definition.states();
+      final TransitionFunction transitionFunction = definition.transitionFunction();
+
+      String state = startState;
+      final CycleDetector cycles = definition.cycleDetection() ? new CycleDetector(tapes) : null;
+
+      onStateChanged(stateId, state);
+      if (metrics != null) {
+         metrics.started(state);
+      }
+
+      while (!finalStates.contains(state)) {
+         if (stateId >= nextCheckpoint) {
+            checkpoint(stateId, state);
+            nextCheckpoint = nextCheckpoint(stateId, checkpointInterval);
+         }
+         final RunResult.Outcome exceeded = checkLimits(stateId, stateId, maxSteps, deadline);
+         if (exceeded != null) {
+            return new RunResult(exceeded, stateId, state);
+         }
+         if (cycles != null) {
+            final long period = cycles.check(stateId, state);
+            if (period > 0) {
+               onLooping(stateId, state, period);
+               return new RunResult(RunResult.Outcome.LOOPING, stateId, state);
+            }
+         }
+         readTapeHeadSymbols();
+         final Transition transition = transitionFunction.apply(state, tapeHeadSymbols);
+         if (transition == null) {
+            onDiverged(stateId, state);
+            return new RunResult(RunResult.Outcome.DIVERGED, stateId, state);
+         }
+         onTransition(stateId, state, transition);
+         final List<Character> outputs = transition.outputs();
+         final List<Move> moves = transition.moves();
+         for (int i = 0; i < tapes.size(); i++) {
+            final Tape tape = tapes.get(i);
+            if (cycles != null) {
+               cycles.written(i, tape.currentIndex(), tape.readChar(), outputs.get(i));
+            }
+            tape.write(outputs.get(i));
+         }
+         for (int i = 0; i < tapes.size(); i++) {
+            tapes.get(i).move(moves.get(i));
+         }
+         state = transition.state();
+         if (!states.contains(state)) {
+            throw new IllegalArgumentException(
+                  String.format("Unrecognized machine state '%s'.", state));
+         }
+         if (metrics != null) {
+            metrics.taken(transition);
+         }
+         onStateChanged(++stateId, state);
+      }
+
+      onHalted(stateId, state);
+      return new RunResult(RunResult.Outcome.HALTED, stateId, state);
+   }
+
+   /**
+    * Runs the machine, timing the run and exporting its metrics if metrics are enabled.
+    */
+   private RunResult runMetered(final RunLimits limits) {
+      if (metrics == null) {
+         return execute(limits);
+      }
+      metrics.begin();
+      Throwable failure = null;
+      try {
+         return execute(limits);
+      }
+      catch (final RuntimeException | Error e) {
+         failure = e;
+         throw e;
+      }
+      finally {
+         metrics.end();
+         if (definition.metricsExporter() != null) {
+            try {
+               definition.metricsExporter().export(metrics.snapshot(tapes));
+            }
+            catch (final IOException ioe) {
+               // a failed export never hides why the run itself failed
+               if (failure == null) {
+                  throw new UncheckedIOException(ioe);
+               }
+               failure.addSuppressed(ioe);
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks whether a run that has performed the specified number of steps may perform
+    * another one. The clock is only read every {@link RunLimits#DEADLINE_CHECK_MASK} + 1
+    * iterations of the step loop, which only differ from steps when macro steps are taken.
+    *
+    * @return the exceeded limit, or {@code null} if the run may continue
+    */
+   private RunResult.Outcome checkLimits(final long steps, final long iterations,
+         final long maxSteps, final long deadline) {
+      if (steps >= maxSteps) {
+         return RunResult.Outcome.STEP_BUDGET_EXHAUSTED;
+      }
+      if ((iterations & RunLimits.DEADLINE_CHECK_MASK) == 0 && deadline != Long.MAX_VALUE
+            && System.nanoTime() - deadline >= 0) {
+         return RunResult.Outcome.DEADLINE_EXCEEDED;
+      }
+      return null;
+   }
+
+   /**
+    * Hands a snapshot of the run to the checkpoint sink.
+    */
+   private void checkpoint(final long stateId, final String state) {
+      try {
+         definition.checkpointSink().save(MachineSnapshot.of(state, stateId, tapes));
+      }
+      catch (final IOException ioe) {
+         throw new UncheckedIOException(ioe);
+      }
+   }
+
+   /**
+    * Number of steps between two checkpoints, or 0 if the run takes none.
+    */
+   private long checkpointInterval() {
+      return definition.checkpointSink() == null ? 0 : definition.checkpointInterval();
+   }
+
+   /**
+    * Number of times a repeating transition applies in a row from the current configuration:
+    * the shortest run of equal symbols under the moving heads, within the step budget.
+    */
+   private int macroStepLength(final CompiledTransition transition, final long remaining) {
+      int count = (int) Math.min(remaining, MAX_MACRO_STEP);
+      for (int i = 0; i < tapes.size() && count > 1; i++) {
+         count = tapes.get(i).runLength(transition.directions[i], count);
+      }
+      return count;
+   }
+
+   /**
+    * First multiple of the checkpoint interval after the specified step, so that a resumed
+    * run checkpoints at the same steps as the run it resumes.
+    */
+   private static long nextCheckpoint(final long stateId, final long interval) {
+      return interval <= 0 ? Long.MAX_VALUE : (stateId / interval + 1) * interval;
+   }
+
+   private void onDiverged(final long stateId, final String state) {
+      if (events.hasSubscribers()) {
+         readTapeHeadSymbols();
+         events.diverged(stateId, state, tapeHeadSymbols);
+      }
+   }
+
+   private void onHalted(final long stateId, final String state) {
+      if (events.hasSubscribers()) {
+         readTapeHeadSymbols();
+         events.halted(stateId, state, tapeHeadSymbols);
+      }
+   }
+
+   private void onLooping(final long stateId, final String state, final long period) {
+      if (events.hasSubscribers()) {
+         events.looping(stateId, state, period);
+      }
+   }
+
+   private void onStateChanged(final long stateId, final String state) {
+      if (events.hasSubscribers()) {
+         readTapeHeadSymbols();
+         events.stateChanged(stateId, state, tapeHeadSymbols);
+      }
+   }
+
+   private void onTransition(final long stateId, final String state,
+         final Transition transition) {
+      if (events.hasSubscribers()) {
+         events.transition(stateId, state, transition);
+      }
+   }
+}
@@ -0,0 +1,273 @@
+package org.lessa.turing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable copy of everything that changes while a machine runs: the current state, the
+ * number of steps taken and the cells and head position of every tape. A snapshot resumes
+ * with {@link MachineDefinition#resume(MachineSnapshot)}, and the resumed run takes exactly
+ * the same steps, with the same results, as the run it was taken from.
+ * <p>
+ * Snapshots are stored as gzip-compressed binary, so that long runs of equal cells cost
+ * almost nothing on disk.
+ */
+public final class MachineSnapshot {
+
+   private static final int INITIAL_CELLS = 1 << 16;
+   private static final int INITIAL_TAPES = 8;
+   private static final int MAGIC = 0x544D534E;
+   private static final short VERSION = 1;
+
+   private final char[][] cells;
+   private final int[] currentIndexes;
+   private final int[] minUsedIndexes;
+   private final String state;
+   private final long stateId;
+
+   private MachineSnapshot(String state, long stateId, int[] currentIndexes,
+         int[] minUsedIndexes, char[][] cells) {
+      this.cells = cells;
+      this.currentIndexes = currentIndexes;
+      this.minUsedIndexes = minUsedIndexes;
+      this.state = state;
+      this.stateId = stateId;
+   }
+
+   /**
+    * Reads a snapshot from a file.
+    *
+    * @param path
+    *           snapshot file
+    * @return snapshot
+    * @throws IOException
+    *            if the file cannot be read or is not a snapshot
+    */
+   public static MachineSnapshot load(Path path) throws IOException {
+      try (InputStream in = Files.newInputStream(path)) {
+         return readFrom(in);
+      }
+   }
+
+   /**
+    * Reads a snapshot written by {@link #writeTo(OutputStream)}. The stream is left open.
+    *
+    * @param in
+    *           source of the snapshot
+    * @return snapshot
+    * @throws IOException
+    *            if the stream cannot be read, ends early or does not hold a snapshot
+    */
+   public static MachineSnapshot readFrom(InputStream in) throws IOException {
+      final DataInputStream data = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(in)));
+      if (data.readInt() != MAGIC || data.readShort() != VERSION) {
+         throw new IOException("Not a machine snapshot.");
+      }
+      final long stateId = data.readLong();
+      final String state = data.readUTF();
+      // counts are only trusted as far as the stream holds, so arrays grow as they are read
+      final int numTapes = readCount(data, "tapes");
+      int[] currentIndexes = new int[Math.min(numTapes, INITIAL_TAPES)];
+      int[] minUsedIndexes = new int[currentIndexes.length];
+      char[][] cells = new char[currentIndexes.length][];
+      for (int i = 0; i < numTapes; i++) {
+         if (i == cells.length) {
+            final int length = (int) Math.min(numTapes, 2L * i);
+            currentIndexes = Arrays.copyOf(currentIndexes, length);
+            minUsedIndexes = Arrays.copyOf(minUsedIndexes, length);
+            cells = Arrays.copyOf(cells, length);
+         }
+         currentIndexes[i] = data.readInt();
+         minUsedIndexes[i] = data.readInt();
+         final int length = readCount(data, "cells");
+         cells[i] = new char[Math.min(length, INITIAL_CELLS)];
+         for (int ix = 0; ix < length; ix++) {
+            if (ix == cells[i].length) {
+               cells[i] = Arrays.copyOf(cells[i], (int) Math.min(length, 2L * ix));
+            }
+            cells[i][ix] = data.readChar();
+         }
+      }
+      return new MachineSnapshot(state, stateId, currentIndexes, minUsedIndexes, cells);
+   }
+
+   /**
+    * Reads a count, which must not be negative.
+    */
+   private static int readCount(DataInputStream data, String what) throws IOException {
+      final int count = data.readInt();
+      if (count < 0) {
+         throw new IOException(String.format("Invalid number of %s %d.", what, count));
+      }
+      return count;
+   }
+
+   /**
+    * Takes a snapshot of a machine that stopped before halting, such as on an exhausted step
+    * budget or an exceeded deadline, so that it can be resumed later.
+    *
+    * @param machine
+    *           stopped machine
+    * @param result
+    *           result of the machine's last run
+    * @return snapshot
+    */
+   public static MachineSnapshot of(Machine machine, RunResult result) {
+      return of(result.finalState(), result.steps(), machine.tapes());
+   }
+
+   /**
+    * Takes a snapshot of the specified tapes.
+    */
+   static MachineSnapshot of(String state, long stateId, List<Tape> tapes) {
+      final int[] currentIndexes = new int[tapes.size()];
+      final int[] minUsedIndexes = new int[tapes.size()];
+      final char[][] cells = new char[tapes.size()][];
+      for (int i = 0; i < tapes.size(); i++) {
+         final Tape tape = tapes.get(i);
+         currentIndexes[i] = tape.currentIndex();
+         minUsedIndexes[i] = tape.minUsedIndex();
+         cells[i] = new char[tape.maxUsedIndex() - tape.minUsedIndex() + 1];
+         for (int ix = 0; ix < cells[i].length; ix++) {
+            cells[i][ix] = tape.charAt(tape.minUsedIndex() + ix);
+         }
+      }
+      return new MachineSnapshot(state, stateId, currentIndexes, minUsedIndexes, cells);
+   }
+
+   /**
+    * Whether the machine is in the same configuration as when the snapshot was taken: same
+    * state, head positions and cells, cells outside the snapshot being blank.
+    */
+   boolean matches(String otherState, List<Tape> tapes) {
+      if (!state.equals(otherState)) {
+         return false;
+      }
+      for (int i = 0; i < cells.length; i++) {
+         final Tape tape = tapes.get(i);
+         if (tape.currentIndex() != currentIndexes[i]) {
+            return false;
+         }
+         final int min = Math.min(tape.minUsedIndex(), minUsedIndexes[i]);
+         final int max = Math.max(tape.maxUsedIndex(), minUsedIndexes[i] + cells[i].length - 1);
+         for (int ix = min; ix <= max; ix++) {
+            final int offset = ix - minUsedIndexes[i];
+            final char expected = offset >= 0 && offset < cells[i].length ? cells[i][offset]
+                  : tape.blankSymbol();
+            if (tape.charAt(ix) != expected) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   public int numTapes() {
+      return cells.length;
+   }
+
+   /**
+    * Writes the snapshot to a file, replacing it atomically where the file system allows, so
+    * that a crash while saving never leaves a corrupt snapshot behind. The snapshot goes
+    * through a temporary file of its own that is forced to the device before it replaces the
+    * file, so concurrent saves to the same file never fail, and the last one wins.
+    *
+    * @param path
+    *           snapshot file
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   public void save(Path path) throws IOException {
+      AtomicFile.replace(path, this::writeTo);
+   }
+
+   /**
+    * State the machine was in when the snapshot was taken.
+    *
+    * @return state name
+    */
+   public String state() {
+      return state;
+   }
+
+   /**
+    * Number of steps the machine had taken when the snapshot was taken.
+    *
+    * @return state id
+    */
+   public long stateId() {
+      return stateId;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("{\"state\": \"%s\", \"stateId\": %d, \"numTapes\": %d}", state,
+            stateId, cells.length);
+   }
+
+   /**
+    * Writes the snapshot as gzip-compressed binary. The stream is left open.
+    *
+    * @param out
+    *           destination of the snapshot
+    * @throws IOException
+    *            if the stream cannot be written
+    */
+   public void writeTo(OutputStream out) throws IOException {
+      final GZIPOutputStream gzip = new GZIPOutputStream(new NonClosing(out));
+      try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip))) {
+         data.writeInt(MAGIC);
+         data.writeShort(VERSION);
+         data.writeLong(stateId);
+         data.writeUTF(state);
+         data.writeInt(cells.length);
+         for (int i = 0; i < cells.length; i++) {
+            data.writeInt(currentIndexes[i]);
+            data.writeInt(minUsedIndexes[i]);
+            data.writeInt(cells[i].length);
+            for (final char cell : cells[i]) {
+               data.writeChar(cell);
+            }
+         }
+      }
+   }
+
+   /**
+    * Restores the cells and head position of one tape into an empty tape.
+    */
+   void restore(int index, Tape tape) {
+      tape.restore(currentIndexes[index], minUsedIndexes[index], cells[index]);
+   }
+
+   /**
+    * Stream that finishes the gzip trailer on close without closing the caller's stream.
+    */
+   private static final class NonClosing extends java.io.FilterOutputStream {
+
+      NonClosing(OutputStream out) {
+         super(out);
+      }
+
+      @Override
+      public void close() throws IOException {
+         flush();
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+      }
+   }
+}
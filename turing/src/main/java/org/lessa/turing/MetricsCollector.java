@@ -0,0 +1,164 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Counters of a single machine, kept in preallocated primitive arrays so that a step only
+ * increments the hit count of its transition. State visits and head travel follow from the
+ * hit counts, and are only worked out for snapshots. Transitions of compiled functions are
+ * counted by id; interpreted runs number transitions as they are first taken.
+ * <p>
+ * Counters are only updated by the thread running the machine. Snapshots taken from other
+ * threads while it runs may be slightly behind, and do not see the hits of a generated step
+ * loop until the loop returns.
+ */
+final class MetricsCollector {
+
+   private long elapsedNanos;
+   private final int numTapes;
+   private long runStart = -1;
+   private final Map<String, Integer> stateIndexes;
+   private final String[] states;
+   private final long[] startVisits;
+   private long[] transitionHits;
+   private final Map<Transition, Integer> transitionIds;
+   private Transition[] transitions;
+
+   /**
+    * Creates counters for every state and, if the function is compiled, every transition of a
+    * definition.
+    */
+   MetricsCollector(MachineDefinition definition) {
+      this.numTapes = definition.numTapes();
+      this.stateIndexes = new HashMap<>();
+      if (definition.transitionFunction() instanceof CompiledTransitionFunction) {
+         final CompiledTransitionFunction function = (CompiledTransitionFunction) definition
+               .transitionFunction();
+         this.states = new String[function.stateCount()];
+         for (int code = 0; code < states.length; code++) {
+            states[code] = function.state(code);
+            stateIndexes.put(states[code], code);
+         }
+         this.transitionIds = null;
+         this.transitions = new Transition[function.transitionCount()];
+         for (int id = 0; id < transitions.length; id++) {
+            transitions[id] = function.transition(id);
+         }
+      }
+      else {
+         this.states = new TreeSet<>(definition.states()).toArray(new String[0]);
+         for (int index = 0; index < states.length; index++) {
+            stateIndexes.put(states[index], index);
+         }
+         this.transitionIds = new IdentityHashMap<>();
+         this.transitions = new Transition[16];
+      }
+      this.startVisits = new long[states.length];
+      this.transitionHits = new long[transitions.length];
+   }
+
+   /**
+    * Starts timing a run.
+    */
+   void begin() {
+      runStart = System.nanoTime();
+   }
+
+   /**
+    * Stops timing a run.
+    */
+   void end() {
+      elapsedNanos += System.nanoTime() - runStart;
+      runStart = -1;
+   }
+
+   /**
+    * Copies the counters, with the high-water mark of every tape. Every step enters the
+    * target state of its transition and moves the heads the transition moves, so visits and
+    * travel add up from the hit counts.
+    */
+   MachineMetrics snapshot(List<Tape> tapes) {
+      final long now = runStart < 0 ? 0 : System.nanoTime() - runStart;
+      final int[] highWaterMarks = new int[tapes.size()];
+      for (int i = 0; i < highWaterMarks.length; i++) {
+         highWaterMarks[i] = tapes.get(i).maxUsedIndex();
+      }
+      // interpreted runs may be adding transitions while a snapshot is taken
+      final Transition[] known = transitions;
+      int transitionCount = known.length;
+      while (transitionCount > 0 && known[transitionCount - 1] == null) {
+         transitionCount--;
+      }
+      final long[] hits = Arrays.copyOf(transitionHits, transitionCount);
+      final long[] stateVisits = startVisits.clone();
+      final long[] headTravel = new long[numTapes];
+      for (int id = 0; id < transitionCount; id++) {
+         final Integer state = stateIndexes.get(known[id].state());
+         if (state != null) {
+            stateVisits[state] += hits[id];
+         }
+         final List<Move> moves = known[id].moves();
+         for (int i = 0; i < numTapes; i++) {
+            headTravel[i] += moves.get(i) == Move.NONE ? 0 : hits[id];
+         }
+      }
+      return new MachineMetrics(elapsedNanos + now, headTravel, highWaterMarks, states,
+            stateVisits, hits, Arrays.asList(Arrays.copyOf(known, transitionCount)));
+   }
+
+   /**
+    * Counts the start of a run in the state with the specified code.
+    */
+   void started(int state) {
+      startVisits[state]++;
+   }
+
+   /**
+    * Counts the start of an interpreted run in the specified state.
+    */
+   void started(String state) {
+      final Integer index = stateIndexes.get(state);
+      if (index != null) {
+         startVisits[index]++;
+      }
+   }
+
+   /**
+    * Counts a compiled transition taken a number of times in a row.
+    */
+   void taken(CompiledTransition transition, long count) {
+      transitionHits[transition.id] += count;
+   }
+
+   /**
+    * Counts the hits a generated step loop added to its counters, see
+    * {@link MachineLoop#run}.
+    */
+   void taken(long[] counters) {
+      for (int id = 0; id < transitionHits.length; id++) {
+         transitionHits[id] += counters[id + 1];
+      }
+   }
+
+   /**
+    * Counts an interpreted transition, numbering it if it was never taken before.
+    */
+   void taken(Transition transition) {
+      Integer id = transitionIds.get(transition);
+      if (id == null) {
+         id = transitionIds.size();
+         transitionIds.put(transition, id);
+         if (id == transitions.length) {
+            transitions = Arrays.copyOf(transitions, id * 2);
+            transitionHits = Arrays.copyOf(transitionHits, id * 2);
+         }
+         transitions[id] = transition;
+      }
+      transitionHits[id]++;
+   }
+}
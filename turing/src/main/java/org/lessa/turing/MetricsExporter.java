@@ -0,0 +1,20 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+
+/**
+ * Publishes machine metrics, see {@link MachineBuilder#withMetricsExporter(MetricsExporter)}.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+   /**
+    * Publishes a snapshot of the metrics of a machine.
+    *
+    * @param metrics
+    *           metrics snapshot
+    * @throws IOException
+    *            if the metrics cannot be published
+    */
+   void export(MachineMetrics metrics) throws IOException;
+}
@@ -0,0 +1,80 @@
+package org.lessa.turing;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable description of a nondeterministic machine, whose transition function may allow
+ * several transitions from the same configuration. The machine accepts its input if any
+ * sequence of transitions reaches one of its final states; {@link MachineExplorer} searches
+ * for one. Built by {@link MachineBuilder#buildNondeterministic()}, with the same meaning for
+ * every part shared with {@link Machine}.
+ */
+public final class NondeterministicMachine {
+
+   private final Set<Character> alphabetSymbols;
+   private final Character blankSymbol;
+   private final Set<String> finalStates;
+   private final String initialState;
+   private final Set<Character> inputSymbols;
+   private final int numTapes;
+   private final Character startSymbol;
+   private final Set<String> states;
+   private final NondeterministicTransitionFunction transitionFunction;
+
+   NondeterministicMachine(Set<Character> alphabetSymbols, Character blankSymbol,
+         Set<String> finalStates, String initialState, Set<Character> inputSymbols,
+         int numTapes, Character startSymbol, Set<String> states,
+         NondeterministicTransitionFunction transitionFunction) {
+      this.alphabetSymbols = Collections.unmodifiableSet(alphabetSymbols);
+      this.blankSymbol = blankSymbol;
+      this.finalStates = Collections.unmodifiableSet(finalStates);
+      this.initialState = initialState;
+      this.inputSymbols = Collections.unmodifiableSet(inputSymbols);
+      this.numTapes = numTapes;
+      this.startSymbol = startSymbol;
+      this.states = Collections.unmodifiableSet(states);
+      this.transitionFunction = transitionFunction;
+   }
+
+   public Set<Character> alphabetSymbols() {
+      return alphabetSymbols;
+   }
+
+   public Character blankSymbol() {
+      return blankSymbol;
+   }
+
+   public Set<String> finalStates() {
+      return finalStates;
+   }
+
+   public String initialState() {
+      return initialState;
+   }
+
+   public Set<Character> inputSymbols() {
+      return inputSymbols;
+   }
+
+   /**
+    * Number of tapes of every branch, including the input tape.
+    *
+    * @return number of tapes
+    */
+   public int numTapes() {
+      return numTapes;
+   }
+
+   public Character startSymbol() {
+      return startSymbol;
+   }
+
+   public Set<String> states() {
+      return states;
+   }
+
+   public NondeterministicTransitionFunction transitionFunction() {
+      return transitionFunction;
+   }
+}
@@ -0,0 +1,53 @@
+package org.lessa.turing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Transition function of a {@link NondeterministicMachine}, which may allow any number of
+ * transitions from the same state and head symbols. Symbols are passed in the same order as
+ * to a {@link TransitionFunction}.
+ */
+@FunctionalInterface
+public interface NondeterministicTransitionFunction {
+
+   /**
+    * Combines deterministic transition functions, such as the ones built by
+    * {@link TransitionFunctionBuilder}, into one that allows every transition any of them
+    * defines, in the order of the functions.
+    *
+    * @param functions
+    *           alternatives, each defining at most one transition per state and symbols
+    * @return union of the functions
+    */
+   static NondeterministicTransitionFunction union(TransitionFunction... functions) {
+      final List<TransitionFunction> alternatives = new ArrayList<>(Arrays.asList(functions));
+      return (state, symbols) -> {
+         List<Transition> transitions = Collections.emptyList();
+         for (final TransitionFunction function : alternatives) {
+            final Transition transition = function.apply(state, symbols);
+            if (transition != null) {
+               if (transitions.isEmpty()) {
+                  transitions = new ArrayList<>(alternatives.size());
+               }
+               transitions.add(transition);
+            }
+         }
+         return transitions;
+      };
+   }
+
+   /**
+    * Every transition allowed from the specified state and symbols.
+    *
+    * @param state
+    *           current machine state
+    * @param symbols
+    *           a vertical slice of symbols under all tape heads
+    * @return transitions in the order branches should be explored, or an empty list or
+    *         {@code null} if there are none
+    */
+   List<Transition> apply(String state, List<Character> symbols);
+}
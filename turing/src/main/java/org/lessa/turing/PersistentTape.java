@@ -0,0 +1,197 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+/**
+ * Tape stored in a persistent vector of chunks of {@value #CHUNK_SIZE} cells, 4 KiB each,
+ * under a tree of nodes with {@value #BRANCH_SIZE} children, so that {@link #fork()} takes
+ * constant time and both tapes then share every chunk until they write to it.
+ * <p>
+ * Every node records which tape may change it in place. A fork gives both tapes new
+ * identities, so a write to a shared chunk copies it, along with the nodes on its path, and
+ * the copies then belong to the writing tape, which changes them in place from now on. A
+ * branch of a run therefore pays for the chunks it changes, once each. Reads follow the tree,
+ * except for the chunk read or written last, which is cached.
+ * <p>
+ * A tape and its forks may be used from different threads, as long as each one is confined
+ * to a single thread after the fork.
+ */
+public final class PersistentTape extends Tape {
+
+   private static final int BRANCH_BITS = 5;
+   private static final int BRANCH_SIZE = 1 << BRANCH_BITS;
+   private static final int CHUNK_BITS = 11;
+   private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+   /**
+    * Node of the tree: a branch with children, or a chunk of cells at the bottom level.
+    */
+   private static final class Node {
+
+      private final char[] cells;
+      private final Node[] children;
+      private final Object owner;
+
+      Node(Object owner, char[] cells, Node[] children) {
+         this.cells = cells;
+         this.children = children;
+         this.owner = owner;
+      }
+   }
+
+   private Node cached;
+   private int cachedIndex = -1;
+   private int levels;
+   private Object owner;
+   private Node root;
+
+   /**
+    * Creates an empty tape.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    */
+   public PersistentTape(Character blankSymbol, Character startSymbol) {
+      super(blankSymbol);
+      this.owner = new Object();
+      store(0, startSymbol);
+   }
+
+   private PersistentTape(PersistentTape parent) {
+      super(parent.blankSymbol());
+      this.cached = parent.cached;
+      this.cachedIndex = parent.cachedIndex;
+      this.levels = parent.levels;
+      this.owner = new Object();
+      this.root = parent.root;
+      copyHead(parent);
+   }
+
+   /**
+    * Creates a tape with the same cells, head position and used range as another tape.
+    *
+    * @param tape
+    *           tape to copy
+    * @return new tape
+    */
+   public static PersistentTape copyOf(Tape tape) {
+      final PersistentTape copy = new PersistentTape(tape.blankSymbol(), tape.charAt(0));
+      final char[] chunk = new char[CHUNK_SIZE];
+      for (int ix = tape.minUsedIndex(); ix <= tape.maxUsedIndex(); ix += CHUNK_SIZE) {
+         final int count = Math.min(CHUNK_SIZE, tape.maxUsedIndex() - ix + 1);
+         tape.getChars(ix, ix + count, chunk, 0);
+         for (int i = 0; i < count; i++) {
+            copy.store(ix + i, chunk[i]);
+         }
+      }
+      copy.copyHead(tape);
+      return copy;
+   }
+
+   @Override
+   public char charAt(int index) {
+      if (index >>> CHUNK_BITS == cachedIndex) {
+         return cached.cells[index & (CHUNK_SIZE - 1)];
+      }
+      final Node chunk = index < 0 ? null : chunk(index);
+      if (chunk == null) {
+         return blankSymbol();
+      }
+      cached = chunk;
+      cachedIndex = index >>> CHUNK_BITS;
+      return chunk.cells[index & (CHUNK_SIZE - 1)];
+   }
+
+   /**
+    * Creates a tape with the same cells, head position and used range, in constant time.
+    * Writes to either tape are never seen by the other.
+    *
+    * @return new tape
+    */
+   public PersistentTape fork() {
+      // every node is now shared, so neither tape may change one in place
+      owner = new Object();
+      return new PersistentTape(this);
+   }
+
+   @Override
+   public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      int ix = srcBegin;
+      while (ix < srcEnd) {
+         final int count = Math.min(srcEnd - ix, CHUNK_SIZE - (ix & (CHUNK_SIZE - 1)));
+         final int offset = dstBegin + ix - srcBegin;
+         final Node chunk = ix < 0 ? null : chunk(ix);
+         if (chunk == null) {
+            Arrays.fill(dst, offset, offset + count, blankSymbol());
+         }
+         else {
+            System.arraycopy(chunk.cells, ix & (CHUNK_SIZE - 1), dst, offset, count);
+         }
+         ix += count;
+      }
+   }
+
+   @Override
+   protected void store(int index, char symbol) {
+      if (index < 0) {
+         throw new IllegalStateException("Error: tried to write beyond the start of the tape.");
+      }
+      while (index >>> CHUNK_BITS >>> (BRANCH_BITS * levels) != 0) {
+         final Node[] children = new Node[BRANCH_SIZE];
+         children[0] = root;
+         root = new Node(owner, null, children);
+         levels++;
+      }
+      root = own(root, levels == 0);
+      Node node = root;
+      for (int level = levels; level > 0; level--) {
+         final int slot = index >>> (CHUNK_BITS + BRANCH_BITS * (level - 1))
+               & (BRANCH_SIZE - 1);
+         node = node.children[slot] = own(node.children[slot], level == 1);
+      }
+      node.cells[index & (CHUNK_SIZE - 1)] = symbol;
+      cached = node;
+      cachedIndex = index >>> CHUNK_BITS;
+   }
+
+   /**
+    * Chunk holding the specified cell.
+    *
+    * @return chunk, or {@code null} if no cell of it was ever written
+    */
+   private Node chunk(int index) {
+      if (index >>> CHUNK_BITS >>> (BRANCH_BITS * levels) != 0) {
+         return null;
+      }
+      Node node = root;
+      for (int level = levels; node != null && level > 0; level--) {
+         node = node.children[index >>> (CHUNK_BITS + BRANCH_BITS * (level - 1))
+               & (BRANCH_SIZE - 1)];
+      }
+      return node;
+   }
+
+   /**
+    * Node this tape may change in place: the node itself if the tape owns it, or else a copy
+    * of it, or a new empty node if there is none.
+    */
+   private Node own(Node node, boolean chunk) {
+      if (node != null && node.owner == owner) {
+         return node;
+      }
+      if (chunk) {
+         final char[] cells;
+         if (node == null) {
+            cells = new char[CHUNK_SIZE];
+            Arrays.fill(cells, blankSymbol());
+         }
+         else {
+            cells = node.cells.clone();
+         }
+         return new Node(owner, cells, null);
+      }
+      return new Node(owner, null, node == null ? new Node[BRANCH_SIZE] : node.children.clone());
+   }
+}
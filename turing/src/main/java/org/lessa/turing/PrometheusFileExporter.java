@@ -0,0 +1,126 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exporter that writes metrics to a file in the Prometheus text format, replacing the file
+ * atomically where the file system allows, so that a scraper such as the node exporter's
+ * textfile collector never reads a partial file. Every metric is named {@code turing_*} and
+ * carries the labels given to the exporter.
+ * <p>
+ * Every export replaces the file with the metrics of one machine, and metrics are not
+ * aggregated across machines. The exporter belongs to the definition, so when several
+ * machines of one definition run, such as the jobs of a {@link MachineBatchRunner}, the file
+ * holds the metrics of whichever machine exported last; concurrent exports never fail or
+ * corrupt it. Machines whose metrics must all be scraped each need a definition with a file
+ * of their own.
+ */
+public final class PrometheusFileExporter implements MetricsExporter {
+
+   private final String labels;
+   private final Path path;
+
+   /**
+    * Creates an exporter to the specified file, without extra labels.
+    *
+    * @param path
+    *           metrics file, replaced on every export
+    */
+   public PrometheusFileExporter(Path path) {
+      this(path, "");
+   }
+
+   /**
+    * Creates an exporter to the specified file.
+    *
+    * @param path
+    *           metrics file, replaced on every export
+    * @param machine
+    *           value of the {@code machine} label of every metric, to tell machines apart
+    */
+   public PrometheusFileExporter(Path path, String machine) {
+      this.labels = machine.isEmpty() ? "" : label("machine", machine);
+      this.path = path;
+   }
+
+   private static String label(String name, String value) {
+      return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n") + "\"";
+   }
+
+   @Override
+   public void export(MachineMetrics metrics) throws IOException {
+      AtomicFile.replace(path, out -> {
+         final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+         write(metrics, writer);
+         writer.flush();
+      });
+   }
+
+   /**
+    * Writes metrics in the Prometheus text format.
+    *
+    * @param metrics
+    *           metrics snapshot
+    * @param out
+    *           destination, neither flushed nor closed
+    * @throws IOException
+    *            if the writer fails
+    */
+   public void write(MachineMetrics metrics, Writer out) throws IOException {
+      header(out, "turing_steps_total", "counter", "Transitions performed.");
+      sample(out, "turing_steps_total", "", Long.toString(metrics.steps()));
+      header(out, "turing_run_seconds_total", "counter", "Time spent running.");
+      sample(out, "turing_run_seconds_total", "",
+            Double.toString(metrics.elapsedNanos() / 1e9));
+      header(out, "turing_steps_per_second", "gauge", "Average throughput of the runs.");
+      sample(out, "turing_steps_per_second", "", Double.toString(metrics.stepsPerSecond()));
+
+      header(out, "turing_state_visits_total", "counter", "Configurations in each state.");
+      for (final Map.Entry<String, Long> e : metrics.stateVisits().entrySet()) {
+         sample(out, "turing_state_visits_total", label("state", e.getKey()),
+               Long.toString(e.getValue()));
+      }
+
+      header(out, "turing_transition_hits_total", "counter", "Times each transition was taken.");
+      final List<Transition> transitions = metrics.transitions();
+      for (int id = 0; id < transitions.size(); id++) {
+         sample(out, "turing_transition_hits_total",
+               label("transition", Integer.toString(id)) + ","
+                     + label("next_state", transitions.get(id).state()),
+               Long.toString(metrics.transitionHits(id)));
+      }
+
+      header(out, "turing_head_travel_cells_total", "counter",
+            "Cells each tape head moved over.");
+      for (int i = 0; i < metrics.numTapes(); i++) {
+         sample(out, "turing_head_travel_cells_total", label("tape", Integer.toString(i)),
+               Long.toString(metrics.headTravel(i)));
+      }
+      header(out, "turing_tape_high_water_mark", "gauge", "Highest cell written on each tape.");
+      for (int i = 0; i < metrics.numTapes(); i++) {
+         sample(out, "turing_tape_high_water_mark", label("tape", Integer.toString(i)),
+               Integer.toString(metrics.highWaterMark(i)));
+      }
+   }
+
+   private static void header(Writer out, String name, String type, String help)
+         throws IOException {
+      out.write("# HELP " + name + " " + help + "\n");
+      out.write("# TYPE " + name + " " + type + "\n");
+   }
+
+   private void sample(Writer out, String name, String sampleLabels, String value)
+         throws IOException {
+      final String all = labels.isEmpty() ? sampleLabels
+            : sampleLabels.isEmpty() ? labels : labels + "," + sampleLabels;
+      out.write(all.isEmpty() ? name : name + "{" + all + "}");
+      out.write(" " + value + "\n");
+   }
+}
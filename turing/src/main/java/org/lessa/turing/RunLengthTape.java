@@ -0,0 +1,256 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+/**
+ * Tape that stores maximal runs of equal symbols as (start, symbol) pairs instead of cells.
+ * The last run is always blank and extends to infinity, so memory grows with the number of
+ * runs regardless of how many cells they span.
+ * <p>
+ * Runs are kept in order in a gap buffer whose gap follows the run under the head. Heads move
+ * one cell at a time, so finding the current run and splitting or merging runs on a write are
+ * constant time in practice.
+ */
+public class RunLengthTape extends Tape {
+
+   private static final int DEFAULT_CAPACITY = 16;
+
+   /**
+    * Logical index of the run that contains the most recently accessed cell.
+    */
+   private int cursor;
+   private int gapEnd;
+   private int gapStart;
+   private int[] starts;
+   private char[] symbols;
+
+   public RunLengthTape(Character blankSymbol, Character startSymbol) {
+      super(blankSymbol);
+      this.starts = new int[DEFAULT_CAPACITY];
+      this.symbols = new char[DEFAULT_CAPACITY];
+      this.gapStart = 0;
+      this.gapEnd = DEFAULT_CAPACITY;
+      this.cursor = 0;
+      insert(0, 0, startSymbol);
+      insert(1, 1, blankSymbol);
+   }
+
+   public RunLengthTape(Character blankSymbol, Character startSymbol, Character... contents) {
+      this(blankSymbol, startSymbol);
+      for (int i = 0; i < contents.length; i++) {
+         store(i + 1, contents[i]);
+      }
+      markUsed(contents.length);
+   }
+
+   @Override
+   public char charAt(int index) {
+      return index < 0 ? blankSymbol() : symbol(find(index));
+   }
+
+   /**
+    * Fills the destination a run at a time.
+    */
+   @Override
+   public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      int ix = srcBegin;
+      if (ix < 0) {
+         final int end = Math.min(0, srcEnd);
+         Arrays.fill(dst, dstBegin, dstBegin + end - srcBegin, blankSymbol());
+         ix = end;
+      }
+      while (ix < srcEnd) {
+         final int k = find(ix);
+         final int runEnd = k + 1 < runCount() ? Math.min(start(k + 1), srcEnd) : srcEnd;
+         Arrays.fill(dst, dstBegin + ix - srcBegin, dstBegin + runEnd - srcBegin, symbol(k));
+         ix = runEnd;
+      }
+   }
+
+   /**
+    * Number of runs currently stored, including the trailing blank run.
+    *
+    * @return number of runs
+    */
+   public int runCount() {
+      return starts.length - (gapEnd - gapStart);
+   }
+
+   @Override
+   protected int scanRun(int shift, int max) {
+      final int index = currentIndex();
+      final int k = find(index);
+      if (shift < 0) {
+         return Math.min(max, index - start(k) + 1);
+      }
+      // the last run is blank up to infinity
+      return k + 1 < runCount() ? Math.min(max, start(k + 1) - index) : max;
+   }
+
+   @Override
+   protected void store(int index, char symbol) {
+      if (index < 0) {
+         throw new IllegalStateException("Error: tried to write beyond the start of the tape.");
+      }
+
+      final int k = find(index);
+      if (symbol(k) == symbol) {
+         return;
+      }
+
+      final int n = runCount();
+      final int start = start(k);
+      final int end = k + 1 < n ? start(k + 1) : Integer.MAX_VALUE;
+      final boolean mergePrevious = k > 0 && symbol(k - 1) == symbol;
+      final boolean mergeNext = k + 1 < n && symbol(k + 1) == symbol;
+
+      if (end - start == 1) {
+         // single cell run: relabel it, then merge with equal neighbors
+         symbols[physical(k)] = symbol;
+         if (mergeNext) {
+            remove(k + 1);
+         }
+         if (mergePrevious) {
+            remove(k);
+            cursor = k - 1;
+         }
+      }
+      else if (index == start) {
+         if (mergePrevious) {
+            starts[physical(k)] = index + 1;
+            cursor = k - 1;
+         }
+         else {
+            insert(k, index, symbol);
+            starts[physical(k + 1)] = index + 1;
+            cursor = k;
+         }
+      }
+      else if (index == end - 1) {
+         if (mergeNext) {
+            starts[physical(k + 1)] = index;
+         }
+         else {
+            insert(k + 1, index, symbol);
+         }
+         cursor = k + 1;
+      }
+      else {
+         // split the run around the written cell
+         final char previous = symbol(k);
+         insert(k + 1, index, symbol);
+         insert(k + 2, index + 1, previous);
+         cursor = k + 1;
+      }
+   }
+
+   /**
+    * Logical index of the run containing the specified cell. Looks around the cursor first,
+    * and falls back to a binary search for distant cells.
+    */
+   private int find(int index) {
+      final int n = runCount();
+      int k = cursor;
+      if (index < start(k)) {
+         if (k > 0 && index >= start(k - 1)) {
+            k--;
+         }
+         else {
+            k = search(index, 0, k - 1);
+         }
+      }
+      else if (k + 1 < n && index >= start(k + 1)) {
+         if (k + 2 >= n || index < start(k + 2)) {
+            k++;
+         }
+         else {
+            k = search(index, k + 2, n - 1);
+         }
+      }
+      cursor = k;
+      return k;
+   }
+
+   private void insert(int k, int start, char symbol) {
+      if (gapStart == gapEnd) {
+         grow();
+      }
+      moveGap(k);
+      starts[gapStart] = start;
+      symbols[gapStart] = symbol;
+      gapStart++;
+   }
+
+   private void grow() {
+      final FlightRecorderEvents.TapeResizeEvent event = FlightRecorderEvents.AVAILABLE
+            ? FlightRecorderEvents.beginTapeResize()
+            : null;
+      final int capacity = starts.length * 2;
+      final int tail = starts.length - gapEnd;
+      final int[] grownStarts = new int[capacity];
+      final char[] grownSymbols = new char[capacity];
+      System.arraycopy(starts, 0, grownStarts, 0, gapStart);
+      System.arraycopy(symbols, 0, grownSymbols, 0, gapStart);
+      System.arraycopy(starts, gapEnd, grownStarts, capacity - tail, tail);
+      System.arraycopy(symbols, gapEnd, grownSymbols, capacity - tail, tail);
+      starts = grownStarts;
+      symbols = grownSymbols;
+      gapEnd = capacity - tail;
+      if (event != null) {
+         FlightRecorderEvents.endTapeResize(event, this, capacity / 2, capacity);
+      }
+   }
+
+   /**
+    * Moves the gap so that it starts at logical index {@code k}.
+    */
+   private void moveGap(int k) {
+      if (k < gapStart) {
+         final int count = gapStart - k;
+         System.arraycopy(starts, k, starts, gapEnd - count, count);
+         System.arraycopy(symbols, k, symbols, gapEnd - count, count);
+         gapStart -= count;
+         gapEnd -= count;
+      }
+      else if (k > gapStart) {
+         final int count = k - gapStart;
+         System.arraycopy(starts, gapEnd, starts, gapStart, count);
+         System.arraycopy(symbols, gapEnd, symbols, gapStart, count);
+         gapStart += count;
+         gapEnd += count;
+      }
+   }
+
+   private int physical(int k) {
+      return k < gapStart ? k : k + gapEnd - gapStart;
+   }
+
+   private void remove(int k) {
+      moveGap(k + 1);
+      gapStart--;
+   }
+
+   /**
+    * Binary search for the run containing the cell among logical runs {@code [lo, hi]}.
+    */
+   private int search(int index, int lo, int hi) {
+      while (lo < hi) {
+         final int mid = (lo + hi + 1) >>> 1;
+         if (start(mid) <= index) {
+            lo = mid;
+         }
+         else {
+            hi = mid - 1;
+         }
+      }
+      return lo;
+   }
+
+   private int start(int k) {
+      return starts[physical(k)];
+   }
+
+   private char symbol(int k) {
+      return symbols[physical(k)];
+   }
+}
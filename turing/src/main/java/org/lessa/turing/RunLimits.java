@@ -0,0 +1,82 @@
+package org.lessa.turing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable bounds on a single machine run. A run that reaches either bound stops with the
+ * corresponding {@link RunResult.Outcome} instead of continuing indefinitely.
+ */
+public final class RunLimits {
+
+   /**
+    * Limits that never stop a run.
+    */
+   public static final RunLimits NONE = new RunLimits(Long.MAX_VALUE, Long.MAX_VALUE);
+
+   /**
+    * Number of steps between two consecutive deadline checks, minus one. Reading the clock on
+    * every step would cost more than the step itself.
+    */
+   static final long DEADLINE_CHECK_MASK = 0x3FF;
+
+   private final long maxSteps;
+   private final long timeBudgetNanos;
+
+   private RunLimits(long maxSteps, long timeBudgetNanos) {
+      this.maxSteps = maxSteps;
+      this.timeBudgetNanos = timeBudgetNanos;
+   }
+
+   /**
+    * Maximum number of transitions the machine may perform.
+    *
+    * @return step budget, {@link Long#MAX_VALUE} if unbounded
+    */
+   public long maxSteps() {
+      return maxSteps;
+   }
+
+   /**
+    * Maximum wall-clock time the machine may run, measured from the start of the run.
+    *
+    * @return time budget in nanoseconds, {@link Long#MAX_VALUE} if unbounded
+    */
+   public long timeBudgetNanos() {
+      return timeBudgetNanos;
+   }
+
+   public RunLimits withMaxSteps(final long maxSteps) {
+      if (maxSteps < 0) {
+         throw new IllegalArgumentException("The step budget must be non-negative.");
+      }
+      return new RunLimits(maxSteps, timeBudgetNanos);
+   }
+
+   public RunLimits withTimeBudget(final long amount, final TimeUnit unit) {
+      if (amount < 0) {
+         throw new IllegalArgumentException("The time budget must be non-negative.");
+      }
+      return new RunLimits(maxSteps, unit.toNanos(amount));
+   }
+
+   /**
+    * Deadline of a run starting now, in {@link System#nanoTime()} units.
+    *
+    * @return deadline, or {@link Long#MAX_VALUE} if the time budget is unbounded
+    */
+   long deadline() {
+      if (timeBudgetNanos == Long.MAX_VALUE) {
+         return Long.MAX_VALUE;
+      }
+      final long now = System.nanoTime();
+      final long deadline = now + timeBudgetNanos;
+      // saturate budgets so large that the deadline overflows
+      return deadline - now < 0 ? Long.MAX_VALUE : deadline;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("{\"maxSteps\": %d, \"timeBudgetNanos\": %d}", maxSteps,
+            timeBudgetNanos);
+   }
+}
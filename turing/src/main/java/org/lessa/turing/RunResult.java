@@ -0,0 +1,73 @@
+package org.lessa.turing;
+
+/**
+ * Outcome of a single machine run.
+ */
+public final class RunResult {
+
+   public enum Outcome {
+      /**
+       * The run exceeded the time budget of its {@link RunLimits}.
+       */
+      DEADLINE_EXCEEDED,
+      /**
+       * No transition was defined for the current state and head symbols.
+       */
+      DIVERGED,
+      /**
+       * The machine reached one of its final states.
+       */
+      HALTED,
+      /**
+       * The machine returned to a configuration it was in before, so it would never halt.
+       * Only reported when cycle detection is enabled.
+       */
+      LOOPING,
+      /**
+       * The run performed as many steps as allowed by its {@link RunLimits}.
+       */
+      STEP_BUDGET_EXHAUSTED
+   }
+
+   private final String finalState;
+   private final Outcome outcome;
+   private final long steps;
+
+   public RunResult(Outcome outcome, long steps, String finalState) {
+      this.outcome = outcome;
+      this.steps = steps;
+      this.finalState = finalState;
+   }
+
+   /**
+    * State the machine was in when the run stopped, whether or not it is a final state.
+    *
+    * @return last machine state
+    */
+   public String finalState() {
+      return finalState;
+   }
+
+   public boolean halted() {
+      return outcome == Outcome.HALTED;
+   }
+
+   public Outcome outcome() {
+      return outcome;
+   }
+
+   /**
+    * Number of transitions performed by the run.
+    *
+    * @return step count
+    */
+   public long steps() {
+      return steps;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("{\"outcome\": \"%s\", \"steps\": %d, \"finalState\": \"%s\"}",
+            outcome, steps, finalState);
+   }
+}
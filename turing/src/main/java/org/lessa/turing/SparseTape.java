@@ -0,0 +1,18 @@
+package org.lessa.turing;
+
+/**
+ * Tape that keeps written cells in a hash map, the storage of {@link Tape} itself, under a
+ * name of its own next to the other implementations. Memory is proportional to the number of
+ * cells touched regardless of how far apart they are, at the cost of boxing every index and
+ * symbol.
+ */
+public class SparseTape extends Tape {
+
+   public SparseTape(Character blankSymbol, Character startSymbol) {
+      super(blankSymbol, startSymbol);
+   }
+
+   public SparseTape(Character blankSymbol, Character startSymbol, Character... contents) {
+      super(blankSymbol, startSymbol, contents);
+   }
+}
@@ -0,0 +1,335 @@
+package org.lessa.turing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Input tape whose contents, placed right after the start symbol, are read from a source only
+ * as far as the machine looks. Every character of the source is one cell, line terminators
+ * included, so sources should hold nothing but input symbols.
+ * <p>
+ * Cells the machine writes go to pages of {@value #PAGE_SIZE} cells, copied from the input on
+ * the first write to each page, so unwritten input costs no more than its source. Files in a
+ * single-byte charset are memory-mapped and read in place; other sources are decoded into
+ * pages of the same size as the head advances, and count as used cells, as far as
+ * {@link #toString()} and {@link #maxUsedIndex()} are concerned, once they are decoded.
+ * <p>
+ * Read failures, including input that is malformed or unmappable in its charset, are thrown
+ * as {@link UncheckedIOException} from whichever tape method hit them. Closing the tape
+ * closes its source, but keeps every decoded cell.
+ */
+public final class StreamingTape extends Tape implements Closeable {
+
+   private static final int CHUNK_SIZE = 8192;
+   private static final int PAGE_BITS = 12;
+   private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+   /**
+    * Source of input cells, by offset from the first cell after the start symbol.
+    */
+   private interface Source extends Closeable {
+
+      /**
+       * Symbol at the specified input offset.
+       *
+       * @return symbol, or -1 past the end of the input
+       */
+      int charAt(int offset) throws IOException;
+   }
+
+   /**
+    * Source that decodes a reader into pages of {@value #PAGE_SIZE} cells, so that a long
+    * input is never copied as it grows.
+    */
+   private final class DecodingSource implements Source {
+
+      private char[][] decoded = new char[16][];
+      private int length;
+      private Reader reader;
+
+      DecodingSource(Reader reader) {
+         this.reader = reader;
+      }
+
+      @Override
+      public int charAt(int offset) throws IOException {
+         while (offset >= length && reader != null) {
+            final int page = length >>> PAGE_BITS;
+            if (page >= decoded.length) {
+               decoded = Arrays.copyOf(decoded, decoded.length * 2);
+            }
+            if (decoded[page] == null) {
+               decoded[page] = new char[PAGE_SIZE];
+            }
+            final int start = length & (PAGE_SIZE - 1);
+            final int read = reader.read(decoded[page], start, PAGE_SIZE - start);
+            if (read < 0) {
+               close();
+            }
+            else {
+               length += read;
+               markUsed(length);
+            }
+         }
+         return offset < length ? decoded[offset >>> PAGE_BITS][offset & (PAGE_SIZE - 1)] : -1;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (reader != null) {
+            final Reader open = reader;
+            reader = null;
+            open.close();
+         }
+      }
+   }
+
+   /**
+    * Source that reads a memory-mapped file in a single-byte charset in place.
+    */
+   private static final class MappedSource implements Source {
+
+      private final ByteBuffer bytes;
+      private final int[] symbols;
+
+      MappedSource(ByteBuffer bytes, Charset charset) {
+         this.bytes = bytes;
+         // the charset's symbol for every byte value, decoded once, or -1 if it has none
+         this.symbols = new int[256];
+         final CharsetDecoder decoder = decoder(charset);
+         for (int b = 0; b < symbols.length; b++) {
+            try {
+               final CharBuffer symbol = decoder.decode(ByteBuffer.wrap(new byte[] { (byte) b }));
+               symbols[b] = symbol.length() == 1 ? symbol.get(0) : -1;
+            }
+            catch (final CharacterCodingException cce) {
+               symbols[b] = -1;
+            }
+         }
+      }
+
+      @Override
+      public int charAt(int offset) throws IOException {
+         if (offset >= bytes.limit()) {
+            return -1;
+         }
+         final int symbol = symbols[bytes.get(offset) & 0xFF];
+         if (symbol < 0) {
+            throw new MalformedInputException(1);
+         }
+         return symbol;
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+   /**
+    * Reader that decodes a memory-mapped file, for charsets with multi-byte symbols.
+    */
+   private static final class MappedReader extends Reader {
+
+      private final ByteBuffer bytes;
+      private final CharsetDecoder decoder;
+      private boolean flushed;
+
+      MappedReader(ByteBuffer bytes, Charset charset) {
+         this.bytes = bytes;
+         this.decoder = decoder(charset);
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public int read(char[] buffer, int offset, int length) throws IOException {
+         if (flushed) {
+            return -1;
+         }
+         final CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+         CoderResult result = decoder.decode(bytes, out, true);
+         if (!result.isError() && !bytes.hasRemaining()) {
+            result = decoder.flush(out);
+            flushed = result.isUnderflow();
+         }
+         if (result.isError()) {
+            result.throwException();
+         }
+         final int read = out.position() - offset;
+         return read == 0 && flushed ? -1 : read;
+      }
+   }
+
+   private char[][] pages = new char[16][];
+   private final Source source;
+   private final char startSymbol;
+
+   private StreamingTape(char blankSymbol, char startSymbol, MappedSource source) {
+      super(blankSymbol);
+      this.source = source;
+      this.startSymbol = startSymbol;
+   }
+
+   private StreamingTape(char blankSymbol, char startSymbol, Reader reader) {
+      super(blankSymbol);
+      this.source = new DecodingSource(reader);
+      this.startSymbol = startSymbol;
+   }
+
+   /**
+    * Decoder that reports malformed and unmappable input, the policy of every source.
+    */
+   private static CharsetDecoder decoder(Charset charset) {
+      return charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+   }
+
+   /**
+    * Creates a tape that memory-maps a file and reads its characters as input cells.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @param path
+    *           input file, of less than 2 GiB
+    * @param charset
+    *           charset of the file
+    * @return new tape
+    * @throws IOException
+    *            if the file cannot be mapped
+    */
+   public static StreamingTape fromFile(Character blankSymbol, Character startSymbol,
+         Path path, Charset charset) throws IOException {
+      final MappedByteBuffer bytes;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         if (channel.size() >= Integer.MAX_VALUE) {
+            throw new IOException("The input file does not fit on a tape: " + path);
+         }
+         // the mapping stays valid after the channel is closed
+         bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1) {
+         final StreamingTape tape = new StreamingTape(blankSymbol, startSymbol,
+               new MappedSource(bytes, charset));
+         tape.markUsed(bytes.limit());
+         return tape;
+      }
+      return fromReader(blankSymbol, startSymbol, new MappedReader(bytes, charset));
+   }
+
+   /**
+    * Creates a tape that decodes an input stream as the head advances.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @param in
+    *           input, owned by the tape from now on
+    * @param charset
+    *           charset of the input
+    * @return new tape
+    */
+   public static StreamingTape fromInputStream(Character blankSymbol, Character startSymbol,
+         InputStream in, Charset charset) {
+      return fromReader(blankSymbol, startSymbol,
+            new BufferedReader(new InputStreamReader(in, decoder(charset)), CHUNK_SIZE));
+   }
+
+   /**
+    * Creates a tape that reads characters as the head advances.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @param reader
+    *           input, owned by the tape from now on
+    * @return new tape
+    */
+   public static StreamingTape fromReader(Character blankSymbol, Character startSymbol,
+         Reader reader) {
+      return new StreamingTape(blankSymbol, startSymbol, reader);
+   }
+
+   /**
+    * Symbol stored at the specified cell, reading the input up to it if needed.
+    *
+    * @throws UncheckedIOException
+    *            if the input cannot be read
+    */
+   @Override
+   public char charAt(int index) {
+      if (index < 0) {
+         return blankSymbol();
+      }
+      final int page = index >>> PAGE_BITS;
+      if (page < pages.length && pages[page] != null) {
+         return pages[page][index & (PAGE_SIZE - 1)];
+      }
+      return input(index);
+   }
+
+   @Override
+   public void close() throws IOException {
+      source.close();
+   }
+
+   @Override
+   protected void store(int index, char symbol) {
+      if (index < 0) {
+         throw new IllegalStateException("Error: tried to write beyond the start of the tape.");
+      }
+      final int page = index >>> PAGE_BITS;
+      if (page >= pages.length) {
+         pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+      }
+      if (pages[page] == null) {
+         // copy on first write, so that the page alone holds its cells from now on
+         final char[] cells = new char[PAGE_SIZE];
+         final int first = page << PAGE_BITS;
+         for (int ix = 0; ix < PAGE_SIZE; ix++) {
+            cells[ix] = input(first + ix);
+         }
+         pages[page] = cells;
+      }
+      pages[page][index & (PAGE_SIZE - 1)] = symbol;
+   }
+
+   /**
+    * Unwritten symbol of a cell: the start symbol, an input symbol or a blank.
+    */
+   private char input(int index) {
+      if (index == 0) {
+         return startSymbol;
+      }
+      try {
+         final int symbol = source.charAt(index - 1);
+         return symbol < 0 ? blankSymbol() : (char) symbol;
+      }
+      catch (final IOException ioe) {
+         throw new UncheckedIOException(ioe);
+      }
+   }
+}
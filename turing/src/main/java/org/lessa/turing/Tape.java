@@ -1,60 +1,459 @@
 package org.lessa.turing;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.IntStream;
 
+/**
+ * Machine tape, infinite to the right, with a single read/write head. Cells that were never
+ * written contain the blank symbol. A tape created with the public constructors keeps its
+ * cells in a hash map, like {@link SparseTape}; subclasses such as {@link ArrayTape}, the
+ * default storage of machines, only decide how cells are stored, while head movement and the
+ * bookkeeping of the used range are shared.
+ */
 public class Tape {
 
-   private final Character blankSymbol;
+   /**
+    * Number of cells copied at a time when writing a tape out.
+    */
+   private static final int OUTPUT_CHUNK = 8192;
+
+   /**
+    * Live, read-only view of a range of cells.
+    */
+   private static final class View implements CharSequence {
+
+      private final int end;
+      private final int start;
+      private final Tape tape;
+
+      View(Tape tape, int start, int end) {
+         this.end = end;
+         this.start = start;
+         this.tape = tape;
+      }
+
+      @Override
+      public char charAt(int index) {
+         if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("No character at " + index + ".");
+         }
+         return tape.charAt(start + index);
+      }
+
+      @Override
+      public int length() {
+         return end - start;
+      }
+
+      @Override
+      public CharSequence subSequence(int from, int to) {
+         if (from < 0 || from > to || to > end - start) {
+            throw new IndexOutOfBoundsException(
+                  String.format("Invalid range [%d, %d) of %d characters.", from, to,
+                        end - start));
+         }
+         return new View(tape, start + from, start + to);
+      }
+
+      @Override
+      public String toString() {
+         final char[] cells = new char[end - start];
+         tape.getChars(start, end, cells, 0);
+         return new String(cells);
+      }
+   }
+
+   private final char blankSymbol;
    private int currentIndex;
    private int maxUsedIndex;
    private int minUsedIndex;
    private final Map<Integer, Character> tapeSymbols;
 
    public Tape(Character blankSymbol, Character startSymbol) {
+      this(blankSymbol, new HashMap<>());
+      this.tapeSymbols.put(0, startSymbol);
+   }
+
+   public Tape(Character blankSymbol, Character startSymbol, Character... contents) {
+      this(blankSymbol, startSymbol);
+      for (int i = 0; i < contents.length; i++) {
+         this.tapeSymbols.put(i + 1, contents[i]);
+      }
+      markUsed(contents.length);
+   }
+
+   /**
+    * Creates a tape whose subclass stores the cells, and so overrides {@link #charAt(int)}
+    * and {@link #store(int, char)}.
+    *
+    * @param blankSymbol
+    *           blank symbol
+    */
+   protected Tape(Character blankSymbol) {
+      this(blankSymbol, (Map<Integer, Character>) null);
+   }
+
+   private Tape(Character blankSymbol, Map<Integer, Character> tapeSymbols) {
       this.blankSymbol = blankSymbol;
       this.currentIndex = 0;
       this.minUsedIndex = 0;
       this.maxUsedIndex = 0;
-      this.tapeSymbols = new HashMap<>();
-      this.tapeSymbols.put(currentIndex, startSymbol);
+      this.tapeSymbols = tapeSymbols;
    }
 
-   public Tape(Character blankSymbol, Character startSymbol, Character... contents) {
-      this(blankSymbol, startSymbol);
-      for (int i = 1; i <= contents.length; i++) {
-         this.tapeSymbols.put(i, contents[i]);
+   /**
+    * Blank symbol returned for every cell that was never written.
+    *
+    * @return blank symbol
+    */
+   public final char blankSymbol() {
+      return blankSymbol;
+   }
+
+   /**
+    * Symbol stored at the specified cell, or the blank symbol if the cell was never written.
+    *
+    * @param index
+    *           absolute cell index
+    * @return symbol at the cell
+    */
+   public char charAt(int index) {
+      final Character symbol = tapeSymbols.get(index);
+      return symbol == null ? blankSymbol : symbol;
+   }
+
+   /**
+    * Index of the cell under the head.
+    *
+    * @return head position
+    */
+   public final int currentIndex() {
+      return currentIndex;
+   }
+
+   /**
+    * Takes over the head position and used range of another tape, whose cells this tape
+    * already holds, such as the tape it was forked from.
+    */
+   final void copyHead(Tape other) {
+      this.currentIndex = other.currentIndex;
+      this.maxUsedIndex = other.maxUsedIndex;
+      this.minUsedIndex = other.minUsedIndex;
+   }
+
+   /**
+    * Copies a range of cells into an array, like {@link String#getChars(int, int, char[], int)}.
+    * Cells that were never written are copied as blanks.
+    *
+    * @param srcBegin
+    *           first cell to copy
+    * @param srcEnd
+    *           cell after the last one to copy
+    * @param dst
+    *           destination array
+    * @param dstBegin
+    *           destination offset
+    */
+   public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      for (int ix = srcBegin; ix < srcEnd; ix++) {
+         dst[dstBegin + ix - srcBegin] = charAt(ix);
       }
    }
 
+   /**
+    * Highest cell index written so far.
+    *
+    * @return maximum used index
+    */
+   public final int maxUsedIndex() {
+      return maxUsedIndex;
+   }
+
+   /**
+    * Lowest cell index written so far.
+    *
+    * @return minimum used index
+    */
+   public final int minUsedIndex() {
+      return minUsedIndex;
+   }
+
    public void move(Move direction) {
-      currentIndex += direction == Move.RIGHT ? 1 : direction == Move.LEFT ? -1 : 0;
+      currentIndex += shift(direction);
       if (currentIndex < 0) {
          throw new IllegalStateException("Error: tried to move beyond the start of the tape.");
       }
    }
 
+   /**
+    * Number of consecutive cells, starting at the head and going in the specified direction,
+    * that hold the same symbol as the cell under the head. The count never exceeds the limit
+    * and never takes the head beyond the start of the tape, so {@code sweep(direction, n)}
+    * is always valid for the returned {@code n}.
+    *
+    * @param direction
+    *           direction of the run
+    * @param limit
+    *           maximum count of interest
+    * @return length of the run, between 0 and {@code limit}
+    */
+   public int runLength(Move direction, int limit) {
+      final int shift = shift(direction);
+      if (shift == 0) {
+         return limit;
+      }
+      return scanRun(shift, shift < 0 ? Math.min(limit, currentIndex)
+            : Math.min(limit, Integer.MAX_VALUE - currentIndex));
+   }
+
    public Character read() {
-      final Character symbol = tapeSymbols.get(currentIndex);
-      return symbol == null ? blankSymbol : symbol;
+      return readChar();
+   }
+
+   /**
+    * Primitive counterpart of {@link #read()}, which does not box the symbol.
+    *
+    * @return symbol under the head
+    */
+   public char readChar() {
+      return charAt(currentIndex);
+   }
+
+   /**
+    * Overwrites the used range and the head position with those of a snapshot. The tape is
+    * expected to be fresh, so that every cell outside the restored range is blank.
+    */
+   final void restore(int currentIndex, int minUsedIndex, char[] cells) {
+      for (int ix = 0; ix < cells.length; ix++) {
+         store(minUsedIndex + ix, cells[ix]);
+      }
+      markUsed(minUsedIndex);
+      markUsed(minUsedIndex + cells.length - 1);
+      this.currentIndex = currentIndex;
    }
 
+   /**
+    * Moves the head over a run of equal symbols, with the same effect as writing back the
+    * symbol under the head and moving once, {@code count} times in a row. The caller must
+    * have obtained the count from {@link #runLength(Move, int)}.
+    *
+    * @param direction
+    *           direction of the run
+    * @param count
+    *           number of cells to move over
+    */
+   public void sweep(Move direction, int count) {
+      if (count <= 0) {
+         return;
+      }
+      final int shift = shift(direction);
+      markUsed(currentIndex);
+      markUsed(currentIndex + shift * (count - 1));
+      currentIndex += shift * count;
+   }
+
+   /**
+    * Contents of the used range. Large tapes are better written out with
+    * {@link #writeTo(Writer)} or read through {@link #view()}, which do not copy them.
+    */
    @Override
    public String toString() {
       final char[] cells = new char[maxUsedIndex - minUsedIndex + 1];
-      IntStream.range(minUsedIndex, maxUsedIndex + 1)
-            .forEach(ix -> cells[ix] = tapeSymbols.get(ix));
+      getChars(minUsedIndex, maxUsedIndex + 1, cells, 0);
       return new String(cells);
    }
 
+   /**
+    * Live view of the used range, which reads cells from the tape as it is accessed and
+    * reflects later writes, but not later changes to the used range.
+    *
+    * @return view of the used range
+    */
+   public CharSequence view() {
+      return view(minUsedIndex, maxUsedIndex + 1);
+   }
+
+   /**
+    * Live view of a range of cells, which reads them from the tape as it is accessed. Cells
+    * outside the used range read as blanks.
+    *
+    * @param start
+    *           first cell of the range
+    * @param end
+    *           cell after the last one of the range
+    * @return view of the range
+    */
+   public CharSequence view(int start, int end) {
+      if (start < 0 || start > end) {
+         throw new IndexOutOfBoundsException(
+               String.format("Invalid range [%d, %d) of tape cells.", start, end));
+      }
+      return new View(this, start, end);
+   }
+
    public void write(Character symbol) {
-      tapeSymbols.put(currentIndex, symbol);
-      if (currentIndex > maxUsedIndex) {
-         maxUsedIndex = currentIndex;
+      writeChar(symbol);
+   }
+
+   /**
+    * Primitive counterpart of {@link #write(Character)}, which does not box the symbol.
+    *
+    * @param symbol
+    *           symbol to write under the head
+    */
+   public void writeChar(char symbol) {
+      store(currentIndex, symbol);
+      markUsed(currentIndex);
+   }
+
+   /**
+    * Encodes the used range, the same text as {@link #toString()}, in UTF-8 to a channel.
+    *
+    * @param channel
+    *           destination, left open
+    * @throws IOException
+    *            if the channel cannot be written
+    */
+   public void writeTo(WritableByteChannel channel) throws IOException {
+      writeTo(channel, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Encodes the used range, the same text as {@link #toString()}, to a channel. The tape is
+    * copied and encoded a chunk at a time, so memory does not grow with its size.
+    *
+    * @param channel
+    *           destination, left open
+    * @param charset
+    *           charset to encode the cells in
+    * @throws IOException
+    *            if the channel cannot be written or a cell cannot be encoded
+    */
+   public void writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+      final CharsetEncoder encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+      final char[] chunk = new char[OUTPUT_CHUNK];
+      final CharBuffer chars = CharBuffer.wrap(chunk);
+      final ByteBuffer bytes = ByteBuffer
+            .allocate((int) Math.ceil(OUTPUT_CHUNK * encoder.maxBytesPerChar()));
+      for (int ix = minUsedIndex; ix <= maxUsedIndex; ix += OUTPUT_CHUNK) {
+         final int count = Math.min(OUTPUT_CHUNK, maxUsedIndex - ix + 1);
+         getChars(ix, ix + count, chunk, 0);
+         chars.clear().limit(count);
+         encode(encoder, chars, bytes, channel, ix + count > maxUsedIndex);
       }
-      if (currentIndex < minUsedIndex) {
-         minUsedIndex = currentIndex;
+      bytes.clear();
+      drain(encoder.flush(bytes), bytes, channel);
+   }
+
+   /**
+    * Writes the used range, the same text as {@link #toString()}, to a writer. The tape is
+    * copied a chunk at a time, so memory does not grow with its size.
+    *
+    * @param out
+    *           destination, neither flushed nor closed
+    * @throws IOException
+    *            if the writer fails
+    */
+   public void writeTo(Writer out) throws IOException {
+      final char[] chunk = new char[OUTPUT_CHUNK];
+      for (int ix = minUsedIndex; ix <= maxUsedIndex; ix += OUTPUT_CHUNK) {
+         final int count = Math.min(OUTPUT_CHUNK, maxUsedIndex - ix + 1);
+         getChars(ix, ix + count, chunk, 0);
+         out.write(chunk, 0, count);
+      }
+   }
+
+   /**
+    * Extends the used range to include the specified cell. Subclasses that populate cells
+    * without going through {@link #writeChar(char)} must call this for those cells.
+    *
+    * @param index
+    *           absolute cell index
+    */
+   protected final void markUsed(int index) {
+      if (index > maxUsedIndex) {
+         maxUsedIndex = index;
+      }
+      if (index < minUsedIndex) {
+         minUsedIndex = index;
+      }
+   }
+
+   /**
+    * Counts the cells equal to the one under the head, starting at the head and stepping by
+    * {@code shift}. Implementations may stop early at a run boundary they know of, but never
+    * count past {@code max}.
+    *
+    * @param shift
+    *           -1 to scan left, 1 to scan right
+    * @param max
+    *           maximum count, already capped to the extent of the tape
+    * @return length of the run, at most {@code max}
+    */
+   protected int scanRun(int shift, int max) {
+      final char symbol = readChar();
+      int length = 0;
+      for (int ix = currentIndex; length < max && charAt(ix) == symbol; ix += shift) {
+         // nothing but blanks past the used range
+         if (shift > 0 && ix > maxUsedIndex && symbol == blankSymbol) {
+            return max;
+         }
+         length++;
+      }
+      return length;
+   }
+
+   /**
+    * Stores a symbol at the specified cell. Used range bookkeeping is done by the caller.
+    *
+    * @param index
+    *           absolute cell index
+    * @param symbol
+    *           symbol to store
+    */
+   protected void store(int index, char symbol) {
+      tapeSymbols.put(index, symbol);
+   }
+
+   private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes,
+         WritableByteChannel channel, boolean endOfInput) throws IOException {
+      while (true) {
+         bytes.clear();
+         final CoderResult result = encoder.encode(chars, bytes, endOfInput);
+         drain(result, bytes, channel);
+         if (result.isUnderflow()) {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Writes out what the last encoding step produced, or throws its error.
+    */
+   private static void drain(CoderResult result, ByteBuffer bytes,
+         WritableByteChannel channel) throws IOException {
+      if (result.isError()) {
+         result.throwException();
+      }
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+         channel.write(bytes);
       }
    }
+
+   static int shift(Move direction) {
+      return direction == Move.RIGHT ? 1 : direction == Move.LEFT ? -1 : 0;
+   }
 }
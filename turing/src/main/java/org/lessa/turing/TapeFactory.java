@@ -0,0 +1,77 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+/**
+ * Creates empty tapes for a machine. Machines use their factory for every work tape and for
+ * the input tape when none is given, so it decides how cells are stored.
+ */
+@FunctionalInterface
+public interface TapeFactory {
+
+   /**
+    * Factory of {@link ArrayTape} instances, the default for new machines.
+    */
+   TapeFactory ARRAY = ArrayTape::new;
+
+   /**
+    * Factory of {@link CodedTape} instances over the machine's alphabet, for compiled machines
+    * that should read and write symbol codes. Without an alphabet, tapes only hold the blank
+    * and start symbols.
+    */
+   TapeFactory CODED = new TapeFactory() {
+
+      @Override
+      public Tape create(Alphabet alphabet, Character blankSymbol, Character startSymbol) {
+         return new CodedTape(alphabet, blankSymbol, startSymbol);
+      }
+
+      @Override
+      public Tape create(Character blankSymbol, Character startSymbol) {
+         return new CodedTape(new Alphabet(Arrays.asList(blankSymbol, startSymbol)),
+               blankSymbol, startSymbol);
+      }
+   };
+
+   /**
+    * Factory of {@link PersistentTape} instances, for tapes that are forked.
+    */
+   TapeFactory PERSISTENT = PersistentTape::new;
+
+   /**
+    * Factory of {@link RunLengthTape} instances, for tapes made of long runs of equal symbols.
+    */
+   TapeFactory RUN_LENGTH = RunLengthTape::new;
+
+   /**
+    * Factory of {@link SparseTape} instances, for tapes with few cells far apart.
+    */
+   TapeFactory SPARSE = SparseTape::new;
+
+   /**
+    * Creates an empty tape holding the start symbol at index 0.
+    *
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @return new tape
+    */
+   Tape create(Character blankSymbol, Character startSymbol);
+
+   /**
+    * Creates an empty tape for a machine with the specified alphabet, which factories may use
+    * to intern symbols. Ignores the alphabet by default.
+    *
+    * @param alphabet
+    *           machine alphabet, including the blank and start symbols
+    * @param blankSymbol
+    *           symbol of cells that were never written
+    * @param startSymbol
+    *           symbol at index 0
+    * @return new tape
+    */
+   default Tape create(Alphabet alphabet, Character blankSymbol, Character startSymbol) {
+      return create(blankSymbol, startSymbol);
+   }
+}
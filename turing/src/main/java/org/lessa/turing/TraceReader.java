@@ -0,0 +1,371 @@
+package org.lessa.turing;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader of the binary traces written by {@link TraceWriter}. Records are read in place from
+ * memory-mapped regions of the trace, so finding the record of any step takes constant time
+ * when every record is a single step, and a binary search over the records when the run took
+ * macro steps. Tape contents at any step are replayed from the closest checkpoint before it.
+ */
+public final class TraceReader implements Closeable {
+
+   private static final Move[] MOVES = Move.values();
+
+   private final Alphabet alphabet;
+   private final char blankSymbol;
+   private final FileChannel channel;
+   private final long[] checkpointOffsets;
+   private final Path checkpointPath;
+   private final long[] checkpointRecords;
+   private final boolean dense;
+   private final int headerSize;
+   private final int numTapes;
+   private final long recordCount;
+   private final int recordSize;
+   private final int recordsPerRegion;
+   private final MappedByteBuffer[] regions;
+   private final char startSymbol;
+   private final String[] states;
+   private final int symbolWidth;
+
+   /**
+    * Opens a trace and indexes its checkpoints.
+    *
+    * @param path
+    *           trace file, with its checkpoint file next to it
+    * @throws IOException
+    *            if either file cannot be read or is not a complete trace
+    */
+   public TraceReader(Path path) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      try (InputStream file = Files.newInputStream(path);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+         if (in.readInt() != TraceWriter.MAGIC || in.readShort() != TraceWriter.VERSION) {
+            throw new IOException("Not a machine trace: " + path);
+         }
+         in.readShort();
+         this.recordCount = in.readLong();
+         this.dense = (in.readShort() & TraceWriter.FLAG_DENSE) != 0;
+         this.numTapes = in.readInt();
+         this.symbolWidth = in.readInt();
+         this.recordSize = in.readInt();
+         in.readLong();
+         this.blankSymbol = in.readChar();
+         this.startSymbol = in.readChar();
+         final List<Character> symbols = new ArrayList<>();
+         for (int count = in.readInt(); count > 0; count--) {
+            symbols.add(in.readChar());
+         }
+         this.alphabet = new Alphabet(symbols);
+         this.states = new String[in.readInt()];
+         for (int code = 0; code < states.length; code++) {
+            states[code] = in.readUTF();
+         }
+         this.headerSize = in.readInt();
+      }
+      catch (final IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+      if (channel.size() < headerSize + recordCount * recordSize) {
+         channel.close();
+         throw new IOException("Truncated machine trace: " + path);
+      }
+
+      // regions of whole records, mapped up front since they are only paged in when read
+      this.recordsPerRegion = TraceWriter.REGION_BYTES / recordSize;
+      this.regions = new MappedByteBuffer[(int) ((recordCount + recordsPerRegion - 1)
+            / recordsPerRegion)];
+      for (int i = 0; i < regions.length; i++) {
+         final long first = (long) i * recordsPerRegion;
+         regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+               headerSize + first * recordSize,
+               Math.min(recordsPerRegion, recordCount - first) * recordSize);
+      }
+
+      this.checkpointPath = TraceWriter.checkpointPath(path);
+      final List<long[]> index = indexCheckpoints();
+      this.checkpointRecords = new long[index.size()];
+      this.checkpointOffsets = new long[index.size()];
+      for (int i = 0; i < index.size(); i++) {
+         checkpointRecords[i] = index.get(i)[0];
+         checkpointOffsets[i] = index.get(i)[1];
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+
+   /**
+    * Whether every record covers a single step, in which case the record of step N is
+    * record N.
+    *
+    * @return {@code true} if the run took no macro steps
+    */
+   public boolean dense() {
+      return dense;
+   }
+
+   /**
+    * Symbol under the head of a tape when the record's transition was taken.
+    *
+    * @param record
+    *           record index
+    * @param tape
+    *           tape index
+    * @return head symbol, or {@link Character#MAX_VALUE} if it was not in the alphabet
+    */
+   public char headSymbol(long record, int tape) {
+      return symbol(record, 20 + tape * symbolWidth);
+   }
+
+   /**
+    * Number of steps covered by a record, one unless the record is a macro step.
+    *
+    * @param record
+    *           record index
+    * @return number of steps
+    */
+   public int length(long record) {
+      return region(record).getInt(offset(record) + 8);
+   }
+
+   public Move move(long record, int tape) {
+      return MOVES[region(record).get(offset(record) + 20 + 2 * numTapes * symbolWidth + tape)];
+   }
+
+   public String nextState(long record) {
+      return stateName(region(record).getInt(offset(record) + 16));
+   }
+
+   public int numTapes() {
+      return numTapes;
+   }
+
+   public char output(long record, int tape) {
+      return symbol(record, 20 + (numTapes + tape) * symbolWidth);
+   }
+
+   public long recordCount() {
+      return recordCount;
+   }
+
+   /**
+    * Index of the record that covers the specified step.
+    *
+    * @param step
+    *           step, from 0
+    * @return record index, or {@link #recordCount()} if the trace ends before the step
+    */
+   public long recordAt(long step) {
+      if (step < 0) {
+         throw new IllegalArgumentException("Steps start at 0.");
+      }
+      if (dense) {
+         return Math.min(step, recordCount);
+      }
+      if (recordCount == 0 || step >= stateId(recordCount - 1) + length(recordCount - 1)) {
+         return recordCount;
+      }
+      long lo = 0;
+      long hi = recordCount - 1;
+      while (lo < hi) {
+         final long mid = (lo + hi + 1) >>> 1;
+         if (stateId(mid) <= step) {
+            lo = mid;
+         }
+         else {
+            hi = mid - 1;
+         }
+      }
+      return lo;
+   }
+
+   public String state(long record) {
+      return stateName(region(record).getInt(offset(record) + 12));
+   }
+
+   /**
+    * State id, that is, the step at which the record's transition was taken.
+    *
+    * @param record
+    *           record index
+    * @return state id
+    */
+   public long stateId(long record) {
+      return region(record).getLong(offset(record));
+   }
+
+   /**
+    * Total number of steps in the trace.
+    *
+    * @return number of steps
+    */
+   public long steps() {
+      return recordCount == 0 ? 0 : stateId(recordCount - 1) + length(recordCount - 1);
+   }
+
+   /**
+    * Contents of every tape right before the specified step, restored from the closest
+    * checkpoint and replayed from the records after it.
+    *
+    * @param step
+    *           step between 0 and {@link #steps()}
+    * @return new tapes, in machine order
+    * @throws IOException
+    *            if the checkpoint file cannot be read
+    */
+   public List<Tape> tapesAt(long step) throws IOException {
+      if (step > steps()) {
+         throw new IllegalArgumentException("The trace ends at step " + steps() + ".");
+      }
+      final long target = recordAt(step);
+      int checkpoint = Arrays.binarySearch(checkpointRecords, target);
+      checkpoint = checkpoint >= 0 ? checkpoint : -checkpoint - 2;
+      if (checkpoint < 0) {
+         throw new IOException("No checkpoint before step " + step + ".");
+      }
+
+      final List<Tape> tapes = restore(checkpointOffsets[checkpoint]);
+      for (long record = checkpointRecords[checkpoint]; record < target; record++) {
+         replay(tapes, record, length(record));
+      }
+      if (target < recordCount) {
+         replay(tapes, target, (int) (step - stateId(target)));
+      }
+      return tapes;
+   }
+
+   /**
+    * Scans the checkpoint file once, collecting the record index and file offset of every
+    * checkpoint.
+    */
+   private List<long[]> indexCheckpoints() throws IOException {
+      final List<long[]> index = new ArrayList<>();
+      try (InputStream file = Files.newInputStream(checkpointPath);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+         long offset = 0;
+         while (true) {
+            final long record;
+            try {
+               record = in.readLong();
+            }
+            catch (final EOFException eof) {
+               return index;
+            }
+            index.add(new long[] { record, offset });
+            in.readLong();
+            final int tapes = in.readInt();
+            offset += 20;
+            for (int i = 0; i < tapes; i++) {
+               in.readInt();
+               final int min = in.readInt();
+               final int max = in.readInt();
+               final long cells = 2L * (max - min + 1);
+               skipFully(in, cells);
+               offset += 12 + cells;
+            }
+         }
+      }
+   }
+
+   private int offset(final long record) {
+      return (int) (record % recordsPerRegion) * recordSize;
+   }
+
+   private ByteBuffer region(final long record) {
+      if (record < 0 || record >= recordCount) {
+         throw new IndexOutOfBoundsException("No record " + record + ".");
+      }
+      return regions[(int) (record / recordsPerRegion)];
+   }
+
+   /**
+    * Applies the first {@code steps} steps of a record to the tapes.
+    */
+   private void replay(final List<Tape> tapes, final long record, final int steps) {
+      if (steps <= 0) {
+         return;
+      }
+      for (int i = 0; i < numTapes; i++) {
+         final Tape tape = tapes.get(i);
+         final Move move = move(record, i);
+         tape.writeChar(output(record, i));
+         // a macro step writes back the symbols it reads over a run of equal cells
+         tape.move(move);
+         tape.sweep(move, steps - 1);
+      }
+   }
+
+   private List<Tape> restore(final long offset) throws IOException {
+      try (InputStream file = Files.newInputStream(checkpointPath);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+         skipFully(in, offset);
+         in.readLong();
+         in.readLong();
+         final int count = in.readInt();
+         final List<Tape> tapes = new ArrayList<>(count);
+         for (int i = 0; i < count; i++) {
+            final int current = in.readInt();
+            final int min = in.readInt();
+            final int max = in.readInt();
+            final Tape tape = new ArrayTape(blankSymbol, startSymbol);
+            for (int ix = 0; ix <= max; ix++) {
+               if (ix >= min) {
+                  tape.writeChar(in.readChar());
+               }
+               if (ix < max) {
+                  tape.move(Move.RIGHT);
+               }
+            }
+            while (tape.currentIndex() > current) {
+               tape.move(Move.LEFT);
+            }
+            while (tape.currentIndex() < current) {
+               tape.move(Move.RIGHT);
+            }
+            tapes.add(tape);
+         }
+         return tapes;
+      }
+   }
+
+   private static void skipFully(final InputStream in, final long count) throws IOException {
+      long remaining = count;
+      while (remaining > 0) {
+         final long skipped = in.skip(remaining);
+         if (skipped <= 0) {
+            throw new EOFException("Truncated checkpoint file.");
+         }
+         remaining -= skipped;
+      }
+   }
+
+   private String stateName(final int code) {
+      return code < 0 || code >= states.length ? null : states[code];
+   }
+
+   private char symbol(final long record, final int position) {
+      final ByteBuffer region = region(record);
+      final int code = symbolWidth == 1 ? region.get(offset(record) + position) & 0xFF
+            : region.getShort(offset(record) + position) & 0xFFFF;
+      return code < alphabet.size() ? alphabet.symbol(code) : Character.MAX_VALUE;
+   }
+}
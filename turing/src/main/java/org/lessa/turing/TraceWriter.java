@@ -0,0 +1,323 @@
+package org.lessa.turing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.lessa.turing.Event.OnDiverged;
+import org.lessa.turing.Event.OnHalted;
+import org.lessa.turing.Event.OnStateChanged;
+import org.lessa.turing.Event.OnTransition;
+
+/**
+ * Event handler that records a run as a binary trace, read back with {@link TraceReader}.
+ * <p>
+ * The trace file holds a header, with the alphabet and the state names, followed by one
+ * fixed-width record per transition: the state id, the number of steps it covers (more than
+ * one for macro steps), the state and next state codes, then the head symbol, output symbol
+ * and move of every tape. Records are written straight into memory-mapped regions of the
+ * file, so the step loop never formats or copies text. Every {@code checkpointInterval}
+ * records, the contents of all tapes are appended to a sidecar file named after the trace
+ * with a {@value #CHECKPOINT_SUFFIX} suffix, from which the reader replays tapes.
+ * <p>
+ * A writer records a single run, from its first event, and is not thread-safe. The trace is
+ * complete once the writer is closed.
+ */
+public final class TraceWriter implements Event.EventHandler, Closeable {
+
+   public static final String CHECKPOINT_SUFFIX = ".ckpt";
+   public static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 20;
+
+   static final short FLAG_DENSE = 1;
+   static final int MAGIC = 0x544D5452;
+   /**
+    * Bytes mapped at a time, rounded down to a whole number of records.
+    */
+   static final int REGION_BYTES = 1 << 26;
+   /**
+    * Offset of the record count, which is only known when the writer is closed.
+    */
+   static final int RECORD_COUNT_OFFSET = 8;
+   static final short VERSION = 1;
+
+   private Alphabet alphabet;
+   private final FileChannel channel;
+   private final DataOutputStream checkpoints;
+   private final long checkpointInterval;
+   private MachineDefinition definition;
+   private boolean dense = true;
+   private int[] headCodes;
+   private int headerSize;
+   private int numTapes;
+   private String pendingState;
+   private long pendingStateId = -1;
+   private Transition pendingTransition;
+   private long recordCount;
+   private int recordSize;
+   private MappedByteBuffer region;
+   private long regionIndex = -1;
+   private int recordsPerRegion;
+   private final Map<String, Integer> stateCodes = new HashMap<>();
+   private int symbolWidth;
+
+   /**
+    * Creates a writer with the default checkpoint interval.
+    *
+    * @param path
+    *           trace file, created or truncated
+    * @throws IOException
+    *            if the trace or checkpoint file cannot be created
+    */
+   public TraceWriter(Path path) throws IOException {
+      this(path, DEFAULT_CHECKPOINT_INTERVAL);
+   }
+
+   /**
+    * Creates a writer. The header is written when the first event arrives, from the
+    * definition of the machine that sent it.
+    *
+    * @param path
+    *           trace file, created or truncated
+    * @param checkpointInterval
+    *           number of records between two tape checkpoints
+    * @throws IOException
+    *            if the trace or checkpoint file cannot be created
+    */
+   public TraceWriter(Path path, long checkpointInterval) throws IOException {
+      if (checkpointInterval < 1) {
+         throw new IllegalArgumentException("The checkpoint interval must be positive.");
+      }
+      this.checkpointInterval = checkpointInterval;
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+         this.checkpoints = new DataOutputStream(new BufferedOutputStream(
+               Files.newOutputStream(checkpointPath(path))));
+      }
+      catch (final IOException ioe) {
+         channel.close();
+         throw ioe;
+      }
+   }
+
+   static Path checkpointPath(final Path path) {
+      return path.resolveSibling(path.getFileName() + CHECKPOINT_SUFFIX);
+   }
+
+   static int recordSize(final int numTapes, final int symbolWidth) {
+      return 8 + 4 + 4 + 4 + numTapes * (2 * symbolWidth + 1);
+   }
+
+   /**
+    * Writes the record count and flags, trims the trace to its records and closes both
+    * files.
+    *
+    * @throws IOException
+    *            if either file cannot be written
+    */
+   @Override
+   public void close() throws IOException {
+      try {
+         final ByteBuffer counts = ByteBuffer.allocate(10);
+         counts.putLong(recordCount).putShort(dense ? FLAG_DENSE : 0).flip();
+         channel.write(counts, RECORD_COUNT_OFFSET);
+         if (region != null) {
+            region.force();
+            region = null;
+         }
+         channel.truncate(headerSize + recordCount * recordSize);
+      }
+      finally {
+         try {
+            channel.close();
+         }
+         finally {
+            checkpoints.close();
+         }
+      }
+   }
+
+   @Override
+   public void handle(OnDiverged event) {
+   }
+
+   @Override
+   public void handle(OnHalted event) {
+   }
+
+   /**
+    * Completes the record of the pending transition, now that the number of steps it took is
+    * known, and remembers the new head symbols for the next record.
+    */
+   @Override
+   public void handle(OnStateChanged event) {
+      if (definition == null) {
+         start(event.machine().definition());
+      }
+      else if (event.stateId() == 0) {
+         throw new IllegalStateException("A trace can only record a single run.");
+      }
+      if (pendingTransition != null) {
+         writeRecord(event.stateId() - pendingStateId);
+         pendingTransition = null;
+      }
+      final List<Character> symbols = event.symbols();
+      for (int i = 0; i < numTapes; i++) {
+         headCodes[i] = alphabet.code(symbols.get(i));
+      }
+      if (recordCount % checkpointInterval == 0) {
+         checkpoint(event.stateId(), event.machine().tapes());
+      }
+   }
+
+   @Override
+   public void handle(OnTransition event) {
+      pendingStateId = event.stateId();
+      pendingState = event.state();
+      pendingTransition = event.transition();
+   }
+
+   @Override
+   public boolean retainsEvents() {
+      return false;
+   }
+
+   /**
+    * Appends the contents of every tape, as they are before the next record is applied.
+    */
+   private void checkpoint(final long stateId, final List<Tape> tapes) {
+      try {
+         checkpoints.writeLong(recordCount);
+         checkpoints.writeLong(stateId);
+         checkpoints.writeInt(tapes.size());
+         for (final Tape tape : tapes) {
+            checkpoints.writeInt(tape.currentIndex());
+            checkpoints.writeInt(tape.minUsedIndex());
+            checkpoints.writeInt(tape.maxUsedIndex());
+            for (int ix = tape.minUsedIndex(); ix <= tape.maxUsedIndex(); ix++) {
+               checkpoints.writeChar(tape.charAt(ix));
+            }
+         }
+      }
+      catch (final IOException ioe) {
+         throw new UncheckedIOException(ioe);
+      }
+   }
+
+   private int code(final String state) {
+      final Integer code = stateCodes.get(state);
+      return code == null ? -1 : code;
+   }
+
+   private byte[] header(final List<String> states) throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeShort(0);
+      // record count and flags, see RECORD_COUNT_OFFSET
+      out.writeLong(0);
+      out.writeShort(0);
+      out.writeInt(numTapes);
+      out.writeInt(symbolWidth);
+      out.writeInt(recordSize);
+      out.writeLong(checkpointInterval);
+      out.writeChar(definition.blankSymbol());
+      out.writeChar(definition.startSymbol());
+      out.writeInt(alphabet.size());
+      for (int code = 0; code < alphabet.size(); code++) {
+         out.writeChar(alphabet.symbol(code));
+      }
+      out.writeInt(states.size());
+      for (final String state : states) {
+         out.writeUTF(state);
+      }
+      // the header size itself, so that readers know where records start
+      out.writeInt(bytes.size() + 4);
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   private void putSymbol(final int code) {
+      if (symbolWidth == 1) {
+         region.put((byte) code);
+      }
+      else {
+         region.putShort((short) code);
+      }
+   }
+
+   /**
+    * Sets the record layout up for the definition and writes the header.
+    */
+   private void start(final MachineDefinition newDefinition) {
+      definition = newDefinition;
+      alphabet = definition.alphabet();
+      numTapes = definition.numTapes();
+      headCodes = new int[numTapes];
+      symbolWidth = alphabet.size() < 0xFF ? 1 : 2;
+      recordSize = recordSize(numTapes, symbolWidth);
+      recordsPerRegion = REGION_BYTES / recordSize;
+
+      final List<String> states = new ArrayList<>(new TreeSet<>(definition.states()));
+      for (int code = 0; code < states.size(); code++) {
+         stateCodes.put(states.get(code), code);
+      }
+      try {
+         final byte[] header = header(states);
+         headerSize = header.length;
+         channel.write(ByteBuffer.wrap(header), 0);
+      }
+      catch (final IOException ioe) {
+         throw new UncheckedIOException(ioe);
+      }
+   }
+
+   private void writeRecord(final long length) {
+      final long index = recordCount++;
+      if (index / recordsPerRegion != regionIndex) {
+         regionIndex = index / recordsPerRegion;
+         try {
+            region = channel.map(FileChannel.MapMode.READ_WRITE,
+                  headerSize + regionIndex * recordsPerRegion * recordSize,
+                  (long) recordsPerRegion * recordSize);
+         }
+         catch (final IOException ioe) {
+            throw new UncheckedIOException(ioe);
+         }
+      }
+      dense &= length == 1;
+
+      final List<Character> outputs = pendingTransition.outputs();
+      final List<Move> moves = pendingTransition.moves();
+      region.position((int) (index % recordsPerRegion) * recordSize);
+      region.putLong(pendingStateId);
+      region.putInt((int) length);
+      region.putInt(code(pendingState));
+      region.putInt(code(pendingTransition.state()));
+      for (int i = 0; i < numTapes; i++) {
+         putSymbol(headCodes[i]);
+      }
+      for (int i = 0; i < numTapes; i++) {
+         putSymbol(alphabet.code(outputs.get(i)));
+      }
+      for (int i = 0; i < numTapes; i++) {
+         region.put((byte) moves.get(i).ordinal());
+      }
+   }
+}
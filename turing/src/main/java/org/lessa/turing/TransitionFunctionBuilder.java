@@ -3,8 +3,11 @@ package org.lessa.turing;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class TransitionFunctionBuilder {
 
@@ -60,6 +63,9 @@ public class TransitionFunctionBuilder {
       }
    }
 
+   private static final String ERR_TABLE_TOO_LARGE = "The compiled table for %d states, "
+         + "%d symbols and %d tapes exceeds the maximum array size.";
+   private static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
    private static final String ERR_ARRAY_SIZE_MISMATCH = "The '%s' array must have the same number of symbols as tapes. Found %d but expected %d.";
    private final int numTapes;
    private final Map<Key, Transition> transitionMap;
@@ -73,7 +79,7 @@ public class TransitionFunctionBuilder {
     */
    public TransitionFunctionBuilder(int numTapes) {
       this.numTapes = numTapes;
-      this.transitionMap = new HashMap<>();
+      this.transitionMap = new LinkedHashMap<>();
    }
 
    /**
@@ -88,6 +94,61 @@ public class TransitionFunctionBuilder {
       };
    }
 
+   /**
+    * Creates a {@link CompiledTransitionFunction} from the transitions added so far. States
+    * and symbols mentioned by the transitions are interned to dense codes and every transition
+    * is placed in a flat table, so lookups do not hash or allocate.
+    *
+    * @return compiled transition function
+    * @throws IllegalStateException
+    *            if the table for this number of states, symbols and tapes does not fit in an
+    *            array
+    */
+   public CompiledTransitionFunction compile() {
+
+      // intern states in the order they are first mentioned
+      final Map<String, Integer> stateCodes = new HashMap<>();
+      final Set<Character> symbols = new TreeSet<>();
+      for (final Map.Entry<Key, Transition> e : transitionMap.entrySet()) {
+         stateCodes.putIfAbsent(e.getKey().state, stateCodes.size());
+         stateCodes.putIfAbsent(e.getValue().state(), stateCodes.size());
+         symbols.addAll(Arrays.asList(e.getKey().symbols));
+         symbols.addAll(e.getValue().outputs());
+      }
+      final String[] states = new String[stateCodes.size()];
+      stateCodes.forEach((state, code) -> states[code] = state);
+      final Alphabet alphabet = new Alphabet(symbols);
+
+      // stop multiplying once past the limit, so that many tapes cannot overflow the product
+      long stride = 1;
+      for (int i = 0; i < numTapes && stride <= MAX_TABLE_SIZE; i++) {
+         stride *= alphabet.size();
+      }
+      if (stride > MAX_TABLE_SIZE || stride * states.length > MAX_TABLE_SIZE) {
+         throw new IllegalStateException(String.format(ERR_TABLE_TOO_LARGE, states.length,
+               alphabet.size(), numTapes));
+      }
+
+      final CompiledTransition[] table = new CompiledTransition[(int) stride * states.length];
+      final CompiledTransition[] transitions = new CompiledTransition[transitionMap.size()];
+      int id = 0;
+      for (final Map.Entry<Key, Transition> e : transitionMap.entrySet()) {
+         final Transition transition = e.getValue();
+         int index = stateCodes.get(e.getKey().state);
+         for (final Character symbol : e.getKey().symbols) {
+            index = index * alphabet.size() + alphabet.code(symbol);
+         }
+         final boolean repeats = transition.state().equals(e.getKey().state)
+               && transition.outputs().equals(Arrays.asList(e.getKey().symbols));
+         transitions[id] = new CompiledTransition(id, transition,
+               stateCodes.get(transition.state()), repeats, alphabet);
+         table[index] = transitions[id++];
+      }
+
+      return new CompiledTransitionFunction(alphabet, numTapes, (int) stride, stateCodes,
+            states, table, transitions);
+   }
+
    public TransitionFunctionBuilder withTranstion(String currentState,
          Character[] currentTapeSymbols, Character[] symbolsToWrite, Move[] tapeMoves,
          String newState) {
@@ -0,0 +1,456 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Shared interpreter for machines encoded as dense {@code int} arrays. A machine is encoded
+ * once from its {@link MachineDefinition} by {@link #encode(MachineDefinition)} and can then
+ * be run any number of times, from any thread, without creating a {@link Machine}, tapes or
+ * any other object per run: every thread keeps a set of tape buffers that the runs on that
+ * thread reuse, and clears only the cells each run used. This suits workloads of many small
+ * machines, for which setting up a run costs more than running it.
+ * <p>
+ * Runs have the semantics of {@link Machine#run(RunLimits)} on a compiled machine: every tape
+ * holds the start symbol at index 0, the input follows it on the first tape and the heads
+ * start at index 0. Events, checkpoints, metrics, cycle detection and macro steps are not
+ * supported. An encoding holds no state names, so runs return a {@link Result} with the code
+ * of the final state, see {@link #encode(MachineDefinition)}.
+ * <p>
+ * An encoding is laid out as follows, with the blank symbol always given code 0 so that a
+ * zeroed buffer is a blank tape:
+ *
+ * <pre>
+ * [0]          number of tapes k
+ * [1]          number of symbols |Γ|
+ * [2]          number of states
+ * [3]          initial state code
+ * [4]          start symbol code
+ * [5 ..]       symbol of every code
+ * [..]         1 for every final state code, 0 for the others
+ * [..]         (1 + k) ints per state and head symbols, see CompiledTransitionFunction:
+ *              next state code, or -1 if undefined, then per tape the code written times 4
+ *              plus the head displacement plus 1
+ * </pre>
+ */
+public final class UniversalMachine {
+
+   /**
+    * Outcome of a run of an encoded machine, which knows its final state by code.
+    */
+   public static final class Result {
+
+      private final int finalStateCode;
+      private final RunResult.Outcome outcome;
+      private final long steps;
+
+      Result(RunResult.Outcome outcome, long steps, int finalStateCode) {
+         this.outcome = outcome;
+         this.steps = steps;
+         this.finalStateCode = finalStateCode;
+      }
+
+      /**
+       * Code of the state the machine was in when the run stopped, whether or not it is a
+       * final state. For machines encoded from a definition, this is the state's code in
+       * its {@link CompiledTransitionFunction}.
+       *
+       * @return last state code
+       */
+      public int finalStateCode() {
+         return finalStateCode;
+      }
+
+      public boolean halted() {
+         return outcome == RunResult.Outcome.HALTED;
+      }
+
+      public RunResult.Outcome outcome() {
+         return outcome;
+      }
+
+      /**
+       * Number of transitions performed by the run.
+       *
+       * @return step count
+       */
+      public long steps() {
+         return steps;
+      }
+
+      @Override
+      public String toString() {
+         return String.format(
+               "{\"outcome\": \"%s\", \"steps\": %d, \"finalStateCode\": %d}", outcome,
+               steps, finalStateCode);
+      }
+   }
+
+   /**
+    * Reusable tapes of one thread, as arrays of symbol codes.
+    */
+   private static final class Buffers {
+
+      private int[][] cells = new int[0][];
+      private int[] heads = new int[0];
+      private int[] used = new int[0];
+
+      /**
+       * Makes room for the specified number of tapes, each at least the specified length.
+       */
+      void ensure(int numTapes, int length) {
+         if (cells.length < numTapes) {
+            cells = Arrays.copyOf(cells, numTapes);
+            heads = new int[numTapes];
+            used = new int[numTapes];
+         }
+         for (int i = 0; i < numTapes; i++) {
+            if (cells[i] == null || cells[i].length < length) {
+               cells[i] = new int[Math.max(length, INITIAL_CAPACITY)];
+            }
+         }
+      }
+
+      /**
+       * Blanks the used cells of every tape, dropping tapes that grew too large to keep.
+       */
+      void reset(int numTapes) {
+         for (int i = 0; i < numTapes; i++) {
+            if (cells[i].length > MAX_RETAINED_CAPACITY) {
+               cells[i] = null;
+            }
+            else {
+               Arrays.fill(cells[i], 0, used[i] + 1, 0);
+            }
+         }
+      }
+   }
+
+   private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+   private static final int INITIAL = 3;
+   private static final int INITIAL_CAPACITY = 256;
+   private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+   private static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
+   private static final int NUM_STATES = 2;
+   private static final int NUM_SYMBOLS = 1;
+   private static final int NUM_TAPES = 0;
+   private static final int START = 4;
+   private static final int SYMBOLS = 5;
+
+   private UniversalMachine() {
+   }
+
+   /**
+    * Encodes a machine with a compiled transition function. State codes are those of the
+    * {@link CompiledTransitionFunction}, and an initial state that no transition mentions is
+    * given the next code after them.
+    *
+    * @param definition
+    *           machine definition
+    * @return encoded machine
+    * @throws IllegalArgumentException
+    *            if the transition function is not compiled or the encoding does not fit in
+    *            an array
+    */
+   public static int[] encode(MachineDefinition definition) {
+      if (!(definition.transitionFunction() instanceof CompiledTransitionFunction)) {
+         throw new IllegalArgumentException(
+               "Only machines with a compiled transition function can be encoded.");
+      }
+      final CompiledTransitionFunction function = (CompiledTransitionFunction) definition
+            .transitionFunction();
+      final int numTapes = definition.numTapes();
+
+      // blank first, then every other symbol of the machine and of the function in order
+      final Set<Character> others = new TreeSet<>(definition.alphabetSymbols());
+      others.add(definition.startSymbol());
+      for (int code = 0; code < function.alphabet().size(); code++) {
+         others.add(function.alphabet().symbol(code));
+      }
+      others.remove(definition.blankSymbol());
+      final char[] symbols = new char[others.size() + 1];
+      symbols[0] = definition.blankSymbol();
+      int ix = 1;
+      for (final Character symbol : others) {
+         symbols[ix++] = symbol;
+      }
+      final int[] codes = new int[function.alphabet().size()];
+      for (int code = 0; code < codes.length; code++) {
+         codes[code] = code(symbols, function.alphabet().symbol(code));
+      }
+
+      final int initial = function.stateCode(definition.initialState());
+      final int numStates = function.stateCount() + (initial < 0 ? 1 : 0);
+      final int width = 1 + numTapes;
+      long entries = numStates;
+      for (int i = 0; i < numTapes; i++) {
+         entries *= symbols.length;
+      }
+      final int finals = SYMBOLS + symbols.length;
+      final int table = finals + numStates;
+      if (table + entries * width > MAX_TABLE_SIZE) {
+         throw new IllegalArgumentException(String.format(
+               "The encoding of %d states, %d symbols and %d tapes is too large.", numStates,
+               symbols.length, numTapes));
+      }
+
+      final int[] machine = new int[table + (int) entries * width];
+      machine[NUM_TAPES] = numTapes;
+      machine[NUM_SYMBOLS] = symbols.length;
+      machine[NUM_STATES] = numStates;
+      machine[INITIAL] = initial < 0 ? function.stateCount() : initial;
+      machine[START] = code(symbols, definition.startSymbol());
+      for (int code = 0; code < symbols.length; code++) {
+         machine[SYMBOLS + code] = symbols[code];
+      }
+      for (int state = 0; state < function.stateCount(); state++) {
+         machine[finals + state] = definition.finalStates().contains(function.state(state))
+               ? 1 : 0;
+      }
+      if (initial < 0) {
+         machine[finals + function.stateCount()] = definition.finalStates()
+               .contains(definition.initialState()) ? 1 : 0;
+      }
+      for (int entry = 0; entry < entries; entry++) {
+         machine[table + entry * width] = -1;
+      }
+
+      // every entry of the function's table, with its head symbols recoded
+      final int functionSymbols = function.alphabet().size();
+      int stride = 1;
+      for (int i = 0; i < numTapes; i++) {
+         stride *= functionSymbols;
+      }
+      for (int state = 0; state < function.stateCount(); state++) {
+         for (int encoded = 0; encoded < stride; encoded++) {
+            final CompiledTransition transition = function.apply(state, encoded);
+            if (transition == null) {
+               continue;
+            }
+            int index = 0;
+            int scale = 1;
+            for (int i = numTapes - 1, rest = encoded; i >= 0; i--, rest /= functionSymbols) {
+               index += codes[rest % functionSymbols] * scale;
+               scale *= symbols.length;
+            }
+            final int entry = table + (state * scale + index) * width;
+            machine[entry] = transition.nextState;
+            for (int i = 0; i < numTapes; i++) {
+               machine[entry + 1 + i] = codes[transition.outputCodes[i]] * 4
+                     + transition.shifts[i] + 1;
+            }
+         }
+      }
+      return machine;
+   }
+
+   /**
+    * Runs an encoded machine on the specified input.
+    *
+    * @param machine
+    *           machine encoded by {@link #encode(MachineDefinition)}
+    * @param input
+    *           symbols following the start symbol on the first tape
+    * @param limits
+    *           bounds on the run
+    * @return outcome of the run
+    * @throws IllegalArgumentException
+    *            if an input symbol is not part of the machine alphabet
+    * @throws IllegalStateException
+    *            if the machine moves a head beyond the start of its tape
+    */
+   public static Result run(int[] machine, CharSequence input, RunLimits limits) {
+      return run(machine, input, limits, null);
+   }
+
+   /**
+    * Runs an encoded machine on the specified input and appends the used part of the first
+    * tape, the same text as {@link Tape#toString()}, to the output.
+    *
+    * @param machine
+    *           machine encoded by {@link #encode(MachineDefinition)}
+    * @param input
+    *           symbols following the start symbol on the first tape
+    * @param limits
+    *           bounds on the run
+    * @param output
+    *           builder the first tape is appended to, or {@code null}
+    * @return outcome of the run
+    * @throws IllegalArgumentException
+    *            if an input symbol is not part of the machine alphabet
+    * @throws IllegalStateException
+    *            if the machine moves a head beyond the start of its tape
+    */
+   public static Result run(int[] machine, CharSequence input, RunLimits limits,
+         StringBuilder output) {
+      final int numTapes = machine[NUM_TAPES];
+      final Buffers buffers = BUFFERS.get();
+      buffers.ensure(numTapes, input.length() + 2);
+      final int[][] cells = buffers.cells;
+      final int[] heads = buffers.heads;
+      final int[] used = buffers.used;
+      for (int i = 0; i < numTapes; i++) {
+         cells[i][0] = machine[START];
+         heads[i] = 0;
+         used[i] = 0;
+      }
+      try {
+         char symbol = 0;
+         int code = -1;
+         for (int j = 0; j < input.length(); j++) {
+            // inputs tend to repeat symbols, so codes are only looked up when the symbol changes
+            if (code < 0 || input.charAt(j) != symbol) {
+               symbol = input.charAt(j);
+               code = code(machine, symbol);
+            }
+            if (code < 0) {
+               throw new IllegalArgumentException(String.format(
+                     "Symbol '%s' is not part of the alphabet.", input.charAt(j)));
+            }
+            cells[0][j + 1] = code;
+            used[0] = j + 1;
+         }
+         final Result result = numTapes == 1 ? executeSingle(machine, buffers, limits)
+               : execute(machine, cells, heads, used, limits);
+         if (output != null) {
+            for (int j = 0; j <= used[0]; j++) {
+               output.append((char) machine[SYMBOLS + cells[0][j]]);
+            }
+         }
+         return result;
+      }
+      finally {
+         buffers.reset(numTapes);
+      }
+   }
+
+   /**
+    * Code of the specified symbol in an encoding.
+    *
+    * @return symbol code, or -1 if the symbol is not part of the alphabet
+    */
+   private static int code(int[] machine, char symbol) {
+      for (int code = 0; code < machine[NUM_SYMBOLS]; code++) {
+         if (machine[SYMBOLS + code] == symbol) {
+            return code;
+         }
+      }
+      return -1;
+   }
+
+   private static int code(char[] symbols, char symbol) {
+      for (int code = 0; code < symbols.length; code++) {
+         if (symbols[code] == symbol) {
+            return code;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Step loop over the tape buffers, which hold the input and start symbols.
+    */
+   private static Result execute(int[] machine, int[][] cells, int[] heads, int[] used,
+         RunLimits limits) {
+      final int numTapes = machine[NUM_TAPES];
+      final int numSymbols = machine[NUM_SYMBOLS];
+      final int finals = SYMBOLS + numSymbols;
+      final int table = finals + machine[NUM_STATES];
+      final int width = 1 + numTapes;
+      final long maxSteps = limits.maxSteps();
+      final long deadline = limits.deadline();
+
+      int state = machine[INITIAL];
+      long steps = 0;
+      while (machine[finals + state] == 0) {
+         if (steps >= maxSteps) {
+            return new Result(RunResult.Outcome.STEP_BUDGET_EXHAUSTED, steps, state);
+         }
+         if ((steps & RunLimits.DEADLINE_CHECK_MASK) == 0 && deadline != Long.MAX_VALUE
+               && System.nanoTime() - deadline >= 0) {
+            return new Result(RunResult.Outcome.DEADLINE_EXCEEDED, steps, state);
+         }
+         int index = state;
+         for (int i = 0; i < numTapes; i++) {
+            index = index * numSymbols + cells[i][heads[i]];
+         }
+         final int entry = table + index * width;
+         if (machine[entry] < 0) {
+            return new Result(RunResult.Outcome.DIVERGED, steps, state);
+         }
+         for (int i = 0; i < numTapes; i++) {
+            final int action = machine[entry + 1 + i];
+            int head = heads[i];
+            cells[i][head] = action >>> 2;
+            if (head > used[i]) {
+               used[i] = head;
+            }
+            head += (action & 3) - 1;
+            if (head < 0) {
+               throw new IllegalStateException(
+                     "Error: tried to move beyond the start of the tape.");
+            }
+            if (head == cells[i].length) {
+               cells[i] = Arrays.copyOf(cells[i], 2 * head);
+            }
+            heads[i] = head;
+         }
+         state = machine[entry];
+         steps++;
+      }
+      return new Result(RunResult.Outcome.HALTED, steps, state);
+   }
+
+   /**
+    * Step loop of {@link #execute(int[], int[][], int[], int[], RunLimits)} for machines with
+    * a single tape, which keeps the tape, the head and the used range in locals.
+    */
+   private static Result executeSingle(int[] machine, Buffers buffers, RunLimits limits) {
+      final int finals = SYMBOLS + machine[NUM_SYMBOLS];
+      final int table = finals + machine[NUM_STATES];
+      final int numSymbols = machine[NUM_SYMBOLS];
+      final long maxSteps = limits.maxSteps();
+      final long deadline = limits.deadline();
+
+      int[] cells = buffers.cells[0];
+      int head = 0;
+      int used = buffers.used[0];
+      int state = machine[INITIAL];
+      long steps = 0;
+      RunResult.Outcome outcome = RunResult.Outcome.HALTED;
+      while (machine[finals + state] == 0) {
+         if (steps >= maxSteps) {
+            outcome = RunResult.Outcome.STEP_BUDGET_EXHAUSTED;
+            break;
+         }
+         if ((steps & RunLimits.DEADLINE_CHECK_MASK) == 0 && deadline != Long.MAX_VALUE
+               && System.nanoTime() - deadline >= 0) {
+            outcome = RunResult.Outcome.DEADLINE_EXCEEDED;
+            break;
+         }
+         final int entry = table + (state * numSymbols + cells[head]) * 2;
+         final int next = machine[entry];
+         if (next < 0) {
+            outcome = RunResult.Outcome.DIVERGED;
+            break;
+         }
+         final int action = machine[entry + 1];
+         cells[head] = action >>> 2;
+         used = Math.max(used, head);
+         head += (action & 3) - 1;
+         if (head < 0) {
+            buffers.used[0] = used;
+            throw new IllegalStateException("Error: tried to move beyond the start of the tape.");
+         }
+         if (head == cells.length) {
+            cells = Arrays.copyOf(cells, 2 * head);
+            buffers.cells[0] = cells;
+         }
+         state = next;
+         steps++;
+      }
+      buffers.used[0] = used;
+      return new Result(outcome, steps, state);
+   }
+}
@@ -0,0 +1,117 @@
+package org.lessa.turing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the asynchronous JSON lines event handler.
+ */
+public class AsyncEventHandlerTest {
+
+   private static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   /**
+    * Successor machine, see {@link Machines#successor(Tape)}, on n ones.
+    */
+   private Machine createSuccessorMachine(Event.EventHandler handler, int n) {
+      return Machines.successor(Machines.unaryTape(TapeFactory.ARRAY, n))
+            .withSubscriber(handler)
+            .build();
+   }
+
+   @Test
+   public void given_machine_run_handler_writes_one_line_per_event() throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final AsyncEventHandler handler = new AsyncEventHandler(out);
+      createSuccessorMachine(handler, 2).run();
+      handler.close();
+
+      final String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+      Assert.assertEquals(lines.length, 10);
+      Assert.assertEquals(lines[0], "{\"stateId\": 0, \"state\": \"q0\", "
+            + "\"tapeHeadSymbols\": [\"" + START + "\"]}");
+      Assert.assertEquals(lines[1], "{\"stateId\": 0, \"transition\": {\"nextState\": \"q1\", "
+            + "\"writeToTapes\": [\"" + START + "\"], \"moves\": [\"RIGHT\"]}}");
+      Assert.assertEquals(lines[9],
+            "{\"stateId\": 4, \"halted\": \"H\", \"output\": \"" + START + "111\"}");
+      Assert.assertEquals(handler.dropped(), 0);
+   }
+
+   @Test
+   public void given_small_buffer_blocking_handler_loses_no_events() throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final AsyncEventHandler handler = new AsyncEventHandler(out, StandardCharsets.UTF_8, 4,
+            AsyncEventHandler.OverflowPolicy.BLOCK);
+      createSuccessorMachine(handler, 1000).run();
+      handler.close();
+
+      final String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+      Assert.assertEquals(lines.length, 2006);
+      Assert.assertTrue(lines[2004].startsWith("{\"stateId\": 1002, \"state\": \"H\""));
+      Assert.assertEquals(handler.dropped(), 0);
+   }
+
+   @Test
+   public void given_stalled_output_dropping_handler_counts_dropped_events()
+         throws IOException {
+      final CountDownLatch stall = new CountDownLatch(1);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final OutputStream stalled = new OutputStream() {
+
+         @Override
+         public void write(byte[] b, int off, int len) throws IOException {
+            try {
+               stall.await();
+            }
+            catch (final InterruptedException ie) {
+               throw new IOException(ie);
+            }
+            out.write(b, off, len);
+         }
+
+         @Override
+         public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+         }
+      };
+      final AsyncEventHandler handler = new AsyncEventHandler(stalled, StandardCharsets.UTF_8,
+            8, AsyncEventHandler.OverflowPolicy.DROP);
+      createSuccessorMachine(handler, 1000).run();
+      stall.countDown();
+      handler.close();
+
+      final String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+      Assert.assertTrue(handler.dropped() > 0);
+      Assert.assertEquals(lines.length + handler.dropped(), 2006);
+   }
+
+   @Test
+   public void given_close_during_runs_every_event_is_written_or_dropped() throws Exception {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final AsyncEventHandler handler = new AsyncEventHandler(out);
+      final Thread[] producers = new Thread[4];
+      for (int i = 0; i < producers.length; i++) {
+         producers[i] = new Thread(() -> {
+            for (int run = 0; run < 50; run++) {
+               createSuccessorMachine(handler, 50).run();
+            }
+         });
+         producers[i].start();
+      }
+      Thread.sleep(5);
+      handler.close();
+      for (final Thread producer : producers) {
+         producer.join();
+      }
+
+      final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+      final long lines = text.isEmpty() ? 0 : text.split("\n").length;
+      Assert.assertEquals(lines + handler.dropped(), producers.length * 50 * 106);
+   }
+}
@@ -0,0 +1,107 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for the flight recorder events of machine runs.
+ */
+public class FlightRecorderEventsTest {
+
+   private static final Character BLANK = Machine.DEFAULT_BLANK_SYMBOL;
+   private static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   /**
+    * Skips the input ones, writes a zero past them and stops in a state without transitions.
+    */
+   private Machine createDivergingMachine(int n) {
+      final Character[] contents = new Character[n];
+      Arrays.fill(contents, '1');
+      final TransitionFunctionBuilder builder = new TransitionFunctionBuilder(1);
+      Machines.transition(builder, "q0", START, START, Move.RIGHT, "q1");
+      Machines.transition(builder, "q1", '1', '1', Move.RIGHT, "q1");
+      Machines.transition(builder, "q1", BLANK, '0', Move.RIGHT, "q2");
+      return new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('1')
+            .withStates("q0", "q1", "q2", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withInputTape(new ArrayTape(BLANK, START, contents))
+            .withTransitionFunction(builder.compile())
+            .build();
+   }
+
+   @Test
+   public void given_events_disabled_recording_has_no_machine_events() throws IOException {
+      final List<RecordedEvent> events;
+      try (Recording recording = new Recording()) {
+         recording.start();
+         createDivergingMachine(10).run();
+         recording.stop();
+         events = read(recording);
+      }
+      for (final RecordedEvent event : events) {
+         Assert.assertFalse(event.getEventType().getName().startsWith("org.lessa."));
+      }
+   }
+
+   @Test
+   public void given_events_enabled_diverging_run_records_run_divergence_and_resize()
+         throws IOException {
+      final List<RecordedEvent> events;
+      try (Recording recording = new Recording()) {
+         recording.enable("org.lessa.turing.MachineRun").withoutThreshold();
+         recording.enable("org.lessa.turing.Diverged");
+         recording.enable("org.lessa.turing.TapeResize").withoutThreshold();
+         recording.start();
+         createDivergingMachine(100).run();
+         recording.stop();
+         events = read(recording);
+      }
+
+      final RecordedEvent run = find(events, "org.lessa.turing.MachineRun");
+      Assert.assertEquals(run.getString("startState"), "q0");
+      Assert.assertEquals(run.getString("finalState"), "q2");
+      Assert.assertEquals(run.getString("outcome"), "DIVERGED");
+      Assert.assertEquals(run.getLong("steps"), 102);
+      Assert.assertEquals(run.getInt("tapes"), 1);
+
+      final RecordedEvent diverged = find(events, "org.lessa.turing.Diverged");
+      Assert.assertEquals(diverged.getString("state"), "q2");
+      Assert.assertEquals(diverged.getString("symbols"), BLANK.toString());
+
+      final RecordedEvent resize = find(events, "org.lessa.turing.TapeResize");
+      Assert.assertEquals(resize.getString("tapeType"), "ArrayTape");
+      Assert.assertTrue(resize.getInt("newCapacity") > resize.getInt("oldCapacity"));
+   }
+
+   private static RecordedEvent find(List<RecordedEvent> events, String name) {
+      for (final RecordedEvent event : events) {
+         if (event.getEventType().getName().equals(name)) {
+            return event;
+         }
+      }
+      throw new AssertionError("No event named " + name + ".");
+   }
+
+   private static List<RecordedEvent> read(Recording recording) throws IOException {
+      final Path path = Files.createTempFile("machine", ".jfr");
+      try {
+         recording.dump(path);
+         return RecordingFile.readAllEvents(path);
+      }
+      finally {
+         Files.deleteIfExists(path);
+      }
+   }
+}
@@ -0,0 +1,92 @@
+package org.lessa.turing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for running many machines in parallel.
+ */
+public class MachineBatchRunnerTest {
+
+   private Machine createSuccessorMachine() {
+      return Machines.successor(createUnaryTape(0)).build();
+   }
+
+   private Tape createUnaryTape(int n) {
+      return Machines.unaryTape(TapeFactory.ARRAY, n);
+   }
+
+   @Test
+   public void given_many_inputs_every_job_runs_on_private_tapes() throws InterruptedException {
+
+      final Machine machine = createSuccessorMachine();
+      final List<MachineBatchRunner.Job> jobs = new ArrayList<>();
+      for (int n = 0; n < 200; n++) {
+         jobs.add(new MachineBatchRunner.Job(machine, createUnaryTape(n), RunLimits.NONE));
+      }
+
+      final ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+         final List<MachineBatchRunner.Result> results = new MachineBatchRunner(pool)
+               .runAll(jobs);
+
+         Assert.assertEquals(results.size(), jobs.size());
+         for (final MachineBatchRunner.Result result : results) {
+            final Tape output = result.machine().tapes().get(0);
+            Assert.assertNull(result.failure());
+            Assert.assertTrue(result.result().halted());
+            Assert.assertSame(output, result.job().input());
+            Assert.assertEquals(result.result().steps(), output.maxUsedIndex() + 1);
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+
+      // the prototype's own tape is never touched
+      Assert.assertEquals(machine.tapes().get(0).maxUsedIndex(), 0);
+   }
+
+   @Test
+   public void given_failing_job_result_carries_the_failure() throws InterruptedException {
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('1')
+            .withInputSymbols('1')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withTransitionFunction(new TransitionFunctionBuilder(1)
+                  .withTranstion("q0", new Character[] { Machines.START },
+                        new Character[] { Machines.START },
+                        new Move[] { Move.LEFT }, "H")
+                  .compile())
+            .build();
+
+      final List<MachineBatchRunner.Result> results = new MachineBatchRunner().runAll(Arrays
+            .asList(new MachineBatchRunner.Job(machine, createUnaryTape(1), RunLimits.NONE)));
+
+      Assert.assertNull(results.get(0).result());
+      Assert.assertTrue(results.get(0).failure() instanceof IllegalStateException);
+   }
+
+   @Test(expectedExceptions = StackOverflowError.class)
+   public void given_error_thrown_by_run_it_reaches_the_caller_as_it_is()
+         throws InterruptedException {
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('1')
+            .withInputSymbols('1')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withTransitionFunction((state, symbols) -> {
+               throw new StackOverflowError();
+            })
+            .build();
+
+      new MachineBatchRunner().runAll(Arrays
+            .asList(new MachineBatchRunner.Job(machine, createUnaryTape(1), RunLimits.NONE)));
+   }
+}
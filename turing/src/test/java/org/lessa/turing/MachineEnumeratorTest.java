@@ -0,0 +1,107 @@
+package org.lessa.turing;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for enumerating busy beaver machines, against the known values of S(n, m) and
+ * Σ(n, m).
+ */
+public class MachineEnumeratorTest {
+
+   private ForkJoinPool pool;
+
+   @BeforeClass
+   public void setUp() {
+      pool = new ForkJoinPool(4);
+   }
+
+   @AfterClass
+   public void tearDown() {
+      pool.shutdownNow();
+   }
+
+   @DataProvider(name = "Enumerators")
+   public Object[][] enumerators() {
+      return new Object[][] { { MachineEnumerator.sequential() },
+            { MachineEnumerator.workStealing(pool) } };
+   }
+
+   @Test(dataProvider = "Enumerators")
+   public void given_two_states_two_symbols_champion_takes_six_steps(
+         MachineEnumerator enumerator) {
+      final MachineEnumerator.Result result = enumerator.enumerate(2, 2,
+            RunLimits.NONE.withMaxSteps(100));
+
+      Assert.assertTrue(result.complete());
+      Assert.assertEquals(result.longestRunning().steps(), 6);
+      Assert.assertEquals(result.longestRunning().ones(), 4);
+      Assert.assertEquals(result.longestRunning().toString(), "1RB1LB_1LA1RZ");
+      Assert.assertEquals(result.mostProductive().ones(), 4);
+      Assert.assertEquals(result.haltingStepCounts().lastKey().longValue(), 6);
+      long halting = 0;
+      for (final long count : result.haltingStepCounts().values()) {
+         halting += count;
+      }
+      Assert.assertEquals(halting, result.halting());
+   }
+
+   @Test(dataProvider = "Enumerators")
+   public void given_three_states_two_symbols_champions_take_21_steps_and_score_6(
+         MachineEnumerator enumerator) {
+      final MachineEnumerator.Result result = enumerator.enumerate(3, 2,
+            RunLimits.NONE.withMaxSteps(100));
+
+      Assert.assertTrue(result.complete());
+      Assert.assertEquals(result.longestRunning().steps(), 21);
+      Assert.assertEquals(result.mostProductive().ones(), 6);
+   }
+
+   @Test(dataProvider = "Enumerators")
+   public void given_two_states_three_symbols_champions_take_38_steps_and_score_9(
+         MachineEnumerator enumerator) {
+      final MachineEnumerator.Result result = enumerator.enumerate(2, 3,
+            RunLimits.NONE.withMaxSteps(100));
+
+      Assert.assertTrue(result.complete());
+      Assert.assertEquals(result.longestRunning().steps(), 38);
+      Assert.assertEquals(result.mostProductive().ones(), 9);
+   }
+
+   @Test
+   public void given_sequential_and_parallel_enumerations_counts_agree() {
+      final RunLimits limits = RunLimits.NONE.withMaxSteps(50);
+      final MachineEnumerator.Result sequential = MachineEnumerator.sequential()
+            .enumerate(3, 2, limits);
+      final MachineEnumerator.Result parallel = MachineEnumerator.workStealing(pool)
+            .enumerate(3, 2, limits);
+
+      Assert.assertEquals(parallel.halting(), sequential.halting());
+      Assert.assertEquals(parallel.nonHalting(), sequential.nonHalting());
+      Assert.assertEquals(parallel.undecided(), sequential.undecided());
+      Assert.assertEquals(parallel.haltingStepCounts(), sequential.haltingStepCounts());
+      Assert.assertEquals(parallel.longestRunning().toString(),
+            sequential.longestRunning().toString());
+      Assert.assertEquals(parallel.mostProductive().toString(),
+            sequential.mostProductive().toString());
+   }
+
+   @Test
+   public void given_exhausted_time_budget_enumeration_is_incomplete() {
+      final MachineEnumerator.Result result = MachineEnumerator.sequential().enumerate(4, 2,
+            RunLimits.NONE.withMaxSteps(1000).withTimeBudget(0, TimeUnit.NANOSECONDS));
+
+      Assert.assertFalse(result.complete());
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void given_unbounded_step_budget_enumeration_fails() {
+      MachineEnumerator.sequential().enumerate(2, 2, RunLimits.NONE);
+   }
+}
@@ -0,0 +1,175 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for exploring nondeterministic machines.
+ */
+public class MachineExplorerTest {
+
+   private static final Character BLANK = Machine.DEFAULT_BLANK_SYMBOL;
+   private static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   private ForkJoinPool pool;
+
+   @BeforeClass
+   public void setUp() {
+      pool = new ForkJoinPool(4);
+   }
+
+   @AfterClass
+   public void tearDown() {
+      pool.shutdownNow();
+   }
+
+   @DataProvider(name = "Explorers")
+   public Object[][] explorers() {
+      return new Object[][] { { MachineExplorer.breadthFirst() },
+            { MachineExplorer.workStealing(pool) } };
+   }
+
+   /**
+    * Machine that guesses where two consecutive ones start in its binary input.
+    */
+   private NondeterministicMachine createGuessingMachine() {
+      final TransitionFunctionBuilder scan = new TransitionFunctionBuilder(1);
+      Machines.transition(scan, "q0", START, START, Move.RIGHT, "q0");
+      Machines.transition(scan, "q0", '0', '0', Move.RIGHT, "q0");
+      Machines.transition(scan, "q0", '1', '1', Move.RIGHT, "q0");
+      Machines.transition(scan, "q1", '1', '1', Move.NONE, "H");
+      final TransitionFunctionBuilder guess = new TransitionFunctionBuilder(1);
+      Machines.transition(guess, "q0", '1', '1', Move.RIGHT, "q1");
+      return new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('0', '1')
+            .withStates("q0", "q1", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withNondeterministicTransitionFunction(
+                  NondeterministicTransitionFunction.union(scan.build(), guess.build()))
+            .buildNondeterministic();
+   }
+
+   private static Tape createTape(String input) {
+      final Character[] contents = new Character[input.length()];
+      for (int i = 0; i < contents.length; i++) {
+         contents[i] = input.charAt(i);
+      }
+      return new ArrayTape(BLANK, START, contents);
+   }
+
+   @Test(dataProvider = "Explorers")
+   public void given_accepting_branch_explorer_halts(MachineExplorer explorer) {
+      final NondeterministicMachine machine = createGuessingMachine();
+      final Tape input = createTape("0100110");
+
+      final MachineExplorer.Result result = explorer.explore(machine, input, RunLimits.NONE);
+
+      Assert.assertEquals(result.result().outcome(), RunResult.Outcome.HALTED);
+      Assert.assertEquals(result.result().finalState(), "H");
+      Assert.assertEquals(result.result().steps(), 7);
+      Assert.assertEquals(result.tapes().get(0).currentIndex(), 6);
+      Assert.assertEquals(input.currentIndex(), 0);
+   }
+
+   @Test(dataProvider = "Explorers")
+   public void given_no_accepting_branch_explorer_diverges(MachineExplorer explorer) {
+      final MachineExplorer.Result result = explorer.explore(createGuessingMachine(),
+            createTape("1010101"), RunLimits.NONE);
+
+      Assert.assertEquals(result.result().outcome(), RunResult.Outcome.DIVERGED);
+      Assert.assertNull(result.result().finalState());
+      Assert.assertEquals(result.result().steps(), 8);
+      Assert.assertTrue(result.tapes().isEmpty());
+      // the scanning branch, plus one short branch for every guess
+      Assert.assertEquals(result.configurations(), 9 + 4);
+   }
+
+   @Test(dataProvider = "Explorers")
+   public void given_endless_branch_explorer_stops_at_deadline(MachineExplorer explorer) {
+      // one branch writes zeros forever, the other stops after every step
+      final TransitionFunctionBuilder zero = new TransitionFunctionBuilder(1);
+      Machines.transition(zero, "q0", START, START, Move.RIGHT, "q0");
+      Machines.transition(zero, "q0", BLANK, '0', Move.RIGHT, "q0");
+      final TransitionFunctionBuilder one = new TransitionFunctionBuilder(1);
+      Machines.transition(one, "q0", BLANK, '1', Move.RIGHT, "q1");
+      final NondeterministicMachine machine = new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('0', '1')
+            .withStates("q0", "q1", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withNondeterministicTransitionFunction(
+                  NondeterministicTransitionFunction.union(zero.build(), one.build()))
+            .buildNondeterministic();
+
+      final MachineExplorer.Result result = explorer.explore(machine,
+            RunLimits.NONE.withTimeBudget(20, TimeUnit.MILLISECONDS));
+
+      Assert.assertEquals(result.result().outcome(), RunResult.Outcome.DEADLINE_EXCEEDED);
+   }
+
+   @Test(dataProvider = "Explorers")
+   public void given_endless_branches_explorer_stops_at_step_budget(
+         MachineExplorer explorer) {
+      final TransitionFunctionBuilder zero = new TransitionFunctionBuilder(1);
+      Machines.transition(zero, "q0", START, START, Move.RIGHT, "q0");
+      Machines.transition(zero, "q0", BLANK, '0', Move.RIGHT, "q0");
+      final TransitionFunctionBuilder one = new TransitionFunctionBuilder(1);
+      Machines.transition(one, "q0", BLANK, '1', Move.RIGHT, "q0");
+      final NondeterministicMachine machine = new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('0', '1')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withNondeterministicTransitionFunction(
+                  NondeterministicTransitionFunction.union(zero.build(), one.build()))
+            .buildNondeterministic();
+
+      final MachineExplorer.Result result = explorer.explore(machine,
+            RunLimits.NONE.withMaxSteps(10));
+
+      Assert.assertEquals(result.result().outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+      Assert.assertEquals(result.result().steps(), 10);
+      // a full binary tree of depth 9 below the first step
+      Assert.assertEquals(result.configurations(), 1 + (1 << 10) - 1);
+   }
+
+   @Test(dataProvider = "Explorers")
+   public void given_branches_writing_different_symbols_tapes_are_not_shared(
+         MachineExplorer explorer) {
+      // each branch marks the end of a long input, then only the one that wrote 'b' halts
+      final TransitionFunctionBuilder scan = new TransitionFunctionBuilder(1);
+      Machines.transition(scan, "q0", START, START, Move.RIGHT, "q0");
+      Machines.transition(scan, "q0", '0', '0', Move.RIGHT, "q0");
+      Machines.transition(scan, "q0", BLANK, 'a', Move.LEFT, "qa");
+      Machines.transition(scan, "qa", '0', '0', Move.LEFT, "qa");
+      Machines.transition(scan, "qb", '0', '0', Move.LEFT, "qb");
+      Machines.transition(scan, "qb", START, START, Move.NONE, "H");
+      final TransitionFunctionBuilder mark = new TransitionFunctionBuilder(1);
+      Machines.transition(mark, "q0", BLANK, 'b', Move.LEFT, "qb");
+      final NondeterministicMachine machine = new MachineBuilder()
+            .withAlphabetSymbols('0', 'a', 'b')
+            .withInputSymbols('0')
+            .withStates("q0", "qa", "qb", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withNondeterministicTransitionFunction(
+                  NondeterministicTransitionFunction.union(scan.build(), mark.build()))
+            .buildNondeterministic();
+      final char[] zeros = new char[10000];
+      Arrays.fill(zeros, '0');
+
+      final MachineExplorer.Result result = explorer.explore(machine,
+            createTape(new String(zeros)), RunLimits.NONE);
+
+      Assert.assertEquals(result.result().outcome(), RunResult.Outcome.HALTED);
+      Assert.assertEquals(result.tapes().get(0).toString(), START + new String(zeros) + "b");
+   }
+}
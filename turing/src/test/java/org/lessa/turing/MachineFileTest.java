@@ -0,0 +1,205 @@
+package org.lessa.turing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for reading and writing machine definition files.
+ */
+public class MachineFileTest {
+
+   /**
+    * Machine that steps off the start symbol and walks right through a chain of states, each
+    * moving on to the next one on blank and 1, with one more transition than the length.
+    */
+   private static String createChainMachine(int length) {
+      final StringBuilder text = new StringBuilder();
+      text.append("tapes 1\nblank _\nstart >\nalphabet 1\ninput 1\nstates");
+      for (int state = 0; state <= length / 2; state++) {
+         text.append(" q").append(state);
+      }
+      text.append("\ninitial q0\nfinal q").append(length / 2).append("\ntransitions\n");
+      text.append("q0 > > R q0\n");
+      for (int state = 0; state < length / 2; state++) {
+         text.append('q').append(state).append(" _ 1 R q").append(state + 1).append('\n');
+         text.append('q').append(state).append(" 1 1 R q").append(state + 1).append('\n');
+      }
+      return text.toString();
+   }
+
+   private static MachineBuilder readSuccessor() throws IOException {
+      return MachineFile.readText(new StringReader(Machines.SUCCESSOR_TEXT));
+   }
+
+   @Test
+   public void given_text_definition_loaded_machine_runs() throws IOException {
+      final Machine machine = readSuccessor().build();
+      final RunResult result = machine.run(RunLimits.NONE);
+
+      Assert.assertTrue(result.halted());
+      Assert.assertEquals(result.finalState(), "H");
+      Assert.assertEquals(machine.tapes().get(0).toString(), ">1111");
+      Assert.assertTrue(machine.transitionFunction() instanceof CompiledTransitionFunction);
+   }
+
+   @Test
+   public void given_written_text_reading_it_back_gives_the_same_text() throws IOException {
+      final MachineBuilder builder = readSuccessor();
+      final Machine machine = builder.build();
+      final Writer first = new StringWriter();
+      MachineFile.writeText(machine.definition(), machine.tapes().get(0), first);
+      final Machine reloaded = MachineFile.readText(new StringReader(first.toString()))
+            .build();
+      final Writer second = new StringWriter();
+      MachineFile.writeText(reloaded.definition(), reloaded.tapes().get(0), second);
+
+      Assert.assertEquals(second.toString(), first.toString());
+      Assert.assertEquals(reloaded.run(RunLimits.NONE).steps(),
+            machine.run(RunLimits.NONE).steps());
+   }
+
+   @Test
+   public void given_built_machine_binary_round_trip_runs_alike() throws IOException {
+      final TransitionFunctionBuilder function = new TransitionFunctionBuilder(2);
+      function.withTranstion("copy", new Character[] { '▷', '▷' },
+            new Character[] { '▷', '▷' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { 'a', '⊔' },
+            new Character[] { 'a', 'a' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { 'b', '⊔' },
+            new Character[] { 'b', 'b' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { '⊔', '⊔' },
+            new Character[] { '⊔', '⊔' }, new Move[] { Move.NONE, Move.NONE }, "done");
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('a', 'b')
+            .withInputSymbols('a', 'b')
+            .withStates("copy", "done")
+            .withInitialState("copy")
+            .withFinalStates("done")
+            .withMoreTapes(1)
+            .withInputTape(new ArrayTape('⊔', '▷', 'a', 'b', 'b', 'a'))
+            .withTransitionFunction(function.compile())
+            .build();
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      MachineFile.writeBinary(machine.definition(), machine.tapes().get(0), out);
+      final Machine loaded = MachineFile.readBinary(new ByteArrayInputStream(out.toByteArray()))
+            .build();
+
+      Assert.assertEquals(loaded.run(RunLimits.NONE).steps(),
+            machine.run(RunLimits.NONE).steps());
+      Assert.assertEquals(loaded.tapes().get(1).toString(), machine.tapes().get(1).toString());
+      Assert.assertEquals(loaded.tapes().get(1).toString(), "▷abba⊔");
+   }
+
+   @Test
+   public void given_files_in_either_format_load_tells_them_apart() throws IOException {
+      final Machine machine = readSuccessor().build();
+      final Path text = Files.createTempFile("machine", ".tm");
+      final Path binary = Files.createTempFile("machine", ".tmb");
+      try {
+         Files.write(text, Machines.SUCCESSOR_TEXT.getBytes(StandardCharsets.UTF_8));
+         try (OutputStream out = Files.newOutputStream(binary)) {
+            MachineFile.writeBinary(machine.definition(), machine.tapes().get(0), out);
+         }
+
+         Assert.assertEquals(MachineFile.load(text).build().run(RunLimits.NONE).steps(), 9);
+         Assert.assertEquals(MachineFile.load(binary).build().run(RunLimits.NONE).steps(), 9);
+      }
+      finally {
+         Files.deleteIfExists(text);
+         Files.deleteIfExists(binary);
+      }
+   }
+
+   @Test
+   public void given_large_machine_every_transition_is_loaded() throws IOException {
+      final Machine machine = MachineFile.readText(new StringReader(createChainMachine(100000)))
+            .build();
+      final CompiledTransitionFunction function = (CompiledTransitionFunction) machine
+            .transitionFunction();
+
+      Assert.assertEquals(function.transitionCount(), 100001);
+      Assert.assertEquals(machine.run(RunLimits.NONE).finalState(), "q50000");
+   }
+
+   @Test
+   public void given_undeclared_state_error_names_the_line() {
+      try {
+         MachineFile.readText(new StringReader(
+               Machines.SUCCESSOR_TEXT.replace("q2 > > N H", "q2 > > N X")));
+         Assert.fail("Expected an IOException.");
+      }
+      catch (final IOException ioe) {
+         Assert.assertEquals(ioe.getMessage(), "Line 16: Unknown state 'X'.");
+      }
+   }
+
+   @Test(expectedExceptions = IOException.class)
+   public void given_duplicate_transition_reading_fails() throws IOException {
+      MachineFile.readText(new StringReader(Machines.SUCCESSOR_TEXT + "q1 1 _ R q2\n"));
+   }
+
+   @Test
+   public void given_corrupt_counts_reading_binary_fails_with_io_exception()
+         throws IOException {
+      final Machine machine = readSuccessor().build();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      MachineFile.writeBinary(machine.definition(), machine.tapes().get(0), out);
+      final byte[] bytes = out.toByteArray();
+      // the tape count is followed by the three ones of the tape
+      final byte[] tape = { 0, 0, 0, 3, 0, '1', 0, '1', 0, '1' };
+      int tapeCount = 0;
+      while (!Arrays.equals(Arrays.copyOfRange(bytes, tapeCount, tapeCount + tape.length),
+            tape)) {
+         tapeCount++;
+      }
+      // tapes, alphabet size, input size and tape length
+      for (final int offset : new int[] { 6, 14, 20, tapeCount }) {
+         for (final int count : new int[] { -1, 64, Integer.MAX_VALUE }) {
+            final byte[] corrupt = bytes.clone();
+            ByteBuffer.wrap(corrupt).putInt(offset, count);
+            try {
+               MachineFile.readBinary(new ByteArrayInputStream(corrupt));
+               Assert.fail(String.format("Expected an IOException for %d at %d.", count,
+                     offset));
+            }
+            catch (final IOException expected) {
+            }
+         }
+      }
+   }
+
+   @Test
+   public void given_unreadable_state_name_writing_text_fails() throws IOException {
+      for (final String state : new String[] { "q 1", "#q1", "q\t1" }) {
+         final Machine machine = Machines.successor(Machines.unaryTape(TapeFactory.ARRAY, 1))
+               .withStates("q0", state, "H")
+               .withTransitionFunction(new TransitionFunctionBuilder(1)
+                     .withTranstion("q0", new Character[] { Machines.START },
+                           new Character[] { Machines.START }, new Move[] { Move.RIGHT },
+                           state)
+                     .compile())
+               .build();
+         try {
+            MachineFile.writeText(machine.definition(), null, new StringWriter());
+            Assert.fail(String.format("Expected state '%s' to be rejected.", state));
+         }
+         catch (final IllegalArgumentException iae) {
+            Assert.assertEquals(iae.getMessage(),
+                  String.format("State '%s' cannot be written in the text format.", state));
+         }
+      }
+   }
+}
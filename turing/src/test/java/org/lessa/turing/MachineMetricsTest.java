@@ -0,0 +1,136 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for collecting and exporting machine metrics.
+ */
+public class MachineMetricsTest {
+
+   private MachineBuilder createSuccessorMachine(int n) {
+      return Machines.successor(Machines.unaryTape(TapeFactory.ARRAY, n));
+   }
+
+   @Test
+   public void given_metrics_disabled_machine_has_no_metrics() {
+      final Machine machine = createSuccessorMachine(3).build();
+      machine.run();
+      Assert.assertNull(machine.metrics());
+   }
+
+   @Test
+   public void given_interpreted_compiled_generated_and_accelerated_runs_metrics_agree() {
+      for (final boolean accelerated : new boolean[] { false, true }) {
+         for (final String loop : new String[] { "INTERPRETED", "COMPILED", "GENERATED" }) {
+            final MachineBuilder builder = createSuccessorMachine(100).withMetrics(true)
+                  .withAcceleration(accelerated)
+                  .withCodeGeneration("GENERATED".equals(loop));
+            if ("INTERPRETED".equals(loop)) {
+               final TransitionFunction function = builder.buildDefinition()
+                     .transitionFunction();
+               builder.withTransitionFunction((state, symbols) -> function.apply(state,
+                     symbols));
+            }
+            final Machine machine = builder.build();
+            final RunResult result = machine.run(RunLimits.NONE);
+            Assert.assertEquals(machine.definition().generated(), "GENERATED".equals(loop));
+            final MachineMetrics metrics = machine.metrics();
+
+            Assert.assertEquals(metrics.steps(), result.steps());
+            Assert.assertEquals(metrics.stateVisits().get("q0").longValue(), 1);
+            Assert.assertEquals(metrics.stateVisits().get("q1").longValue(), 101);
+            Assert.assertEquals(metrics.stateVisits().get("H").longValue(), 1);
+            Assert.assertEquals(metrics.headTravel(0), 102);
+            Assert.assertEquals(metrics.highWaterMark(0), 101);
+            Assert.assertTrue(metrics.elapsedNanos() > 0);
+
+            long hits = 0;
+            final List<Transition> transitions = metrics.transitions();
+            for (int id = 0; id < transitions.size(); id++) {
+               hits += metrics.transitionHits(id);
+               if (transitions.get(id).state().equals("H")) {
+                  Assert.assertEquals(metrics.transitionHits(id), 1);
+               }
+            }
+            Assert.assertEquals(hits, result.steps());
+         }
+      }
+   }
+
+   @Test
+   public void given_states_with_one_and_two_self_loops_generated_and_compiled_hits_agree() {
+      for (final boolean accelerated : new boolean[] { false, true }) {
+         for (final long maxSteps : new long[] { 77, Long.MAX_VALUE }) {
+            final MachineMetrics[] metrics = new MachineMetrics[2];
+            for (final boolean generated : new boolean[] { false, true }) {
+               final Tape input = Machines.unaryTape(TapeFactory.ARRAY, 10);
+               final Machine machine = Machines.marking(input).withMetrics(true)
+                     .withAcceleration(accelerated)
+                     .withCodeGeneration(generated)
+                     // checkpoints stop and restart the generated loop in every state
+                     .withCheckpointInterval(7)
+                     .withCheckpointSink(snapshot -> {
+                     })
+                     .build();
+               machine.run(RunLimits.NONE.withMaxSteps(maxSteps));
+               Assert.assertEquals(machine.definition().generated(), generated);
+               metrics[generated ? 1 : 0] = machine.metrics();
+            }
+
+            Assert.assertEquals(metrics[1].steps(), metrics[0].steps());
+            Assert.assertEquals(metrics[1].stateVisits(), metrics[0].stateVisits());
+            for (int id = 0; id < metrics[0].transitions().size(); id++) {
+               Assert.assertEquals(metrics[1].transitionHits(id), metrics[0].transitionHits(id));
+            }
+         }
+      }
+   }
+
+   @Test
+   public void given_failing_run_and_export_run_failure_is_thrown_with_export_suppressed() {
+      final IOException exportFailure = new IOException("disk full");
+      final IllegalStateException runFailure = new IllegalStateException("broken function");
+      final Machine machine = createSuccessorMachine(3).withTransitionFunction((state, s) -> {
+         throw runFailure;
+      }).withMetricsExporter(metrics -> {
+         throw exportFailure;
+      }).build();
+      try {
+         machine.run();
+         Assert.fail("Expected the run to fail.");
+      }
+      catch (final IllegalStateException ise) {
+         Assert.assertSame(ise, runFailure);
+         Assert.assertEquals(ise.getSuppressed(), new Throwable[] { exportFailure });
+      }
+   }
+
+   @Test
+   public void given_exporter_every_run_writes_prometheus_file() throws IOException {
+      final Path path = Files.createTempFile("machine", ".prom");
+      try {
+         final Machine machine = createSuccessorMachine(10)
+               .withMetricsExporter(new PrometheusFileExporter(path, "successor"))
+               .build();
+         machine.run();
+         final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+         Assert.assertTrue(lines.contains("# TYPE turing_steps_total counter"));
+         Assert.assertTrue(lines.contains("turing_steps_total{machine=\"successor\"} 12"));
+         Assert.assertTrue(lines
+               .contains("turing_state_visits_total{machine=\"successor\",state=\"q1\"} 11"));
+         Assert.assertTrue(lines.contains(
+               "turing_tape_high_water_mark{machine=\"successor\",tape=\"0\"} 11"));
+      }
+      finally {
+         Files.deleteIfExists(path);
+      }
+   }
+}
@@ -0,0 +1,235 @@
+package org.lessa.turing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for taking snapshots of running machines and resuming from them.
+ */
+public class MachineSnapshotTest {
+
+   /**
+    * Marking machine, see {@link Machines#marking(Tape)}, on tapes of the specified factory.
+    */
+   private static MachineBuilder createMarkingMachine(TapeFactory factory, int n) {
+      return Machines.marking(Machines.unaryTape(factory, n)).withTapeFactory(factory);
+   }
+
+   private static void assertSameRun(Machine actual, RunResult actualResult, Machine expected,
+         RunResult expectedResult) {
+      Assert.assertEquals(actualResult.toString(), expectedResult.toString());
+      final Tape actualTape = actual.tapes().get(0);
+      final Tape expectedTape = expected.tapes().get(0);
+      Assert.assertEquals(actualTape.toString(), expectedTape.toString());
+      Assert.assertEquals(actualTape.currentIndex(), expectedTape.currentIndex());
+      Assert.assertEquals(actualTape.minUsedIndex(), expectedTape.minUsedIndex());
+      Assert.assertEquals(actualTape.maxUsedIndex(), expectedTape.maxUsedIndex());
+   }
+
+   private static List<Long> stateIds(List<MachineSnapshot> snapshots) {
+      return snapshots.stream().map(MachineSnapshot::stateId).collect(Collectors.toList());
+   }
+
+   @Test
+   public void given_run_stopped_by_step_budget_resumed_run_matches_uninterrupted_run()
+         throws IOException {
+      for (final TapeFactory factory : new TapeFactory[] { TapeFactory.ARRAY,
+            TapeFactory.RUN_LENGTH }) {
+         for (final boolean accelerated : new boolean[] { false, true }) {
+            final Machine expected = createMarkingMachine(factory, 50)
+                  .withAcceleration(accelerated)
+                  .build();
+            final RunResult expectedResult = expected.run(RunLimits.NONE);
+
+            final Machine interrupted = createMarkingMachine(factory, 50)
+                  .withAcceleration(accelerated)
+                  .build();
+            final RunResult partial = interrupted.run(RunLimits.NONE.withMaxSteps(777));
+            Assert.assertEquals(partial.outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+
+            // through the binary form, as a snapshot saved to disk would be
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MachineSnapshot.of(interrupted, partial).writeTo(out);
+            final MachineSnapshot snapshot = MachineSnapshot
+                  .readFrom(new ByteArrayInputStream(out.toByteArray()));
+            Assert.assertEquals(snapshot.stateId(), 777);
+            Assert.assertEquals(snapshot.state(), partial.finalState());
+
+            final Machine resumed = interrupted.definition().resume(snapshot);
+            assertSameRun(resumed, resumed.run(RunLimits.NONE), expected, expectedResult);
+         }
+      }
+   }
+
+   @Test
+   public void given_checkpoint_file_resumed_run_matches_uninterrupted_run()
+         throws IOException {
+      final Path path = Files.createTempFile("machine", ".snapshot");
+      try {
+         for (final boolean accelerated : new boolean[] { false, true }) {
+            final Machine expected = createMarkingMachine(TapeFactory.ARRAY, 50)
+                  .withAcceleration(accelerated)
+                  .build();
+            final RunResult expectedResult = expected.run(RunLimits.NONE);
+
+            // a run killed somewhere after its second checkpoint
+            createMarkingMachine(TapeFactory.ARRAY, 50).withAcceleration(accelerated)
+                  .withCheckpointInterval(500)
+                  .withCheckpointSink(new CheckpointFile(path))
+                  .build()
+                  .run(RunLimits.NONE.withMaxSteps(1234));
+            final MachineSnapshot snapshot = MachineSnapshot.load(path);
+            Assert.assertTrue(snapshot.stateId() >= 1000 && snapshot.stateId() < 1234);
+            if (!accelerated) {
+               Assert.assertEquals(snapshot.stateId(), 1000);
+            }
+
+            final Machine resumed = createMarkingMachine(TapeFactory.ARRAY, 50)
+                  .withAcceleration(accelerated)
+                  .withCodeGeneration(true)
+                  .buildDefinition()
+                  .resume(snapshot);
+            assertSameRun(resumed, resumed.run(RunLimits.NONE), expected, expectedResult);
+         }
+      }
+      finally {
+         Files.deleteIfExists(path);
+      }
+   }
+
+   @Test
+   public void given_concurrent_runs_sharing_checkpoint_file_saves_never_fail()
+         throws Exception {
+      final Path directory = Files.createTempDirectory("machine");
+      final Path path = directory.resolve("checkpoint");
+      final MachineDefinition definition = createMarkingMachine(TapeFactory.ARRAY, 20)
+            .withCheckpointInterval(10)
+            .withCheckpointSink(new CheckpointFile(path))
+            .buildDefinition();
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         final List<Future<RunResult>> results = new ArrayList<>();
+         for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(() -> definition
+                  .newMachine(Machines.unaryTape(TapeFactory.ARRAY, 20))
+                  .run(RunLimits.NONE)));
+         }
+         for (final Future<RunResult> result : results) {
+            Assert.assertTrue(result.get().halted());
+         }
+
+         try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(files.collect(Collectors.toList()), Arrays.asList(path));
+         }
+         Assert.assertEquals(MachineSnapshot.load(path).stateId() % 10, 0);
+      }
+      finally {
+         executor.shutdownNow();
+         Files.deleteIfExists(path);
+         Files.deleteIfExists(directory);
+      }
+   }
+
+   @Test
+   public void given_generated_loop_checkpoints_match_compiled_loop_checkpoints() {
+      final List<MachineSnapshot> expected = new ArrayList<>();
+      createMarkingMachine(TapeFactory.ARRAY, 20).withCheckpointInterval(100)
+            .withCheckpointSink(expected::add)
+            .build()
+            .run(RunLimits.NONE.withMaxSteps(700));
+
+      final List<MachineSnapshot> actual = new ArrayList<>();
+      final MachineDefinition generated = createMarkingMachine(TapeFactory.ARRAY, 20)
+            .withCheckpointInterval(100)
+            .withCheckpointSink(actual::add)
+            .withCodeGeneration(true)
+            .buildDefinition();
+      final RunResult result = generated.newMachine(Machines.unaryTape(TapeFactory.ARRAY, 20))
+            .run(RunLimits.NONE.withMaxSteps(700));
+
+      Assert.assertTrue(generated.generated());
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+      Assert.assertEquals(stateIds(actual), Arrays.asList(100L, 200L, 300L, 400L, 500L, 600L,
+            700L));
+      Assert.assertEquals(stateIds(actual), stateIds(expected));
+      for (int i = 0; i < expected.size(); i++) {
+         Assert.assertEquals(actual.get(i).state(), expected.get(i).state());
+      }
+   }
+
+   @Test
+   public void given_resumed_run_checkpoints_at_the_same_steps() {
+      final List<MachineSnapshot> expected = new ArrayList<>();
+      createMarkingMachine(TapeFactory.ARRAY, 20).withCheckpointInterval(100)
+            .withCheckpointSink(expected::add)
+            .build()
+            .run();
+
+      final List<MachineSnapshot> snapshots = new ArrayList<>();
+      final Machine interrupted = createMarkingMachine(TapeFactory.ARRAY, 20)
+            .withCheckpointInterval(100)
+            .withCheckpointSink(snapshots::add)
+            .build();
+      interrupted.run(RunLimits.NONE.withMaxSteps(250));
+      final MachineSnapshot snapshot = snapshots.get(snapshots.size() - 1);
+      snapshots.clear();
+      interrupted.definition().resume(snapshot).run();
+
+      Assert.assertEquals(snapshot.stateId(), 200);
+      Assert.assertEquals(stateIds(snapshots), stateIds(expected.subList(2, expected.size())));
+   }
+
+   @Test
+   public void given_corrupt_counts_reading_snapshot_fails_with_io_exception()
+         throws IOException {
+      for (final int count : new int[] { -1, Integer.MAX_VALUE }) {
+         // one tape of the specified length, then as many tapes
+         for (final boolean tapes : new boolean[] { false, true }) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (DataOutputStream data = new DataOutputStream(new GZIPOutputStream(out))) {
+               data.writeInt(0x544D534E);
+               data.writeShort(1);
+               data.writeLong(0);
+               data.writeUTF("q0");
+               data.writeInt(tapes ? count : 1);
+               data.writeInt(0);
+               data.writeInt(0);
+               data.writeInt(tapes ? 1 : count);
+               data.writeChar('>');
+            }
+            try {
+               MachineSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()));
+               Assert.fail(String.format("Expected an IOException for %d.", count));
+            }
+            catch (final IOException expected) {
+            }
+         }
+      }
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void given_snapshot_with_other_tape_count_resume_fails() {
+      final Machine machine = createMarkingMachine(TapeFactory.ARRAY, 5).build();
+      final RunResult result = machine.run(RunLimits.NONE.withMaxSteps(3));
+      createMarkingMachine(TapeFactory.ARRAY, 5).withMoreTapes(1)
+            .withTransitionFunction((state, symbols) -> null)
+            .buildDefinition()
+            .resume(MachineSnapshot.of(machine, result));
+   }
+}
@@ -1,7 +1,10 @@
 package org.lessa.turing;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -103,6 +106,29 @@ public class MachineTest {
       }
    }
 
+   @Test
+   public void given_compiled_function_with_unknown_target_state_builder_fails_validate() {
+      final Character[] blankSymbol = new Character[] { Machine.DEFAULT_BLANK_SYMBOL };
+      final Move[] moveRight = new Move[] { Move.RIGHT };
+      try {
+         new MachineBuilder().withAlphabetSymbols('0')
+               .withInputSymbols('0')
+               .withStates("q0", "H")
+               .withInitialState("q0")
+               .withFinalStates("H")
+               .withTransitionFunction(new TransitionFunctionBuilder(1)
+                     .withTranstion("q0", blankSymbol, blankSymbol, moveRight, "q1")
+                     .compile())
+               .build();
+         Assert.assertFalse(true, "Builder should fail validation!");
+      }
+      catch (final MachineBuilderException mbe) {
+         final Map<MachinePart, List<String>> violations = mbe.violations();
+         Assert.assertEquals(violations.size(), 1);
+         Assert.assertTrue(violations.containsKey(MachinePart.TRANSTION_FUNCTION));
+      }
+   }
+
    // ----------------------------------------------------------------------
    // Positive cases
    // ----------------------------------------------------------------------
@@ -149,4 +175,424 @@ public class MachineTest {
             .build()
             .run();
    }
-}
\ No newline at end of file
+
+   /**
+    * Same machine as {@link #given_single_tape_machine_with_no_input_returns_0b1b()}, running
+    * on a compiled transition function.
+    */
+   @Test
+   public void given_compiled_single_tape_machine_with_no_input_returns_0b1b() {
+
+      final Character[] startSymbol = new Character[] { Machine.DEFAULT_START_SYMBOL };
+      final Character[] blankSymbol = new Character[] { Machine.DEFAULT_BLANK_SYMBOL };
+      final Move[] moveRight = new Move[] { Move.RIGHT };
+
+      final TransitionFunction program = new TransitionFunctionBuilder(1)
+            .withTranstion("q0", startSymbol, startSymbol, moveRight, "q1")
+            .withTranstion("q1", blankSymbol, new Character[] { '0' }, moveRight, "q2")
+            .withTranstion("q2", blankSymbol, blankSymbol, moveRight, "q3")
+            .withTranstion("q3", blankSymbol, new Character[] { '1' }, moveRight, "q4")
+            .withTranstion("q4", blankSymbol, blankSymbol, moveRight, "HALT")
+            .compile();
+
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('0', '1')
+            .withStates("q0", "q1", "q2", "q3", "q4", "HALT")
+            .withInitialState("q0")
+            .withFinalStates("HALT")
+            .withTransitionFunction(program)
+            .build();
+      machine.run();
+
+      Assert.assertEquals(machine.tapes().get(0).toString(),
+            "" + Machine.DEFAULT_START_SYMBOL + '0' + Machine.DEFAULT_BLANK_SYMBOL + '1'
+                  + Machine.DEFAULT_BLANK_SYMBOL);
+   }
+
+   @Test
+   public void given_retaining_and_reusing_subscribers_events_are_copied_only_for_retaining() {
+
+      final Character[] startSymbol = new Character[] { Machine.DEFAULT_START_SYMBOL };
+      final Character[] blankSymbol = new Character[] { Machine.DEFAULT_BLANK_SYMBOL };
+      final Move[] moveRight = new Move[] { Move.RIGHT };
+
+      final RecordingEventHandler retaining = new RecordingEventHandler(true);
+      final RecordingEventHandler reusing = new RecordingEventHandler(false);
+
+      new MachineBuilder().withAlphabetSymbols('0')
+            .withInputSymbols('0')
+            .withStates("q0", "q1", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withSubscriber(retaining)
+            .withSubscriber(reusing)
+            .withTransitionFunction(new TransitionFunctionBuilder(1)
+                  .withTranstion("q0", startSymbol, startSymbol, moveRight, "q1")
+                  .withTranstion("q1", blankSymbol, new Character[] { '0' }, moveRight, "H")
+                  .compile())
+            .build()
+            .run();
+
+      Assert.assertEquals(retaining.stateChanges.size(), 3);
+      Assert.assertEquals(retaining.stateChanges.get(0).stateId(), 0);
+      Assert.assertEquals(retaining.stateChanges.get(0).state(), "q0");
+      Assert.assertEquals(retaining.stateChanges.get(0).symbols(), Arrays.asList(startSymbol));
+      Assert.assertEquals(retaining.stateChanges.get(2).state(), "H");
+      Assert.assertEquals(retaining.stateChanges.get(2).symbols(), Arrays.asList(blankSymbol));
+
+      Assert.assertEquals(reusing.stateChanges.size(), 3);
+      Assert.assertSame(reusing.stateChanges.get(0), reusing.stateChanges.get(2));
+      Assert.assertEquals(reusing.transitions.size(), 2);
+      Assert.assertSame(reusing.transitions.get(0), reusing.transitions.get(1));
+   }
+
+   @Test
+   public void given_retaining_and_reusing_subscribers_events_arrive_in_registration_order() {
+      final List<RecordingEventHandler> order = new ArrayList<>();
+      final RecordingEventHandler first = new RecordingEventHandler(true, order);
+      final RecordingEventHandler second = new RecordingEventHandler(false, order);
+      final RecordingEventHandler third = new RecordingEventHandler(true, order);
+
+      Machines.successor(Machines.unaryTape(TapeFactory.ARRAY, 1))
+            .withSubscriber(first)
+            .withSubscriber(second)
+            .withSubscriber(third)
+            .build()
+            .run();
+
+      Assert.assertEquals(order.subList(0, 6),
+            Arrays.asList(first, second, third, first, second, third));
+      Assert.assertSame(first.stateChanges.get(1), third.stateChanges.get(1));
+      Assert.assertNotSame(first.stateChanges.get(1), second.stateChanges.get(1));
+   }
+
+   @Test
+   public void given_shuttling_machine_with_step_budget_run_stops_at_budget() {
+      final RunResult result = createShuttlingMachine(true)
+            .run(RunLimits.NONE.withMaxSteps(1000));
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+      Assert.assertEquals(result.steps(), 1000);
+      Assert.assertEquals(result.finalState(), "q0");
+   }
+
+   @Test
+   public void given_shuttling_machine_with_time_budget_run_stops_at_deadline() {
+      final RunResult result = createShuttlingMachine(true)
+            .run(RunLimits.NONE.withTimeBudget(10, TimeUnit.MILLISECONDS));
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.DEADLINE_EXCEEDED);
+      Assert.assertTrue(result.steps() > 0);
+   }
+
+   @Test
+   public void given_machine_without_matching_transition_run_reports_divergence() {
+      final RunResult result = createShuttlingMachine(false).run(RunLimits.NONE);
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.DIVERGED);
+      Assert.assertEquals(result.steps(), 1);
+      Assert.assertEquals(result.finalState(), "q1");
+   }
+
+   @Test
+   public void given_toggling_machine_with_cycle_detection_run_reports_loop() {
+      for (final boolean compiled : new boolean[] { false, true }) {
+         final List<Long> periods = new ArrayList<>();
+         final RunResult result = createTogglingMachine(compiled, false)
+               .withSubscriber(new Event.EventHandler() {
+
+                  @Override
+                  public void handle(Event.OnDiverged event) {
+                  }
+
+                  @Override
+                  public void handle(Event.OnHalted event) {
+                  }
+
+                  @Override
+                  public void handle(Event.OnLooping event) {
+                     periods.add(event.period());
+                  }
+
+                  @Override
+                  public void handle(Event.OnStateChanged event) {
+                  }
+
+                  @Override
+                  public void handle(Event.OnTransition event) {
+                  }
+               })
+               .build()
+               .run(RunLimits.NONE.withMaxSteps(1000000));
+         Assert.assertEquals(result.outcome(), RunResult.Outcome.LOOPING);
+         Assert.assertTrue(result.steps() < 100);
+         Assert.assertEquals(periods, Arrays.asList(4L));
+      }
+   }
+
+   @Test
+   public void given_machine_writing_fresh_cells_cycle_detection_reports_no_loop() {
+      final RunResult result = createTogglingMachine(true, true).build()
+            .run(RunLimits.NONE.withMaxSteps(100000));
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+   }
+
+   @Test
+   public void given_halting_machine_cycle_detection_does_not_change_run() {
+      final Machine expected = Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, 30)).build();
+      final Machine actual = Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, 30))
+            .withCycleDetection(true)
+            .build();
+      Assert.assertEquals(actual.run(RunLimits.NONE).toString(),
+            expected.run(RunLimits.NONE).toString());
+      Assert.assertEquals(actual.tapes().get(0).toString(), expected.tapes().get(0).toString());
+   }
+
+   @Test
+   public void given_run_length_tape_factory_machine_creates_run_length_tapes() {
+      final Character[] startSymbol = new Character[] { Machine.DEFAULT_START_SYMBOL };
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('0')
+            .withInputSymbols('0')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withMoreTapes(1)
+            .withTapeFactory(TapeFactory.RUN_LENGTH)
+            .withTransitionFunction(new TransitionFunctionBuilder(2)
+                  .withTranstion("q0", new Character[] { startSymbol[0], startSymbol[0] },
+                        new Character[] { '0', '0' }, new Move[] { Move.NONE, Move.NONE }, "H")
+                  .compile())
+            .build();
+
+      Assert.assertTrue(machine.run(RunLimits.NONE).halted());
+      for (final Tape tape : machine.tapes()) {
+         Assert.assertTrue(tape instanceof RunLengthTape);
+         Assert.assertEquals(tape.toString(), "0");
+      }
+   }
+
+   @Test
+   public void given_one_definition_machines_run_on_independent_tapes() {
+      final MachineDefinition definition = createShuttlingMachine(true).definition();
+      final Machine first = definition.newMachine();
+      final Machine second = definition.newMachine(
+            new ArrayTape(Machine.DEFAULT_BLANK_SYMBOL, Machine.DEFAULT_START_SYMBOL, '0'));
+
+      Assert.assertSame(first.definition(), second.definition());
+      Assert.assertSame(first.transitionFunction(), second.transitionFunction());
+      Assert.assertNotSame(first.tapes().get(0), second.tapes().get(0));
+
+      Assert.assertEquals(first.run(RunLimits.NONE.withMaxSteps(3)).finalState(), "q1");
+      Assert.assertEquals(first.tapes().get(0).currentIndex(), 1);
+      Assert.assertEquals(second.tapes().get(0).currentIndex(), 0);
+      Assert.assertEquals(second.run(RunLimits.NONE).outcome(), RunResult.Outcome.DIVERGED);
+   }
+
+   @Test
+   public void given_accelerated_machine_runs_match_naive_runs() {
+      for (final TapeFactory factory : new TapeFactory[] { TapeFactory.ARRAY,
+            TapeFactory.RUN_LENGTH }) {
+         for (final long maxSteps : new long[] { Long.MAX_VALUE, 12345 }) {
+            final RunLimits limits = RunLimits.NONE.withMaxSteps(maxSteps);
+            final Machine naive = Machines.marking(Machines.unaryTape(factory, 200))
+                  .withTapeFactory(factory)
+                  .build();
+            final Machine accelerated = Machines.marking(Machines.unaryTape(factory, 200))
+                  .withTapeFactory(factory)
+                  .withAcceleration(true)
+                  .build();
+            final RunResult expected = naive.run(limits);
+            final RunResult actual = accelerated.run(limits);
+
+            Assert.assertEquals(actual.outcome(), expected.outcome());
+            Assert.assertEquals(actual.steps(), expected.steps());
+            Assert.assertEquals(actual.finalState(), expected.finalState());
+            final Tape expectedTape = naive.tapes().get(0);
+            final Tape actualTape = accelerated.tapes().get(0);
+            Assert.assertEquals(actualTape.toString(), expectedTape.toString());
+            Assert.assertEquals(actualTape.currentIndex(), expectedTape.currentIndex());
+            Assert.assertEquals(actualTape.maxUsedIndex(), expectedTape.maxUsedIndex());
+         }
+      }
+   }
+
+   @Test
+   public void given_coded_tapes_machine_runs_match_array_tape_runs() {
+      for (final boolean accelerated : new boolean[] { false, true }) {
+         final Machine expected = Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, 100))
+               .withAcceleration(accelerated)
+               .build();
+         final MachineDefinition definition = Machines.marking(null)
+               .withTapeFactory(TapeFactory.CODED)
+               .withAcceleration(accelerated)
+               .buildDefinition();
+         final Tape input = TapeFactory.CODED.create(definition.alphabet(),
+               Machine.DEFAULT_BLANK_SYMBOL, Machine.DEFAULT_START_SYMBOL);
+         for (int i = 1; i <= 100; i++) {
+            input.move(Move.RIGHT);
+            input.write('1');
+         }
+         while (input.currentIndex() > 0) {
+            input.move(Move.LEFT);
+         }
+         final Machine actual = definition.newMachine(input);
+
+         Assert.assertEquals(actual.run(RunLimits.NONE).toString(),
+               expected.run(RunLimits.NONE).toString());
+         Assert.assertEquals(actual.tapes().get(0).toString(),
+               expected.tapes().get(0).toString());
+         Assert.assertTrue(actual.tapes().get(0) instanceof CodedTape);
+      }
+   }
+
+   @Test
+   public void given_generated_machine_runs_match_table_driven_runs() {
+      for (final boolean accelerated : new boolean[] { false, true }) {
+         for (final long maxSteps : new long[] { Long.MAX_VALUE, 12345 }) {
+            final RunLimits limits = RunLimits.NONE.withMaxSteps(maxSteps);
+            final Machine table = Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, 100))
+                  .build();
+            final Machine generated = Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, 100))
+                  .withAcceleration(accelerated)
+                  .withCodeGeneration(true)
+                  .build();
+            Assert.assertTrue(generated.definition().generated());
+
+            final RunResult expected = table.run(limits);
+            final RunResult actual = generated.run(limits);
+            Assert.assertEquals(actual.toString(), expected.toString());
+            Assert.assertEquals(generated.tapes().get(0).toString(),
+                  table.tapes().get(0).toString());
+            Assert.assertEquals(generated.tapes().get(0).currentIndex(),
+                  table.tapes().get(0).currentIndex());
+         }
+      }
+   }
+
+   @Test
+   public void given_generated_machine_without_transition_run_reports_divergence() {
+      final Machine machine = Machines.marking(new ArrayTape(Machine.DEFAULT_BLANK_SYMBOL,
+            Machine.DEFAULT_START_SYMBOL, '1', '0')).withCodeGeneration(true).build();
+      final RunResult result = machine.run(RunLimits.NONE);
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.DIVERGED);
+      Assert.assertEquals(result.steps(), 2);
+      Assert.assertEquals(result.finalState(), "q2");
+   }
+
+   @Test
+   public void given_accelerated_machine_macro_steps_notify_one_transition_per_run() {
+      final RecordingEventHandler handler = new RecordingEventHandler(true);
+      final Machine machine = new MachineBuilder().withAlphabetSymbols('1')
+            .withInputSymbols('1')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withAcceleration(true)
+            .withSubscriber(handler)
+            .withInputTape(new ArrayTape(Machine.DEFAULT_BLANK_SYMBOL,
+                  Machine.DEFAULT_START_SYMBOL, '1', '1', '1', '1'))
+            .withTransitionFunction(new TransitionFunctionBuilder(1)
+                  .withTranstion("q0", new Character[] { Machine.DEFAULT_START_SYMBOL },
+                        new Character[] { Machine.DEFAULT_START_SYMBOL },
+                        new Move[] { Move.RIGHT }, "q0")
+                  .withTranstion("q0", new Character[] { '1' }, new Character[] { '1' },
+                        new Move[] { Move.RIGHT }, "q0")
+                  .withTranstion("q0", new Character[] { Machine.DEFAULT_BLANK_SYMBOL },
+                        new Character[] { '1' }, new Move[] { Move.NONE }, "H")
+                  .compile())
+            .build();
+
+      final RunResult result = machine.run(RunLimits.NONE);
+      Assert.assertEquals(result.steps(), 6);
+      Assert.assertEquals(machine.tapes().get(0).toString(),
+            Machine.DEFAULT_START_SYMBOL + "11111");
+      // one step on the start symbol, one macro step over the ones, one to halt
+      Assert.assertEquals(handler.transitions.size(), 3);
+      Assert.assertEquals(handler.stateChanges.get(2).stateId(), 5);
+   }
+
+   /**
+    * Machine that moves back and forth between the first two cells forever or, when
+    * incomplete, diverges after its first step since it has no transition for state 'q1'.
+    */
+   private Machine createShuttlingMachine(boolean complete) {
+      final Character[] startSymbol = new Character[] { Machine.DEFAULT_START_SYMBOL };
+      final Character[] blankSymbol = new Character[] { Machine.DEFAULT_BLANK_SYMBOL };
+      final TransitionFunctionBuilder builder = new TransitionFunctionBuilder(1)
+            .withTranstion("q0", startSymbol, startSymbol, new Move[] { Move.RIGHT }, "q1");
+      if (complete) {
+         builder.withTranstion("q1", blankSymbol, blankSymbol, new Move[] { Move.LEFT }, "q0");
+      }
+      return new MachineBuilder().withAlphabetSymbols('0')
+            .withInputSymbols('0')
+            .withStates("q0", "q1", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withTransitionFunction(builder.compile())
+            .build();
+   }
+
+   /**
+    * Machine with cycle detection that writes a mark right of the start symbol, steps on,
+    * then comes back to erase it, forever. When drifting, it steps right after erasing, so
+    * it keeps marking fresh cells instead and never repeats a configuration.
+    */
+   private MachineBuilder createTogglingMachine(boolean compiled, boolean drifting) {
+      final Character start = Machine.DEFAULT_START_SYMBOL;
+      final Character blank = Machine.DEFAULT_BLANK_SYMBOL;
+      final TransitionFunctionBuilder builder = new TransitionFunctionBuilder(1);
+      Machines.transition(builder, "q0", start, start, Move.RIGHT, "q1");
+      Machines.transition(builder, "q1", blank, '0', Move.RIGHT, "q2");
+      Machines.transition(builder, "q2", blank, blank, Move.LEFT, "q3");
+      Machines.transition(builder, "q3", '0', blank, drifting ? Move.RIGHT : Move.LEFT,
+            drifting ? "q1" : "q0");
+      return new MachineBuilder().withAlphabetSymbols('0')
+            .withInputSymbols('0')
+            .withStates("q0", "q1", "q2", "q3", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withCycleDetection(true)
+            .withTransitionFunction(compiled ? builder.compile() : builder.build());
+   }
+
+   private static final class RecordingEventHandler implements Event.EventHandler {
+
+      private final List<RecordingEventHandler> order;
+      private final boolean retainsEvents;
+      private final List<Event.OnStateChanged> stateChanges = new ArrayList<>();
+      private final List<Event.OnTransition> transitions = new ArrayList<>();
+
+      RecordingEventHandler(boolean retainsEvents) {
+         this(retainsEvents, new ArrayList<>());
+      }
+
+      /**
+       * Handler that also appends itself to the specified list on every state change.
+       */
+      RecordingEventHandler(boolean retainsEvents, List<RecordingEventHandler> order) {
+         this.order = order;
+         this.retainsEvents = retainsEvents;
+      }
+
+      @Override
+      public void handle(Event.OnDiverged event) {
+      }
+
+      @Override
+      public void handle(Event.OnHalted event) {
+      }
+
+      @Override
+      public void handle(Event.OnStateChanged event) {
+         order.add(this);
+         stateChanges.add(event);
+      }
+
+      @Override
+      public void handle(Event.OnTransition event) {
+         transitions.add(event);
+      }
+
+      @Override
+      public boolean retainsEvents() {
+         return retainsEvents;
+      }
+   }
+}
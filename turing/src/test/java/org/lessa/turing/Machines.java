@@ -0,0 +1,118 @@
+package org.lessa.turing;
+
+/**
+ * Machines and helpers shared by the tests.
+ */
+final class Machines {
+
+   static final Character BLANK = Machine.DEFAULT_BLANK_SYMBOL;
+   static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   /**
+    * Unary successor in the text format of {@link MachineFile}, with three ones on its input
+    * tape, which walks back to the start symbol after writing one more.
+    */
+   static final String SUCCESSOR_TEXT = String.join("\n",
+         "# unary successor",
+         "tapes 1",
+         "blank _",
+         "start >",
+         "alphabet 1",
+         "input 1",
+         "states q0 q1 q2 H",
+         "initial q0",
+         "final H",
+         "tape 111",
+         "transitions",
+         "q0 > > R q1",
+         "q1 1 1 R q1",
+         "q1 _ 1 L q2",
+         "q2 1 1 L q2",
+         "q2 > > N H",
+         "");
+
+   private Machines() {
+   }
+
+   /**
+    * Builder of a machine that marks its unary input one symbol at a time, walking to the
+    * end of the input and back to the start of the tape after each mark.
+    *
+    * @param input
+    *           input tape, see {@link #unaryTape(TapeFactory, int)}
+    * @return builder, ready to build or to take more options
+    */
+   static MachineBuilder marking(final Tape input) {
+      final TransitionFunctionBuilder builder = new TransitionFunctionBuilder(1);
+      transition(builder, "q0", START, START, Move.RIGHT, "q1");
+      transition(builder, "q1", '0', '0', Move.RIGHT, "q1");
+      transition(builder, "q1", '1', '0', Move.RIGHT, "q2");
+      transition(builder, "q1", BLANK, BLANK, Move.NONE, "H");
+      transition(builder, "q2", '1', '1', Move.RIGHT, "q2");
+      transition(builder, "q2", BLANK, BLANK, Move.LEFT, "q3");
+      transition(builder, "q3", '0', '0', Move.LEFT, "q3");
+      transition(builder, "q3", '1', '1', Move.LEFT, "q3");
+      transition(builder, "q3", START, START, Move.RIGHT, "q1");
+      return new MachineBuilder().withAlphabetSymbols('0', '1')
+            .withInputSymbols('1')
+            .withStates("q0", "q1", "q2", "q3", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withInputTape(input)
+            .withTransitionFunction(builder.compile());
+   }
+
+   /**
+    * Builder of the unary successor, which skips the start symbol and the input ones, then
+    * writes one more. A run on n ones takes n + 2 steps and notifies 2n + 6 events.
+    *
+    * @param input
+    *           input tape, see {@link #unaryTape(TapeFactory, int)}
+    * @return builder, ready to build or to take more options
+    */
+   static MachineBuilder successor(final Tape input) {
+      final TransitionFunctionBuilder builder = new TransitionFunctionBuilder(1);
+      transition(builder, "q0", START, START, Move.RIGHT, "q1");
+      transition(builder, "q1", '1', '1', Move.RIGHT, "q1");
+      transition(builder, "q1", BLANK, '1', Move.RIGHT, "H");
+      return new MachineBuilder().withAlphabetSymbols('1')
+            .withInputSymbols('1')
+            .withStates("q0", "q1", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withInputTape(input)
+            .withTransitionFunction(builder.compile());
+   }
+
+   /**
+    * Adds a single-tape transition to a builder.
+    */
+   static void transition(final TransitionFunctionBuilder builder, final String state,
+         final Character input, final Character output, final Move move,
+         final String nextState) {
+      builder.withTranstion(state, new Character[] { input }, new Character[] { output },
+            new Move[] { move }, nextState);
+   }
+
+   /**
+    * Tape created by a factory that holds n ones after the start symbol, with the head back
+    * on the start symbol.
+    *
+    * @param factory
+    *           factory of the tape
+    * @param n
+    *           number of ones
+    * @return input tape
+    */
+   static Tape unaryTape(final TapeFactory factory, final int n) {
+      final Tape tape = factory.create(BLANK, START);
+      for (int i = 1; i <= n; i++) {
+         tape.move(Move.RIGHT);
+         tape.write('1');
+      }
+      while (tape.currentIndex() > 0) {
+         tape.move(Move.LEFT);
+      }
+      return tape;
+   }
+}
@@ -0,0 +1,374 @@
+package org.lessa.turing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Contract tests shared by all tape implementations.
+ */
+public class TapeTest {
+
+   private static final Character BLANK = Machine.DEFAULT_BLANK_SYMBOL;
+   private static final Character START = Machine.DEFAULT_START_SYMBOL;
+
+   // ----------------------------------------------------------------------
+   // Negative cases
+   // ----------------------------------------------------------------------
+
+   @Test(dataProvider = "EmptyTapes", expectedExceptions = IllegalStateException.class)
+   public void given_head_at_start_moving_left_throws_exception(Tape tape) {
+      tape.move(Move.LEFT);
+   }
+
+   // ----------------------------------------------------------------------
+   // Positive cases
+   // ----------------------------------------------------------------------
+
+   @Test(dataProvider = "EmptyTapes")
+   public void given_new_tape_reads_start_then_blank(Tape tape) {
+      Assert.assertEquals(tape.read(), START);
+      tape.move(Move.RIGHT);
+      Assert.assertEquals(tape.read(), BLANK);
+      Assert.assertEquals(tape.toString(), String.valueOf(START));
+   }
+
+   @Test(dataProvider = "EmptyTapes")
+   public void given_writes_past_capacity_tape_keeps_all_cells(Tape tape) {
+      for (int i = 1; i <= 1000; i++) {
+         tape.move(Move.RIGHT);
+         tape.write(i % 2 == 0 ? '0' : '1');
+      }
+      Assert.assertEquals(tape.minUsedIndex(), 0);
+      Assert.assertEquals(tape.maxUsedIndex(), 1000);
+      Assert.assertEquals(tape.currentIndex(), 1000);
+      for (int i = 1; i <= 1000; i++) {
+         Assert.assertEquals(tape.charAt(i), i % 2 == 0 ? '0' : '1');
+      }
+      Assert.assertEquals(tape.charAt(1001), BLANK.charValue());
+   }
+
+   @Test(dataProvider = "EmptyTapes")
+   public void given_sparse_writes_unwritten_cells_print_as_blank(Tape tape) {
+      tape.move(Move.RIGHT);
+      tape.move(Move.RIGHT);
+      tape.write('1');
+      Assert.assertEquals(tape.toString(), "" + START + BLANK + '1');
+   }
+
+   @Test(dataProvider = "EmptyTapes")
+   public void given_runs_of_symbols_run_length_and_sweep_skip_them(Tape tape) {
+      for (int i = 1; i <= 3; i++) {
+         tape.move(Move.RIGHT);
+         tape.write('1');
+      }
+      tape.move(Move.LEFT);
+      tape.move(Move.LEFT);
+      Assert.assertEquals(tape.runLength(Move.RIGHT, 100), 3);
+      Assert.assertEquals(tape.runLength(Move.RIGHT, 2), 2);
+      Assert.assertEquals(tape.runLength(Move.LEFT, 100), 1);
+      Assert.assertEquals(tape.runLength(Move.NONE, 100), 100);
+
+      tape.sweep(Move.RIGHT, 3);
+      Assert.assertEquals(tape.currentIndex(), 4);
+      Assert.assertEquals(tape.runLength(Move.RIGHT, 1000), 1000);
+      Assert.assertEquals(tape.runLength(Move.LEFT, 1000), 1);
+      tape.sweep(Move.RIGHT, 1000);
+      Assert.assertEquals(tape.currentIndex(), 1004);
+      Assert.assertEquals(tape.maxUsedIndex(), 1003);
+      Assert.assertEquals(tape.runLength(Move.LEFT, 2000), 1001);
+      Assert.assertEquals(tape.charAt(1003), BLANK.charValue());
+   }
+
+   @Test(dataProvider = "EmptyTapes")
+   public void given_long_tape_views_and_writers_match_to_string(Tape tape) throws IOException {
+      for (int i = 1; i <= 20000; i++) {
+         tape.move(Move.RIGHT);
+         if (i % 7 != 0) {
+            tape.write(i % 3 == 0 ? '0' : '\u00e9');
+         }
+      }
+      final String expected = tape.toString();
+      Assert.assertEquals(expected.length(), 20001);
+
+      final StringWriter writer = new StringWriter();
+      tape.writeTo(writer);
+      Assert.assertEquals(writer.toString(), expected);
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      tape.writeTo(Channels.newChannel(bytes));
+      Assert.assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8), expected);
+
+      final CharSequence view = tape.view();
+      Assert.assertEquals(view.length(), expected.length());
+      Assert.assertEquals(view.toString(), expected);
+      Assert.assertEquals(view.subSequence(9000, 9100).toString(),
+            expected.substring(9000, 9100));
+      final char[] blanks = new char[9];
+      Arrays.fill(blanks, BLANK);
+      Assert.assertEquals(tape.view(19990, 20010).toString(),
+            expected.substring(19990) + new String(blanks));
+   }
+
+   @Test
+   public void given_contents_array_tape_places_them_after_start() {
+      final Tape tape = new ArrayTape(BLANK, START, '0', '1', '1');
+      Assert.assertEquals(tape.toString(), START + "011");
+      Assert.assertEquals(tape.maxUsedIndex(), 3);
+      Assert.assertEquals(new ArrayTape(BLANK, START, '0').toString(), START + "0");
+   }
+
+   @Test
+   public void given_contents_sparse_tape_places_them_after_start() {
+      final Tape tape = new SparseTape(BLANK, START, '0', '1', '1');
+      Assert.assertEquals(tape.toString(), START + "011");
+      Assert.assertEquals(tape.maxUsedIndex(), 3);
+   }
+
+   @Test
+   public void given_contents_plain_tape_places_them_after_start() {
+      final Tape tape = new Tape(BLANK, START, '0', '1', '1');
+      Assert.assertEquals(tape.toString(), START + "011");
+      Assert.assertEquals(tape.maxUsedIndex(), 3);
+   }
+
+   @Test
+   public void given_long_reader_streaming_tape_reads_only_as_far_as_the_head() {
+      final int[] read = new int[1];
+      final Reader reader = new Reader() {
+
+         @Override
+         public void close() {
+         }
+
+         @Override
+         public int read(char[] buffer, int offset, int length) {
+            Arrays.fill(buffer, offset, offset + length, '1');
+            read[0] += length;
+            return length;
+         }
+      };
+      final StreamingTape tape = StreamingTape.fromReader(BLANK, START, reader);
+      Assert.assertEquals(tape.readChar(), START.charValue());
+      Assert.assertEquals(read[0], 0);
+      for (int i = 1; i <= 100000; i++) {
+         tape.move(Move.RIGHT);
+         Assert.assertEquals(tape.readChar(), '1');
+      }
+      Assert.assertTrue(read[0] < 200000);
+      Assert.assertTrue(tape.maxUsedIndex() >= 100000);
+   }
+
+   @Test
+   public void given_input_stream_and_mapped_file_streaming_tapes_match_array_tape()
+         throws IOException {
+      final String input = "0110100111010";
+      final Path path = Files.createTempFile("tape", ".txt");
+      try {
+         Files.write(path, input.getBytes(StandardCharsets.US_ASCII));
+         final Character[] contents = new Character[input.length()];
+         for (int i = 0; i < contents.length; i++) {
+            contents[i] = input.charAt(i);
+         }
+         final Tape[] tapes = new Tape[] {
+               StreamingTape.fromInputStream(BLANK, START,
+                     new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                     StandardCharsets.UTF_8),
+               StreamingTape.fromFile(BLANK, START, path, StandardCharsets.US_ASCII),
+               StreamingTape.fromFile(BLANK, START, path, StandardCharsets.UTF_8) };
+         for (final Tape tape : tapes) {
+            final Tape expected = new ArrayTape(BLANK, START, contents);
+            for (int i = 0; i < input.length() + 3; i++) {
+               Assert.assertEquals(tape.readChar(), expected.readChar());
+               // mark every third cell, so that written cells must win over the input
+               if (i % 3 == 0) {
+                  tape.writeChar('x');
+                  expected.writeChar('x');
+               }
+               tape.move(Move.RIGHT);
+               expected.move(Move.RIGHT);
+            }
+            Assert.assertEquals(tape.toString(), expected.toString());
+            ((StreamingTape) tape).close();
+         }
+      }
+      finally {
+         Files.delete(path);
+      }
+   }
+
+   @Test
+   public void given_malformed_input_every_streaming_tape_fails_the_same_way()
+         throws IOException {
+      final byte[] input = new byte[] { '0', '1', (byte) 0xFF, '0' };
+      final Path path = Files.createTempFile("tape", ".txt");
+      try {
+         Files.write(path, input);
+         final Tape[] tapes = new Tape[] {
+               StreamingTape.fromInputStream(BLANK, START, new ByteArrayInputStream(input),
+                     StandardCharsets.US_ASCII),
+               StreamingTape.fromFile(BLANK, START, path, StandardCharsets.US_ASCII),
+               StreamingTape.fromFile(BLANK, START, path, StandardCharsets.UTF_8) };
+         for (final Tape tape : tapes) {
+            try {
+               for (int i = 0; i <= input.length; i++) {
+                  tape.readChar();
+                  tape.move(Move.RIGHT);
+               }
+               Assert.fail("Malformed input was read as " + tape);
+            }
+            catch (final UncheckedIOException uioe) {
+               Assert.assertTrue(uioe.getCause() instanceof CharacterCodingException);
+            }
+            ((StreamingTape) tape).close();
+         }
+      }
+      finally {
+         Files.delete(path);
+      }
+   }
+
+   @Test
+   public void given_coded_tape_codes_and_symbols_agree() {
+      final Alphabet alphabet = new Alphabet(Arrays.asList(BLANK, START, '0', '1'));
+      final CodedTape tape = new CodedTape(alphabet, BLANK, START);
+      Assert.assertEquals(tape.readCode(), alphabet.code(START));
+      tape.move(Move.RIGHT);
+      tape.writeCode(alphabet.code('1'));
+      tape.move(Move.RIGHT);
+      tape.write('0');
+      Assert.assertEquals(tape.codeAt(2), alphabet.code('0'));
+      Assert.assertEquals(tape.codeAt(100), alphabet.code(BLANK));
+      Assert.assertEquals(tape.toString(), START + "10");
+   }
+
+   @Test
+   public void given_symbols_far_apart_alphabet_codes_every_symbol() {
+      final List<Character> symbols = new ArrayList<>(Arrays.asList(BLANK, START, '\u0000',
+            '\uffff'));
+      for (char symbol = '0'; symbol <= 'z'; symbol++) {
+         symbols.add(symbol);
+      }
+      final Alphabet alphabet = new Alphabet(symbols);
+      for (int code = 0; code < alphabet.size(); code++) {
+         Assert.assertEquals(alphabet.code(alphabet.symbol(code)), code);
+      }
+      Assert.assertEquals(alphabet.code('/'), -1);
+      Assert.assertEquals(alphabet.code((char) (BLANK + 1)), -1);
+      Assert.assertEquals(new Alphabet(new ArrayList<>()).code(BLANK), -1);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void given_symbol_outside_alphabet_coded_tape_write_throws_exception() {
+      new CodedTape(new Alphabet(Arrays.asList(BLANK, START)), BLANK, START).write('1');
+   }
+
+   @Test
+   public void given_forked_persistent_tapes_writes_are_not_shared() {
+      final Random random = new Random(42);
+      final Tape[] expected = new Tape[8];
+      final PersistentTape[] actual = new PersistentTape[expected.length];
+      expected[0] = new ArrayTape(BLANK, START);
+      actual[0] = new PersistentTape(BLANK, START);
+
+      // forks of forks, each writing its own symbol at random cells up to deep in the tree
+      for (int i = 1; i < expected.length; i++) {
+         final int parent = random.nextInt(i);
+         actual[i] = actual[parent].fork();
+         expected[i] = new ArrayTape(BLANK, START);
+         for (int ix = 1; ix <= expected[parent].maxUsedIndex(); ix++) {
+            expected[i].move(Move.RIGHT);
+            expected[i].writeChar(expected[parent].charAt(ix));
+         }
+         for (int j = 0; j <= i; j++) {
+            final int index = 1 + random.nextInt(j % 2 == 0 ? 100 : 300000);
+            write(expected[j], index, (char) ('a' + j));
+            write(actual[j], index, (char) ('a' + j));
+         }
+      }
+
+      for (int i = 0; i < expected.length; i++) {
+         Assert.assertEquals(actual[i].maxUsedIndex(), expected[i].maxUsedIndex());
+         Assert.assertEquals(actual[i].toString(), expected[i].toString());
+      }
+   }
+
+   @Test
+   public void given_random_walk_run_length_tape_matches_array_tape() {
+      final Random random = new Random(42);
+      final Tape expected = new ArrayTape(BLANK, START);
+      final Tape actual = new RunLengthTape(BLANK, START);
+      final char[] symbols = new char[] { '0', '1', BLANK };
+
+      for (int step = 0; step < 100000; step++) {
+         final char symbol = symbols[random.nextInt(symbols.length)];
+         expected.writeChar(symbol);
+         actual.writeChar(symbol);
+         final Move move = expected.currentIndex() == 0 || random.nextBoolean() ? Move.RIGHT
+               : Move.LEFT;
+         expected.move(move);
+         actual.move(move);
+         Assert.assertEquals(actual.readChar(), expected.readChar());
+      }
+      Assert.assertEquals(actual.toString(), expected.toString());
+   }
+
+   @Test
+   public void given_long_runs_run_length_tape_stores_runs_not_cells() {
+      final RunLengthTape tape = new RunLengthTape(BLANK, START);
+      for (int i = 1; i <= 30000; i++) {
+         tape.move(Move.RIGHT);
+         tape.write(i <= 10000 || i > 20000 ? '1' : '0');
+      }
+      Assert.assertEquals(tape.runCount(), 5);
+
+      // overwrite the zeros, so that all ones merge into a single run
+      while (tape.currentIndex() > 10001) {
+         tape.move(Move.LEFT);
+         if (tape.currentIndex() <= 20000) {
+            tape.write('1');
+         }
+      }
+      Assert.assertEquals(tape.runCount(), 3);
+      Assert.assertEquals(tape.charAt(15000), '1');
+      Assert.assertEquals(tape.charAt(30001), BLANK.charValue());
+   }
+
+   private static void write(Tape tape, int index, char symbol) {
+      while (tape.currentIndex() < index) {
+         tape.move(Move.RIGHT);
+      }
+      while (tape.currentIndex() > index) {
+         tape.move(Move.LEFT);
+      }
+      tape.writeChar(symbol);
+   }
+
+   @DataProvider(name = "EmptyTapes")
+   private Object[][] createEmptyTapes() {
+      return new Object[][] { { new ArrayTape(BLANK, START) },
+            { ArrayTape.withCapacity(BLANK, START, 1) }, { new Tape(BLANK, START) },
+            { new SparseTape(BLANK, START) },
+            { new RunLengthTape(BLANK, START) }, { new PersistentTape(BLANK, START) },
+            { StreamingTape.fromReader(BLANK, START, new StringReader("")) },
+            { new CodedTape(new Alphabet(Arrays.asList(BLANK, START, '0', '1', '\u00e9')), BLANK,
+                  START) } };
+   }
+}
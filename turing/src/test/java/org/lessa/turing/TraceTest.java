@@ -0,0 +1,97 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for writing binary traces and reading them back.
+ */
+public class TraceTest {
+
+   /**
+    * Marking machine, see {@link Machines#marking(Tape)}, on an array tape.
+    */
+   private static MachineBuilder createMarkingMachine(int n) {
+      return Machines.marking(Machines.unaryTape(TapeFactory.ARRAY, n));
+   }
+
+   /**
+    * Records a run, then checks the replayed tapes against fresh runs stopped by a step
+    * budget at a sample of steps.
+    */
+   private void assertReplays(boolean accelerated) throws IOException {
+      final Path directory = Files.createTempDirectory("trace");
+      final Path path = directory.resolve("run.trace");
+      final RunResult result;
+      try (TraceWriter writer = new TraceWriter(path, 50)) {
+         result = createMarkingMachine(20).withSubscriber(writer)
+               .withAcceleration(accelerated)
+               .build()
+               .run(RunLimits.NONE);
+      }
+
+      try (TraceReader reader = new TraceReader(path)) {
+         Assert.assertEquals(reader.steps(), result.steps());
+         Assert.assertEquals(reader.dense(), !accelerated);
+         Assert.assertEquals(reader.recordCount() == result.steps(), !accelerated);
+         Assert.assertEquals(reader.nextState(reader.recordCount() - 1), "H");
+
+         for (long step = 0; step <= result.steps(); step += 7) {
+            final Machine expected = createMarkingMachine(20).build();
+            final RunResult partial = expected.run(RunLimits.NONE.withMaxSteps(step));
+            final List<Tape> tapes = reader.tapesAt(step);
+            Assert.assertEquals(tapes.get(0).toString(), expected.tapes().get(0).toString());
+            Assert.assertEquals(tapes.get(0).currentIndex(),
+                  expected.tapes().get(0).currentIndex());
+            if (step < result.steps()) {
+               Assert.assertEquals(reader.state(reader.recordAt(step)), partial.finalState());
+            }
+         }
+      }
+      finally {
+         Files.deleteIfExists(path);
+         Files.deleteIfExists(TraceWriter.checkpointPath(path));
+         Files.delete(directory);
+      }
+   }
+
+   @Test
+   public void given_recorded_run_reader_replays_tapes_at_any_step() throws IOException {
+      assertReplays(false);
+   }
+
+   @Test
+   public void given_recorded_accelerated_run_reader_replays_tapes_at_any_step()
+         throws IOException {
+      assertReplays(true);
+   }
+
+   @Test
+   public void given_recorded_run_records_hold_symbols_and_moves() throws IOException {
+      final Path path = Files.createTempFile("trace", ".trace");
+      try {
+         try (TraceWriter writer = new TraceWriter(path)) {
+            createMarkingMachine(1).withSubscriber(writer).build().run();
+         }
+         try (TraceReader reader = new TraceReader(path)) {
+            Assert.assertEquals(reader.numTapes(), 1);
+            Assert.assertEquals(reader.recordCount(), 7);
+            Assert.assertEquals(reader.stateId(1), 1);
+            Assert.assertEquals(reader.state(1), "q1");
+            Assert.assertEquals(reader.headSymbol(1, 0), '1');
+            Assert.assertEquals(reader.output(1, 0), '0');
+            Assert.assertEquals(reader.move(1, 0), Move.RIGHT);
+            Assert.assertEquals(reader.nextState(1), "q2");
+         }
+      }
+      finally {
+         Files.deleteIfExists(path);
+         Files.deleteIfExists(TraceWriter.checkpointPath(path));
+      }
+   }
+}
@@ -0,0 +1,95 @@
+package org.lessa.turing;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for hashed and compiled transition functions.
+ */
+public class TransitionFunctionBuilderTest {
+
+   private static final Character[] BLANKS = new Character[] { '_', '_' };
+   private static final Character[] ONES = new Character[] { '1', '1' };
+   private static final Character[] ZERO_ONE = new Character[] { '0', '1' };
+   private static final Move[] MOVES = new Move[] { Move.RIGHT, Move.LEFT };
+
+   private TransitionFunctionBuilder createBuilder() {
+      return new TransitionFunctionBuilder(2).withTranstion("q0", BLANKS, ONES, MOVES, "q1")
+            .withTranstion("q0", ONES, ZERO_ONE, MOVES, "q0")
+            .withTranstion("q1", ZERO_ONE, BLANKS, MOVES, "H");
+   }
+
+   // ----------------------------------------------------------------------
+   // Negative cases
+   // ----------------------------------------------------------------------
+
+   @Test
+   public void given_undefined_point_compiled_function_returns_null() {
+      final CompiledTransitionFunction compiled = createBuilder().compile();
+      Assert.assertNull(compiled.apply("q1", Arrays.asList(ONES)));
+      Assert.assertNull(compiled.apply("H", Arrays.asList(BLANKS)));
+      Assert.assertNull(compiled.apply("unknown", Arrays.asList(BLANKS)));
+      Assert.assertNull(compiled.apply("q0", Arrays.asList('x', '_')));
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void given_many_tapes_compiling_fails_instead_of_overflowing() {
+      final int numTapes = 70;
+      final Character[] symbols = new Character[numTapes];
+      final Move[] moves = new Move[numTapes];
+      Arrays.fill(symbols, '0');
+      Arrays.fill(moves, Move.NONE);
+      final Character[] outputs = symbols.clone();
+      outputs[0] = '1';
+      // 2^70 entries per state, which overflows a long if the product is not cut short
+      new TransitionFunctionBuilder(numTapes).withTranstion("q0", symbols, outputs, moves, "H")
+            .compile();
+   }
+
+   // ----------------------------------------------------------------------
+   // Positive cases
+   // ----------------------------------------------------------------------
+
+   @Test
+   public void given_same_transitions_compiled_function_matches_hashed_function() {
+      final TransitionFunction hashed = createBuilder().build();
+      final CompiledTransitionFunction compiled = createBuilder().compile();
+
+      for (final String state : new String[] { "q0", "q1", "H" }) {
+         for (final Character[] symbols : new Character[][] { BLANKS, ONES, ZERO_ONE }) {
+            final Transition expected = hashed.apply(state, Arrays.asList(symbols));
+            final Transition actual = compiled.apply(state, Arrays.asList(symbols));
+            if (expected == null) {
+               Assert.assertNull(actual);
+            }
+            else {
+               Assert.assertEquals(actual.state(), expected.state());
+               Assert.assertEquals(actual.outputs(), expected.outputs());
+               Assert.assertEquals(actual.moves(), expected.moves());
+            }
+         }
+      }
+   }
+
+   @Test
+   public void given_codes_compiled_function_returns_primitive_transition() {
+      final CompiledTransitionFunction compiled = createBuilder().compile();
+      final Alphabet alphabet = compiled.alphabet();
+
+      Assert.assertEquals(compiled.stateCount(), 3);
+      Assert.assertEquals(compiled.transitionCount(), 3);
+      Assert.assertEquals(alphabet.size(), 3);
+
+      final int symbols = compiled
+            .encode(new int[] { alphabet.code('0'), alphabet.code('1') });
+      final CompiledTransition transition = compiled.apply(compiled.stateCode("q1"), symbols);
+
+      Assert.assertEquals(compiled.state(transition.nextState()), "H");
+      Assert.assertEquals(alphabet.symbol(transition.outputCode(0)), '_');
+      Assert.assertEquals(transition.shift(0), 1);
+      Assert.assertEquals(transition.shift(1), -1);
+      Assert.assertSame(compiled.transition(transition.id()), transition);
+   }
+}
@@ -0,0 +1,150 @@
+package org.lessa.turing;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for running encoded machines on the shared interpreter.
+ */
+public class UniversalMachineTest {
+
+   private static MachineDefinition createCopyMachine() {
+      final TransitionFunctionBuilder function = new TransitionFunctionBuilder(2);
+      function.withTranstion("copy", new Character[] { '>', '>' },
+            new Character[] { '>', '>' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { 'a', '_' },
+            new Character[] { 'a', 'a' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { 'b', '_' },
+            new Character[] { 'b', 'b' }, new Move[] { Move.RIGHT, Move.RIGHT }, "copy");
+      function.withTranstion("copy", new Character[] { '_', '_' },
+            new Character[] { '_', '_' }, new Move[] { Move.NONE, Move.NONE }, "done");
+      return new MachineBuilder().withAlphabetSymbols('a', 'b')
+            .withBlankSymbol('_')
+            .withStartSymbol('>')
+            .withInputSymbols('a', 'b')
+            .withStates("copy", "done")
+            .withInitialState("copy")
+            .withFinalStates("done")
+            .withMoreTapes(1)
+            .withTransitionFunction(function.compile())
+            .buildDefinition();
+   }
+
+   private static MachineDefinition createSuccessor() throws IOException {
+      return MachineFile.readText(new StringReader(Machines.SUCCESSOR_TEXT)).buildDefinition();
+   }
+
+   @Test
+   public void given_encoded_machine_run_matches_machine_run() throws IOException {
+      final MachineDefinition definition = createSuccessor();
+      final Machine machine = definition
+            .newMachine(new ArrayTape('_', '>', '1', '1', '1'));
+      final RunResult expected = machine.run(RunLimits.NONE);
+      final StringBuilder tape = new StringBuilder();
+      final UniversalMachine.Result actual = UniversalMachine.run(
+            UniversalMachine.encode(definition), "111", RunLimits.NONE, tape);
+
+      Assert.assertEquals(actual.outcome(), expected.outcome());
+      Assert.assertEquals(actual.steps(), expected.steps());
+      Assert.assertEquals(tape.toString(), machine.tapes().get(0).toString());
+      final CompiledTransitionFunction function = (CompiledTransitionFunction) definition
+            .transitionFunction();
+      Assert.assertEquals(function.state(actual.finalStateCode()), "H");
+   }
+
+   @Test
+   public void given_two_tapes_encoded_machine_halts() {
+      final int[] machine = UniversalMachine.encode(createCopyMachine());
+      final StringBuilder tape = new StringBuilder();
+      final UniversalMachine.Result result = UniversalMachine.run(machine, "abba",
+            RunLimits.NONE, tape);
+
+      Assert.assertTrue(result.halted());
+      Assert.assertEquals(result.steps(), 6);
+      Assert.assertEquals(tape.toString(), ">abba_");
+   }
+
+   @Test
+   public void given_consecutive_runs_buffers_start_blank() throws IOException {
+      final int[] machine = UniversalMachine.encode(createSuccessor());
+      final StringBuilder longer = new StringBuilder();
+      final StringBuilder shorter = new StringBuilder();
+      UniversalMachine.run(machine, "1111111111", RunLimits.NONE, longer);
+      final UniversalMachine.Result result = UniversalMachine.run(machine, "1",
+            RunLimits.NONE, shorter);
+
+      Assert.assertEquals(longer.toString(), ">11111111111");
+      Assert.assertEquals(shorter.toString(), ">11");
+      Assert.assertEquals(result.steps(), 5);
+   }
+
+   @Test
+   public void given_step_budget_run_stops() throws IOException {
+      final UniversalMachine.Result result = UniversalMachine.run(
+            UniversalMachine.encode(createSuccessor()), "111", RunLimits.NONE.withMaxSteps(3));
+
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.STEP_BUDGET_EXHAUSTED);
+      Assert.assertEquals(result.steps(), 3);
+   }
+
+   @Test
+   public void given_undefined_transition_run_diverges() throws IOException {
+      final int[] machine = UniversalMachine.encode(MachineFile
+            .readText(new StringReader(Machines.SUCCESSOR_TEXT.replace("q1 _ 1 L q2\n", "")))
+            .buildDefinition());
+      final UniversalMachine.Result result = UniversalMachine.run(machine, "11", RunLimits.NONE);
+
+      Assert.assertEquals(result.outcome(), RunResult.Outcome.DIVERGED);
+      Assert.assertEquals(result.steps(), 3);
+   }
+
+   @Test
+   public void given_many_threads_runs_do_not_interfere() throws Exception {
+      final int[] machine = UniversalMachine.encode(createSuccessor());
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         final List<Future<String>> tapes = new ArrayList<>();
+         for (int length = 0; length < 64; length++) {
+            final String input = new String(new char[length]).replace('\0', '1');
+            tapes.add(executor.submit(() -> {
+               final StringBuilder tape = new StringBuilder();
+               UniversalMachine.run(machine, input, RunLimits.NONE, tape);
+               return tape.toString();
+            }));
+         }
+         for (int length = 0; length < 64; length++) {
+            Assert.assertEquals(tapes.get(length).get().length(), length + 2);
+         }
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void given_symbol_outside_alphabet_run_fails() throws IOException {
+      UniversalMachine.run(UniversalMachine.encode(createSuccessor()), "12", RunLimits.NONE);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void given_hashed_function_encoding_fails() {
+      final TransitionFunctionBuilder function = new TransitionFunctionBuilder(1);
+      function.withTranstion("q0", new Character[] { '>' }, new Character[] { '>' },
+            new Move[] { Move.NONE }, "H");
+      UniversalMachine.encode(new MachineBuilder().withAlphabetSymbols('1')
+            .withInputSymbols('1')
+            .withStates("q0", "H")
+            .withInitialState("q0")
+            .withFinalStates("H")
+            .withTransitionFunction(function.build())
+            .buildDefinition());
+   }
+}